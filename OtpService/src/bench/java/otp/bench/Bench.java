@@ -0,0 +1,65 @@
+package otp.bench;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Минимальный измеритель для бенчмарков: прогрев, затем замер
+ * времени, процессорного времени и выделенной памяти потока на одну операцию.
+ * Не заменяет JMH, но достаточен для сравнения вариантов между собой.
+ */
+public final class Bench {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Результат последней операции, чтобы JIT не выбросил вычисления */
+    private static volatile Object sink;
+
+    private Bench() {}
+
+    /**
+     * Операция бенчмарка. Возвращаемое значение нужно только для защиты от
+     * удаления «мёртвого» кода.
+     */
+    @FunctionalInterface
+    public interface Op {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Понижает уровень логов до WARN, чтобы логирование каждого запроса не искажало замер.
+     */
+    public static void quietLogs() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    /**
+     * Прогревает и измеряет операцию, печатает строку результата.
+     *
+     * @param name       название варианта
+     * @param iterations число измеряемых итераций (столько же уходит на прогрев)
+     * @param op         операция
+     * @return среднее процессорное время на операцию, нс
+     */
+    public static double measure(String name, int iterations, Op op) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            sink = op.run();
+        }
+        long allocStart = ALLOCATIONS.getCurrentThreadAllocatedBytes();
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        long wallStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = op.run();
+        }
+        double wall = (double) (System.nanoTime() - wallStart) / iterations;
+        double cpu = (double) (THREADS.getCurrentThreadCpuTime() - cpuStart) / iterations;
+        double alloc = (double) (ALLOCATIONS.getCurrentThreadAllocatedBytes() - allocStart) / iterations;
+        System.out.printf("%-40s %12.0f ns/op %12.0f cpu-ns/op %10.0f B/op%n", name, wall, cpu, alloc);
+        return cpu;
+    }
+}
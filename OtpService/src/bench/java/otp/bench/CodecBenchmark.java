@@ -0,0 +1,73 @@
+package otp.bench;
+
+import otp.model.User;
+import otp.model.UserRole;
+import otp.codec.HttpCodec;
+import otp.codec.MediaType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сравнение форматов JSON, CBOR и Smile на телах /otp/generate, /otp/validate
+ * и ответе /admin/users: размер на проводе и процессорное время на запрос.
+ * <p>
+ * Запуск: ./gradlew bench -Pbench=otp.bench.CodecBenchmark
+ * </p>
+ */
+public class CodecBenchmark {
+    private static final int ITERATIONS = 200_000;
+
+    /** Та же структура, что и тело POST /otp/generate */
+    public static class GenerateRequest {
+        public Long userId;
+        public String operationId;
+        public String channel;
+    }
+
+    /** Та же структура, что и тело POST /otp/validate */
+    public static class ValidateRequest {
+        public String code;
+    }
+
+    public static void main(String[] args) throws Exception {
+        GenerateRequest generate = new GenerateRequest();
+        generate.userId = 1234567L;
+        generate.operationId = "payment-7f3c9a12-5d4e-4b8a-9c01-2e6f8d9b0a11";
+        generate.channel = "SMS";
+
+        ValidateRequest validate = new ValidateRequest();
+        validate.code = "482913";
+
+        List<User> users = new ArrayList<>();
+        for (long i = 1; i <= 100; i++) {
+            users.add(new User(i, "user" + i, "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8",
+                    UserRole.USER));
+        }
+
+        System.out.printf("%-10s %16s %16s %16s%n", "format", "generate bytes", "validate bytes", "users bytes");
+        for (MediaType type : MediaType.values()) {
+            System.out.printf("%-10s %16d %16d %16d%n", type,
+                    type.getMapper().writeValueAsBytes(generate).length,
+                    type.getMapper().writeValueAsBytes(validate).length,
+                    type.getMapper().writeValueAsBytes(users).length);
+        }
+        System.out.println();
+
+        for (MediaType type : MediaType.values()) {
+            FakeExchange generateExchange = new FakeExchange(
+                    type.getMapper().writeValueAsBytes(generate), type.getContentType(), null);
+            FakeExchange validateExchange = new FakeExchange(
+                    type.getMapper().writeValueAsBytes(validate), type.getContentType(), null);
+            FakeExchange usersExchange = new FakeExchange(new byte[0], null, type.getContentType());
+            Bench.measure(type + " decode generate", ITERATIONS,
+                    () -> HttpCodec.readBody(generateExchange.reset(), type, GenerateRequest.class));
+            Bench.measure(type + " decode validate", ITERATIONS,
+                    () -> HttpCodec.readBody(validateExchange.reset(), type, ValidateRequest.class));
+            Bench.measure(type + " encode users(100)", ITERATIONS / 20, () -> {
+                HttpCodec.sendResponse(usersExchange.reset(), 200, users);
+                return usersExchange;
+            });
+        }
+    }
+}
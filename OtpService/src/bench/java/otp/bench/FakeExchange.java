@@ -0,0 +1,107 @@
+package otp.bench;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * HttpExchange без сети для бенчмарков кодеков: тело запроса читается из
+ * массива, ответ только подсчитывается. Сам обмен между итерациями
+ * переиспользуется (reset), чтобы не вносить собственных выделений памяти.
+ */
+final class FakeExchange extends HttpExchange {
+    private static final URI URI_ROOT = URI.create("/");
+
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final ReplayInputStream body;
+    private final CountingOutputStream response = new CountingOutputStream();
+    private int responseCode = -1;
+
+    FakeExchange(byte[] requestBody, String contentType, String accept) {
+        this.body = new ReplayInputStream(requestBody);
+        if (contentType != null) {
+            requestHeaders.set("Content-Type", contentType);
+        }
+        if (accept != null) {
+            requestHeaders.set("Accept", accept);
+        }
+    }
+
+    /**
+     * Готовит обмен к следующей итерации.
+     */
+    FakeExchange reset() {
+        body.pos = 0;
+        responseHeaders.clear();
+        responseCode = -1;
+        return this;
+    }
+
+    long responseBytes() {
+        return response.count;
+    }
+
+    @Override public Headers getRequestHeaders() { return requestHeaders; }
+    @Override public Headers getResponseHeaders() { return responseHeaders; }
+    @Override public URI getRequestURI() { return URI_ROOT; }
+    @Override public String getRequestMethod() { return "POST"; }
+    @Override public HttpContext getHttpContext() { return null; }
+    @Override public void close() { }
+    @Override public InputStream getRequestBody() { return body; }
+    @Override public OutputStream getResponseBody() { return response; }
+    @Override public void sendResponseHeaders(int rCode, long responseLength) { responseCode = rCode; }
+    @Override public InetSocketAddress getRemoteAddress() { return null; }
+    @Override public int getResponseCode() { return responseCode; }
+    @Override public InetSocketAddress getLocalAddress() { return null; }
+    @Override public String getProtocol() { return "HTTP/1.1"; }
+    @Override public Object getAttribute(String name) { return null; }
+    @Override public void setAttribute(String name, Object value) { }
+    @Override public void setStreams(InputStream i, OutputStream o) { }
+    @Override public HttpPrincipal getPrincipal() { return null; }
+
+    private static final class ReplayInputStream extends InputStream {
+        private final byte[] data;
+        private int pos;
+
+        ReplayInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) {
+                return -1;
+            }
+            int n = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package otp.bench;
+
+import otp.config.DatabaseManager;
+import otp.dao.OtpConfigDao;
+import otp.dao.impl.OtpCodeDaoImpl;
+import otp.model.OtpConfig;
+import otp.service.OtpService;
+import otp.service.notification.NotificationServiceFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Генерация и проверка OTP в двух режимах OtpService бок о бок:
+ * код в БД (INSERT при генерации, условный UPDATE при проверке) и вычисляемый
+ * (HMAC от пользователя, операции и шага времени — без обращений к БД).
+ * <p>
+ * Режиму БД нужен PostgreSQL из application.properties и существующий пользователь
+ * (id — первый аргумент, по умолчанию 1); если БД недоступна, замеряется только
+ * вычисляемый режим. Конфигурация OTP подменена заглушкой, чтобы не читать её из БД;
+ * тип операции и секрет вычисляемого режима задаются здесь же.
+ * Запуск: ./gradlew bench -Pbench=otp.bench.OtpModeBenchmark [--args="1"]
+ * </p>
+ */
+public class OtpModeBenchmark {
+    private static final String STATELESS_TYPE = "bench";
+    private static final int STATELESS_ITERATIONS = 100_000;
+    private static final int STORED_ITERATIONS = 2_000;
+
+    private static long sequence;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("otp.stateless.operations", STATELESS_TYPE);
+        System.setProperty("otp.stateless.secret", "bench-secret");
+        Bench.quietLogs();
+        long userId = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+
+        OtpConfig config = new OtpConfig(1L, 6, 300);
+        OtpConfigDao configDao = new OtpConfigDao() {
+            @Override
+            public OtpConfig getConfig() {
+                return config;
+            }
+
+            @Override
+            public void updateConfig(OtpConfig updated) {
+            }
+
+            @Override
+            public void initDefaultConfigIfEmpty() {
+            }
+        };
+        OtpService service = new OtpService(new OtpCodeDaoImpl(), configDao, null, new NotificationServiceFactory());
+
+        // Каждая итерация — новая операция: иначе код того же шага отсекла бы защита от повтора
+        Bench.measure("вычисляемый: генерация", STATELESS_ITERATIONS,
+                () -> service.generateOtp(userId, nextOperation(STATELESS_TYPE)));
+        Bench.measure("вычисляемый: генерация + проверка", STATELESS_ITERATIONS, () -> {
+            String operationId = nextOperation(STATELESS_TYPE);
+            return service.validateOtp(userId, operationId, service.generateOtp(userId, operationId));
+        });
+
+        if (!databaseAvailable()) {
+            System.out.println("\nPostgreSQL недоступен: режим с кодом в БД не замерен");
+            return;
+        }
+        Bench.measure("в БД: генерация (INSERT)", STORED_ITERATIONS,
+                () -> service.generateOtp(userId, nextOperation("stored")));
+        Bench.measure("в БД: генерация + проверка (INSERT+UPDATE)", STORED_ITERATIONS, () -> {
+            String operationId = nextOperation("stored");
+            return service.validateOtp(userId, operationId, service.generateOtp(userId, operationId));
+        });
+        System.out.println("\nCPU для режима БД не включает работу PostgreSQL; сравнивайте столбец «время»");
+    }
+
+    private static String nextOperation(String type) {
+        return type + "-" + (sequence++);
+    }
+
+    private static boolean databaseAvailable() {
+        try (Connection connection = DatabaseManager.getConnection()) {
+            return connection.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package otp.bench;
+
+import otp.service.PasswordHasher;
+import otp.util.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пропускная способность входа (проверка пароля) при разной стоимости PBKDF2:
+ * процессорное время одной проверки и входы в секунду через пул PasswordHasher.
+ * Помогает выбрать password.pbkdf2.iterations и password.hashing.threads под железо.
+ * <p>
+ * Запуск: ./gradlew bench -Pbench=otp.bench.PasswordHashBenchmark [--args="10000 210000"]
+ * </p>
+ */
+public class PasswordHashBenchmark {
+    private static final int[] DEFAULT_COSTS = {10_000, 50_000, 100_000, 210_000, 600_000};
+    private static final long POOL_RUN_MILLIS = 3_000;
+    private static final String PASSWORD = "correct horse battery staple";
+
+    public static void main(String[] args) throws Exception {
+        // Минимальная стоимость в настройках: проверка не должна перехешировать пароль
+        System.setProperty("password.pbkdf2.iterations", "1");
+        Bench.quietLogs();
+
+        int[] costs = DEFAULT_COSTS;
+        if (args.length > 0) {
+            costs = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                costs[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        PasswordHasher hasher = new PasswordHasher(threads, 1024, 600_000);
+        System.out.printf("Потоков пула хеширования: %d%n%n", threads);
+
+        String legacy = "ad2f4a2e0b8e0b2b6b8ea6b5b0e68a5c0a4c50f8a3b3f1f7b51fb4e1d1d6b1e5";
+        Bench.measure("sha256 (старый формат)", 200_000, () -> PasswordEncoder.matches(PASSWORD, legacy));
+
+        List<String> summary = new ArrayList<>();
+        for (int cost : costs) {
+            String stored = PasswordEncoder.hash(PASSWORD, cost);
+            int iterations = Math.max(3, 2_000_000 / cost);
+            double cpuNs = Bench.measure("pbkdf2 " + cost + " (1 поток)", iterations,
+                    () -> PasswordEncoder.matches(PASSWORD, stored));
+            double poolRate = poolLoginsPerSecond(hasher, stored, threads * 2);
+            summary.add(String.format("%-10d %14.1f %18.1f", cost, 1e9 / cpuNs, poolRate));
+        }
+
+        System.out.printf("%n%-10s %14s %18s%n", "итерации", "входов/с/ядро", "входов/с через пул");
+        summary.forEach(System.out::println);
+    }
+
+    /**
+     * Нагружает пул несколькими вызывающими потоками (как потоки запросов) и считает успешные проверки.
+     */
+    private static double poolLoginsPerSecond(PasswordHasher hasher, String stored, int callers)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder logins = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Thread t = new Thread(() -> {
+                while (running.get()) {
+                    if (hasher.verify(PASSWORD, stored).matches()) {
+                        logins.increment();
+                    }
+                }
+            });
+            t.start();
+            workers.add(t);
+        }
+        long start = System.nanoTime();
+        Thread.sleep(POOL_RUN_MILLIS);
+        running.set(false);
+        for (Thread t : workers) {
+            t.join();
+        }
+        return logins.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,118 @@
+package otp.bench;
+
+import otp.api.AuthFilter;
+import otp.codec.HttpCodec;
+import otp.codec.MediaType;
+import otp.model.User;
+import otp.model.UserRole;
+import otp.rpc.OtpRpcClient;
+import otp.rpc.RpcFrame;
+import otp.rpc.RpcProtocol;
+import otp.rpc.RpcServer;
+import otp.server.InstrumentedExecutor;
+import otp.server.JdkHttpTransport;
+import otp.server.RequestExecutors;
+import otp.util.JwtUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пропускная способность проверки OTP по HTTP (JWT в каждом запросе, JSON)
+ * и по бинарному TCP-протоколу (одно аутентифицированное соединение).
+ * <p>
+ * Обе стороны используют заглушку вместо OtpService, чтобы сравнивать только
+ * транспорт, разбор запроса и аутентификацию, а не PostgreSQL.
+ * Запуск: ./gradlew bench -Pbench=otp.bench.RpcThroughputBenchmark
+ * </p>
+ */
+public class RpcThroughputBenchmark {
+    private static final int CONCURRENCY = 64;
+    private static final long WARMUP_SECONDS = 5;
+    private static final long MEASURE_SECONDS = 10;
+
+    /** Та же структура, что и тело POST /otp/validate */
+    public static class ValidateRequest {
+        public String code;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Bench.quietLogs();
+        String token = JwtUtils.generateToken(new User(1L, "bench", null, UserRole.USER));
+
+        // HTTP: JdkHttpTransport + AuthFilter + разбор JSON, как у /otp/validate
+        InstrumentedExecutor httpExecutor = new InstrumentedExecutor("fixed",
+                RequestExecutors.newBoundedPool("bench-http", 32, 10_000));
+        JdkHttpTransport http = new JdkHttpTransport(0, httpExecutor);
+        http.createContext("/otp/validate", exchange -> {
+            ValidateRequest req = HttpCodec.readBody(exchange, MediaType.JSON, ValidateRequest.class);
+            HttpCodec.sendEmpty(exchange, req.code != null ? 200 : 400);
+        }).getFilters().add(new AuthFilter(UserRole.USER));
+        http.start();
+        int httpPort = http.getPort();
+
+        // TCP: RpcServer с той же заглушкой
+        InstrumentedExecutor rpcExecutor = new InstrumentedExecutor("fixed",
+                RequestExecutors.newBoundedPool("bench-rpc", 32, 10_000));
+        RpcServer rpc = new RpcServer(0, (session, request) -> {
+            if (request.getCode() == RpcProtocol.OP_AUTH) {
+                session.authenticate(JwtUtils.verifyToken(token), 60_000);
+            }
+            return new RpcFrame(request.getRequestId(), RpcProtocol.STATUS_OK, null);
+        }, rpcExecutor, 65536, 1024, 2000, 1024, 10_000);
+        rpc.start();
+
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + httpPort + "/otp/validate"))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"code\":\"482913\"}"))
+                .build();
+
+        try (OtpRpcClient client = OtpRpcClient.connect("localhost", rpc.getPort())) {
+            client.authenticate(token).join();
+
+            run("HTTP + JWT + JSON", () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+            run("TCP binary, 1 connection", () -> client.validate("482913"));
+        } finally {
+            rpc.stop(1);
+            http.stop(0);
+            httpExecutor.shutdown(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Держит CONCURRENCY запросов в полёте и считает завершённые за интервал.
+     */
+    private static void run(String name, java.util.function.Supplier<CompletableFuture<?>> call) throws Exception {
+        for (long seconds : new long[]{WARMUP_SECONDS, MEASURE_SECONDS}) {
+            Semaphore window = new Semaphore(CONCURRENCY);
+            LongAdder done = new LongAdder();
+            LongAdder failed = new LongAdder();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long start = System.nanoTime();
+            while (System.nanoTime() < end) {
+                window.acquire();
+                call.get().whenComplete((r, e) -> {
+                    if (e != null) {
+                        failed.increment();
+                    }
+                    done.increment();
+                    window.release();
+                });
+            }
+            window.acquire(CONCURRENCY);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            if (seconds == MEASURE_SECONDS) {
+                System.out.printf("%-28s %10.0f req/s  (ошибок: %d)%n", name, done.sum() / elapsed, failed.sum());
+            }
+        }
+    }
+}
@@ -1,17 +1,30 @@
 package otp.api;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
+import otp.codec.HttpCodec;
+import otp.codec.MediaType;
+import otp.config.AppConfig;
+import otp.dao.impl.CachingOtpConfigDao;
+import otp.dao.impl.CachingUserDao;
 import otp.dao.impl.OtpCodeDaoImpl;
-import otp.dao.impl.OtpConfigDaoImpl;
-import otp.dao.impl.UserDaoImpl;
-import otp.model.User;
+import otp.model.UserRole;
+import otp.model.UserSummary;
 import otp.service.AdminService;
-import otp.util.JsonUtil;
-import otp.util.HttpUtils;
+import otp.service.UserPage;
+import otp.util.DeadlineExceededException;
+import otp.util.JwtUtils;
+import otp.util.MetricsRegistry;
+import otp.util.QueryParams;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
-import java.util.List;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,8 +34,11 @@ import org.slf4j.LoggerFactory;
  * Доступные маршруты:
  * <ul>
  *   <li>PATCH  /admin/config     — изменить длину и время жизни OTP-кодов</li>
- *   <li>GET    /admin/users      — получить список всех пользователей без админов</li>
+ *   <li>GET    /admin/users      — получить страницу пользователей (курсор по id, фильтры)</li>
  *   <li>DELETE /admin/users/{id} — удалить пользователя и связанные OTP-коды</li>
+ *   <li>GET    /admin/otp-codes/export — потоковая выгрузка OTP-кодов за период (NDJSON или CSV)</li>
+ *   <li>DELETE /admin/token-cache — очистить кэш проверенных JWT-токенов</li>
+ *   <li>GET    /admin/metrics    — получить метрики сервера</li>
  * </ul>
  * </p>
  */
@@ -30,10 +46,11 @@ public class AdminController {
     private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
 
     private final AdminService adminService = new AdminService(
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
+            CachingOtpConfigDao.shared(),
+            CachingUserDao.shared(),
             new OtpCodeDaoImpl()
     );
+    private final int defaultPageSize = AppConfig.getInt("admin.users.page.default.size", 100);
 
     /**
      * Обрабатывает HTTP PATCH запрос на изменение конфигурации OTP.
@@ -45,6 +62,7 @@ public class AdminController {
      *   <li>400 Bad Request — если параметры некорректны</li>
      *   <li>415 Unsupported Media Type — если Content-Type не application/json</li>
      *   <li>405 Method Not Allowed — если метод не PATCH</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — другие ошибки</li>
      * </ul>
      *
@@ -57,38 +75,54 @@ public class AdminController {
 
         if (!"PATCH".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для обновления конфигурации", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
         String ct = exchange.getRequestHeaders().getFirst("Content-Type");
         if (ct == null || !ct.contains("application/json")) {
             logger.warn("Неподдерживаемый Content-Type: {} для обновления конфигурации", ct);
-            HttpUtils.sendError(exchange, 415, "Content-Type должен быть application/json");
+            HttpCodec.sendError(exchange, 415, "Content-Type должен быть application/json");
             return;
         }
 
         try {
-            ConfigRequest req = JsonUtil.fromJson(exchange.getRequestBody(), ConfigRequest.class);
+            ConfigRequest req = HttpCodec.readBody(exchange, MediaType.JSON, ConfigRequest.class);
             logger.info("Обработка обновления конфигурации OTP: length={}, ttlSeconds={}", req.length, req.ttlSeconds);
 
             adminService.updateOtpConfig(req.length, req.ttlSeconds);
             logger.info("Конфигурация OTP успешно обновлена");
-            HttpUtils.sendEmptyResponse(exchange, 204);
+            HttpCodec.sendEmpty(exchange, 204);
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
         } catch (IllegalArgumentException e) {
             logger.warn("Ошибка обновления конфигурации OTP: {}", e.getMessage());
-            HttpUtils.sendError(exchange, 400, e.getMessage());
+            HttpCodec.sendError(exchange, 400, e.getMessage());
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при обновлении конфигурации OTP", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
         }
     }
 
     /**
-     * Обрабатывает HTTP GET запрос для получения списка пользователей без админов.
+     * Обрабатывает HTTP GET запрос для получения страницы пользователей.
+     * <p>
+     * Параметры запроса (все необязательные):
+     * <ul>
+     *   <li>after — курсор: id последнего пользователя предыдущей страницы (по умолчанию 0)</li>
+     *   <li>limit — размер страницы (по умолчанию admin.users.page.default.size)</li>
+     *   <li>username — префикс логина</li>
+     *   <li>role — USER или ADMIN; без параметра администраторы не выводятся</li>
+     * </ul>
+     * Страница отдаётся массивом, сериализуемым потоково; курсор следующей страницы
+     * передаётся в заголовке X-Next-Cursor (на последней странице заголовка нет).
+     * </p>
      * <ul>
-     *   <li>200 OK — возвращает JSON-массив пользователей</li>
+     *   <li>200 OK — возвращает массив пользователей в формате из Accept (JSON, CBOR или Smile)</li>
+     *   <li>400 Bad Request — если параметры некорректны</li>
      *   <li>405 Method Not Allowed — если метод не GET</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — другие ошибки</li>
      * </ul>
      *
@@ -101,19 +135,47 @@ public class AdminController {
 
         if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для получения списка пользователей", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
+        UserPage page;
         try {
-            List<User> users = adminService.getAllUsersWithoutAdmins();
-            logger.info("Получен список пользователей, количество: {}", users.size());
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            long after = QueryParams.getLong(params, "after", 0);
+            long limit = QueryParams.getLong(params, "limit", defaultPageSize);
+            String username = params.get("username");
+            String role = params.get("role");
 
-            String json = JsonUtil.toJson(users);
-            HttpUtils.sendJsonResponse(exchange, 200, json);
+            page = adminService.getUsersPage(after, (int) Math.min(limit, Integer.MAX_VALUE),
+                    username == null || username.isEmpty() ? null : username,
+                    role == null || role.isEmpty() ? null : parseRole(role));
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+            return;
+        } catch (IllegalArgumentException e) {
+            logger.warn("Некорректные параметры списка пользователей: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 400, e.getMessage());
+            return;
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при получении списка пользователей", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            return;
+        }
+
+        // После отправки заголовков ошибку уже не вернуть: IOException уходит транспорту
+        if (page.getNextCursor() != null) {
+            exchange.getResponseHeaders().set("X-Next-Cursor", page.getNextCursor().toString());
+        }
+        HttpCodec.sendArray(exchange, 200, page.getItems(), UserSummary.class);
+    }
+
+    private static UserRole parseRole(String role) {
+        try {
+            return UserRole.valueOf(role);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Неизвестная роль: " + role);
         }
     }
 
@@ -124,6 +186,7 @@ public class AdminController {
      *   <li>400 Bad Request — если ID некорректен</li>
      *   <li>404 Not Found — если пользователь не найден</li>
      *   <li>405 Method Not Allowed — если метод не DELETE</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — другие ошибки</li>
      * </ul>
      *
@@ -136,7 +199,7 @@ public class AdminController {
 
         if (!"DELETE".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для удаления пользователя", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
@@ -149,16 +212,176 @@ public class AdminController {
             adminService.deleteUserAndCodes(id);
 
             logger.info("Пользователь успешно удален: ID={}", id);
-            HttpUtils.sendEmptyResponse(exchange, 204);
+            HttpCodec.sendEmpty(exchange, 204);
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
         } catch (NumberFormatException e) {
             logger.warn("Неверный ID пользователя для удаления");
-            HttpUtils.sendError(exchange, 400, "Неверный ID пользователя");
+            HttpCodec.sendError(exchange, 400, "Неверный ID пользователя");
         } catch (IllegalArgumentException e) {
             logger.warn("Пользователь не найден: {}", e.getMessage());
-            HttpUtils.sendError(exchange, 404, e.getMessage());
+            HttpCodec.sendError(exchange, 404, e.getMessage());
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при удалении пользователя", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP GET запрос на выгрузку OTP-кодов за период.
+     * <p>
+     * Параметры запроса: from и to — границы по created_at (ISO дата или дата-время, to не включается,
+     * оба необязательны), format — ndjson (по умолчанию) или csv. При Accept-Encoding: gzip ответ сжимается.
+     * Строки пишутся в ответ (chunked) по мере чтения серверным курсором, память не зависит от объёма выгрузки.
+     * Если чтение из БД прервалось после начала ответа, тело остаётся неполным (без завершения gzip),
+     * а ошибка пишется в журнал.
+     * </p>
+     * <ul>
+     *   <li>200 OK — поток строк в выбранном формате</li>
+     *   <li>400 Bad Request — если параметры некорректны</li>
+     *   <li>405 Method Not Allowed — если метод не GET</li>
+     *   <li>500 Internal Server Error — ошибка до начала передачи</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода или сбое выгрузки после отправки заголовков
+     */
+    public void exportOtpCodes(HttpExchange exchange) throws IOException {
+        logger.info("Получен запрос на выгрузку OTP-кодов: {} {}",
+                exchange.getRequestMethod(), exchange.getRequestURI());
+
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            logger.warn("Метод не разрешен: {} для выгрузки OTP-кодов", exchange.getRequestMethod());
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
+            return;
+        }
+
+        Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        String format = params.getOrDefault("format", "ndjson");
+        LocalDateTime from;
+        LocalDateTime to;
+        try {
+            from = parseBound(params.get("from"), "from");
+            to = parseBound(params.get("to"), "to");
+            if (from != null && to != null && !from.isBefore(to)) {
+                throw new IllegalArgumentException("Параметр from должен быть раньше to");
+            }
+            if (!OtpCodeExportWriter.isSupported(format)) {
+                throw new IllegalArgumentException("Формат выгрузки должен быть ndjson или csv");
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("Некорректные параметры выгрузки OTP-кодов: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        Headers headers = exchange.getResponseHeaders();
+
+        // Заголовки отправляются только при первой строке: ошибку подключения к БД
+        // ещё можно вернуть клиенту как 500
+        OtpCodeExportWriter[] writer = new OtpCodeExportWriter[1];
+        OutputStream[] body = new OutputStream[1];
+        long rows;
+        try {
+            rows = adminService.exportOtpCodes(from, to, code -> {
+                if (writer[0] == null) {
+                    body[0] = beginExport(exchange, headers, format, gzip);
+                    writer[0] = OtpCodeExportWriter.forFormat(format, body[0]);
+                }
+                writer[0].write(code);
+            });
+        } catch (Exception e) {
+            if (writer[0] == null) {
+                logger.error("Внутренняя ошибка сервера при выгрузке OTP-кодов", e);
+                HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+                return;
+            }
+            // Заголовки уже отправлены: не завершаем поток штатно, чтобы обрыв был заметен клиенту
+            throw new IOException("Выгрузка OTP-кодов прервана после начала передачи", e);
+        }
+
+        if (writer[0] == null) {
+            body[0] = beginExport(exchange, headers, format, gzip);
+            writer[0] = OtpCodeExportWriter.forFormat(format, body[0]);
+        }
+        writer[0].close();
+        logger.info("Выгрузка OTP-кодов завершена: {} строк, формат {}, gzip={}", rows, format, gzip);
+    }
+
+    private static OutputStream beginExport(HttpExchange exchange, Headers headers, String format, boolean gzip)
+            throws IOException {
+        headers.set("Content-Type", OtpCodeExportWriter.contentType(format));
+        headers.set("Vary", "Accept-Encoding");
+        if (gzip) {
+            headers.set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        return gzip ? new GZIPOutputStream(out, 8192) : out;
+    }
+
+    /**
+     * Разбирает границу периода: дата (начало суток) или дата-время в ISO-формате.
+     */
+    private static LocalDateTime parseBound(String value, String name) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return value.length() == 10 ? LocalDate.parse(value).atStartOfDay() : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Параметр " + name + " должен быть датой или датой-временем ISO-8601");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP DELETE запрос на очистку кэша проверенных JWT-токенов.
+     * После очистки каждый токен при следующем запросе снова проходит проверку подписи.
+     * <ul>
+     *   <li>204 No Content — кэш очищен</li>
+     *   <li>405 Method Not Allowed — если метод не DELETE</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void clearTokenCache(HttpExchange exchange) throws IOException {
+        if (!"DELETE".equalsIgnoreCase(exchange.getRequestMethod())) {
+            logger.warn("Метод не разрешен: {} для очистки кэша токенов", exchange.getRequestMethod());
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
+            return;
+        }
+        JwtUtils.invalidateAllCachedTokens();
+        logger.info("Кэш проверенных JWT-токенов очищен");
+        HttpCodec.sendEmpty(exchange, 204);
+    }
+
+    /**
+     * Обрабатывает HTTP GET запрос на получение метрик сервера.
+     * <ul>
+     *   <li>200 OK — возвращает JSON-объект с метриками всех источников</li>
+     *   <li>405 Method Not Allowed — если метод не GET</li>
+     *   <li>500 Internal Server Error — другие ошибки</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void metrics(HttpExchange exchange) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            logger.warn("Метод не разрешен: {} для получения метрик", exchange.getRequestMethod());
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
+            return;
+        }
+
+        try {
+            HttpCodec.sendResponse(exchange, 200, MetricsRegistry.snapshot());
+        } catch (Exception e) {
+            logger.error("Внутренняя ошибка сервера при получении метрик", e);
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
         }
     }
 
@@ -0,0 +1,132 @@
+package otp.api;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import otp.codec.HttpCodec;
+import otp.config.AppConfig;
+import otp.server.InstrumentedExecutor;
+import otp.server.LanePriority;
+import otp.server.RouteLane;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фильтр контроля допуска (admission control) для одного маршрута.
+ * <p>
+ * Передаёт обработку запроса в собственную полосу маршрута (RouteLane):
+ * отдельный пул потоков с ограниченной очередью и приоритетом, поэтому
+ * насыщенный маршрут не забирает потоки у других. Запрос сразу отклоняется
+ * с 503 Service Unavailable и заголовком Retry-After, если:
+ * <ul>
+ *   <li>очередь полосы уже заполнена (admission.&lt;route&gt;.max.queue);</li>
+ *   <li>запрос ждал дольше admission.&lt;route&gt;.max.queue.wait.ms —
+ *       с учётом времени в очереди исполнителя HTTP-сервера;</li>
+ *   <li>сервер в целом перегружен, а приоритет маршрута ниже CRITICAL
+ *       (admission.pressure.queued.threshold).</li>
+ * </ul>
+ * Так при перегрузке мы не тратим ресурсы на запросы, которые клиент уже бросил.
+ * Не заданные для маршрута настройки берутся из admission.default.*.
+ * </p>
+ */
+public class AdmissionFilter extends Filter {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionFilter.class);
+
+    private final String route;
+    private final long maxQueueWaitNanos;
+    private final String retryAfterSeconds;
+    private final RouteLane lane;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedQueueFull = new LongAdder();
+    private final LongAdder shedQueueWait = new LongAdder();
+    private final LongAdder shedPressure = new LongAdder();
+
+    /**
+     * @param route    имя маршрута в настройках, например "otp.validate"
+     * @param priority приоритет маршрута по умолчанию (admission.&lt;route&gt;.priority)
+     */
+    public AdmissionFilter(String route, LanePriority priority) {
+        this.route = route;
+        int maxConcurrent = routeInt(route, "max.concurrent", 64);
+        int maxQueue = routeInt(route, "max.queue", 200);
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(routeInt(route, "max.queue.wait.ms", 1000));
+        this.retryAfterSeconds = String.valueOf(routeInt(route, "retry.after.seconds", 1));
+        LanePriority lanePriority = LanePriority.valueOf(
+                AppConfig.get("admission." + route + ".priority", priority.name()).toUpperCase());
+        int pressureThreshold = AppConfig.getInt("admission.pressure.queued.threshold", 0);
+        this.lane = new RouteLane(route, lanePriority, maxConcurrent, maxQueue, pressureThreshold);
+        MetricsRegistry.register("admission." + route, this::metrics);
+        logger.info("Контроль допуска для {}: приоритет={}, maxConcurrent={}, maxQueue={}, maxQueueWaitMs={}",
+                route, lanePriority, maxConcurrent, maxQueue, TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos));
+    }
+
+    @Override
+    public String description() {
+        return "Контроль допуска и полоса выполнения для маршрута " + route;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (lane.shouldShedUnderPressure()) {
+            shedPressure.increment();
+            reject(exchange, "сервер перегружен, приоритет маршрута " + lane.getPriority());
+            return;
+        }
+        try {
+            lane.execute(() -> runAdmitted(exchange, chain));
+        } catch (RejectedExecutionException e) {
+            shedQueueFull.increment();
+            reject(exchange, "очередь маршрута заполнена");
+        }
+    }
+
+    /**
+     * Выполняется в потоке полосы маршрута.
+     */
+    private void runAdmitted(HttpExchange exchange, Chain chain) {
+        try {
+            long waited = InstrumentedExecutor.currentQueueWaitNanos();
+            if (waited > maxQueueWaitNanos) {
+                shedQueueWait.increment();
+                reject(exchange, "запрос ждал в очереди " + TimeUnit.NANOSECONDS.toMillis(waited) + " мс");
+                return;
+            }
+            admitted.increment();
+            chain.doFilter(exchange);
+        } catch (Exception e) {
+            logger.error("Ошибка обработки запроса {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            exchange.close();
+        }
+    }
+
+    private void reject(HttpExchange exchange, String reason) throws IOException {
+        logger.warn("Запрос {} {} отклонён контролем допуска: {}",
+                exchange.getRequestMethod(), exchange.getRequestURI().getPath(), reason);
+        exchange.getResponseHeaders().set("Retry-After", retryAfterSeconds);
+        HttpCodec.sendError(exchange, 503, "Сервис перегружен, повторите запрос позже");
+    }
+
+    /**
+     * Снимок метрик маршрута для MetricsRegistry.
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = lane.metrics();
+        m.put("admitted", admitted.sum());
+        m.put("shedQueueFull", shedQueueFull.sum());
+        m.put("shedQueueWait", shedQueueWait.sum());
+        m.put("shedPressure", shedPressure.sum());
+        return m;
+    }
+
+    private static int routeInt(String route, String name, int defaultValue) {
+        int fallback = AppConfig.getInt("admission.default." + name, defaultValue);
+        return AppConfig.getInt("admission." + route + "." + name, fallback);
+    }
+}
@@ -1,15 +1,18 @@
 package otp.api;
 
 import com.sun.net.httpserver.HttpExchange;
-import otp.dao.impl.UserDaoImpl;
+import otp.codec.HttpCodec;
+import otp.codec.MediaType;
+import otp.dao.impl.CachingUserDao;
 import otp.model.UserRole;
+import otp.service.PasswordHashingBusyException;
+import otp.service.TokenRevocationService;
 import otp.service.UserService;
-import otp.util.JsonUtil;
-import otp.util.HttpUtils;
+import otp.util.DeadlineExceededException;
 import otp.util.JwtUtils;
+import otp.util.VerifiedToken;
 
 import java.io.IOException;
-import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,11 +22,12 @@ import org.slf4j.LoggerFactory;
  * <ul>
  *   <li>POST /register — регистрация нового пользователя (username, password, role)</li>
  *   <li>POST /login    — аутентификация и выдача токена (username, password)</li>
+ *   <li>POST /logout   — отзыв текущего токена (требует токен)</li>
  * </ul>
  */
 public class AuthController {
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
-    private final UserService userService = new UserService(new UserDaoImpl());
+    private final UserService userService = new UserService(CachingUserDao.shared());
 
     /**
      * Обрабатывает HTTP POST запрос на регистрацию пользователя.
@@ -32,8 +36,10 @@ public class AuthController {
      * <ul>
      *   <li>201 Created — при успешной регистрации</li>
      *   <li>409 Conflict — если имя занято или администратор уже существует</li>
+     *   <li>503 Service Unavailable — пул хеширования паролей перегружен (с Retry-After)</li>
      *   <li>415 Unsupported Media Type — если Content-Type некорректен</li>
      *   <li>405 Method Not Allowed — если метод не POST</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
@@ -45,37 +51,36 @@ public class AuthController {
 
         if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для регистрации", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
         String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
         if (contentType == null || !contentType.contains("application/json")) {
             logger.warn("Неподдерживаемый Content-Type: {} для регистрации", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type должен быть application/json");
+            HttpCodec.sendError(exchange, 415, "Content-Type должен быть application/json");
             return;
         }
 
         try {
-            RegisterRequest req = JsonUtil.fromJson(exchange.getRequestBody(), RegisterRequest.class);
+            RegisterRequest req = HttpCodec.readBody(exchange, MediaType.JSON, RegisterRequest.class);
             logger.info("Обработка регистрации для логина: {}, роль: {}", req.username, req.role);
 
-            // Проверка, не существует ли уже администратор
-            if ("ADMIN".equals(req.role) && userService.adminExists()) {
-                logger.warn("Регистрация отклонена: Администратор уже существует");
-                HttpUtils.sendError(exchange, 409, "Администратор уже существует");
-                return;
-            }
-
             userService.register(req.username, req.password, UserRole.valueOf(req.role));
             logger.info("Пользователь успешно зарегистрирован: {}", req.username);
-            HttpUtils.sendEmptyResponse(exchange, 201);
+            HttpCodec.sendEmpty(exchange, 201);
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+        } catch (PasswordHashingBusyException e) {
+            logger.warn("Регистрация отклонена: {}", e.getMessage());
+            sendBusy(exchange, e);
         } catch (IllegalArgumentException | IllegalStateException e) {
             logger.warn("Ошибка регистрации: {}", e.getMessage());
-            HttpUtils.sendError(exchange, 409, e.getMessage());
+            HttpCodec.sendError(exchange, 409, e.getMessage());
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при регистрации", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
         }
     }
 
@@ -86,8 +91,10 @@ public class AuthController {
      * <ul>
      *   <li>200 OK — возвращает JSON {"token":"..."}</li>
      *   <li>401 Unauthorized — если логин или пароль неверны</li>
+     *   <li>503 Service Unavailable — пул хеширования паролей перегружен (с Retry-After)</li>
      *   <li>415 Unsupported Media Type — если Content-Type некорректен</li>
      *   <li>405 Method Not Allowed — если метод не POST</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
@@ -99,40 +106,98 @@ public class AuthController {
 
         if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для входа", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
         String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
         if (contentType == null || !contentType.contains("application/json")) {
             logger.warn("Неподдерживаемый Content-Type: {} для входа", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type должен быть application/json");
+            HttpCodec.sendError(exchange, 415, "Content-Type должен быть application/json");
             return;
         }
 
         try {
-            LoginRequest req = JsonUtil.fromJson(exchange.getRequestBody(), LoginRequest.class);
+            LoginRequest req = HttpCodec.readBody(exchange, MediaType.JSON, LoginRequest.class);
             logger.info("Обработка входа для логина: {}", req.username);
 
             String token = userService.login(req.username, req.password);
             if (token == null) {
                 logger.warn("Вход не выполнен для логина: {}", req.username);
-                HttpUtils.sendError(exchange, 401, "Неавторизован");
+                HttpCodec.sendError(exchange, 401, "Неавторизован");
                 return;
             }
 
             logger.info("Вход успешно выполнен для логина: {}", req.username);
-            String json = JsonUtil.toJson(Map.of("token", token));
-            HttpUtils.sendJsonResponse(exchange, 200, json);
+            HttpCodec.sendResponse(exchange, 200, new TokenResponse(token));
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+        } catch (PasswordHashingBusyException e) {
+            logger.warn("Вход отклонён: {}", e.getMessage());
+            sendBusy(exchange, e);
         } catch (IllegalArgumentException e) {
             logger.warn("Ошибка входа: {}", e.getMessage());
-            HttpUtils.sendError(exchange, 401, e.getMessage());
+            HttpCodec.sendError(exchange, 401, e.getMessage());
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при входе", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP POST запрос на выход: отзывает токен, с которым пришёл запрос.
+     * Токен уже проверен AuthFilter, здесь он разбирается повторно, чтобы получить jti и exp
+     * (для недавно проверенного токена это попадание в кэш).
+     * Возвращает:
+     * <ul>
+     *   <li>204 No Content — токен отозван</li>
+     *   <li>400 Bad Request — у токена нет jti (выдан до появления отзыва)</li>
+     *   <li>401 Unauthorized — токен недействителен</li>
+     *   <li>405 Method Not Allowed — если метод не POST</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange объект HttpExchange для текущего запроса
+     * @throws IOException при ошибках чтения/записи
+     */
+    public void handleLogout(HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            logger.warn("Метод не разрешен: {} для выхода", exchange.getRequestMethod());
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
+            return;
+        }
+
+        try {
+            String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
+            VerifiedToken token = authHeader != null && authHeader.startsWith("Bearer ")
+                    ? JwtUtils.verifyToken(authHeader.substring(7))
+                    : null;
+            if (token == null) {
+                HttpCodec.sendError(exchange, 401, "Неавторизован");
+                return;
+            }
+            TokenRevocationService.shared().revokeToken(token);
+            logger.info("Выход выполнен для пользователя {}", token.getUser().getUsername());
+            HttpCodec.sendEmpty(exchange, 204);
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ошибка выхода: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Внутренняя ошибка сервера при выходе", e);
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
         }
     }
 
+    private static void sendBusy(HttpExchange exchange, PasswordHashingBusyException e) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        HttpCodec.sendError(exchange, 503, e.getMessage());
+    }
+
     /**
      * DTO для разбора JSON тела запроса регистрации.
      */
@@ -149,4 +214,15 @@ public class AuthController {
         public String username;
         public String password;
     }
+
+    /**
+     * DTO ответа на успешный вход: {"token":"..."}.
+     */
+    private static class TokenResponse {
+        public final String token;
+
+        TokenResponse(String token) {
+            this.token = token;
+        }
+    }
 }
@@ -2,9 +2,9 @@ package otp.api;
 
 import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
+import otp.codec.HttpCodec;
 import otp.model.User;
 import otp.model.UserRole;
-import otp.util.HttpUtils;
 import otp.util.JwtUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +50,7 @@ public class AuthFilter extends Filter {
         String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
             logger.warn("Ошибка аутентификации: Отсутствует или неверный заголовок Authorization для {} {}", method, path);
-            HttpUtils.sendError(exchange, 401, "Отсутствует или неверный заголовок Authorization");
+            HttpCodec.sendError(exchange, 401, "Отсутствует или неверный заголовок Authorization");
             return;
         }
 
@@ -59,14 +59,14 @@ public class AuthFilter extends Filter {
         User user = JwtUtils.validateTokenAndGetUser(token);
         if (user == null) {
             logger.warn("Ошибка аутентификации: Недействительный или просроченный токен для {} {}", method, path);
-            HttpUtils.sendError(exchange, 401, "Недействительный или просроченный токен");
+            HttpCodec.sendError(exchange, 401, "Недействительный или просроченный токен");
             return;
         }
 
         if (user.getRole().ordinal() < requiredRole.ordinal()) {
             logger.warn("Ошибка авторизации: Пользователь {} с ролью {} попытался получить доступ к {} {} (требуется роль {})",
                     user.getUsername(), user.getRole(), method, path, requiredRole);
-            HttpUtils.sendError(exchange, 403, "Доступ запрещен");
+            HttpCodec.sendError(exchange, 403, "Доступ запрещен");
             return;
         }
 
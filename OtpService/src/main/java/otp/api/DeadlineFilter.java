@@ -0,0 +1,83 @@
+package otp.api;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import otp.codec.HttpCodec;
+import otp.config.AppConfig;
+import otp.server.InstrumentedExecutor;
+import otp.util.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фильтр, задающий крайний срок обработки запроса.
+ * <p>
+ * Бюджет времени берётся из заголовка X-Request-Deadline-Ms (сколько миллисекунд
+ * клиент готов ждать ответа) или из настройки deadline.&lt;route&gt;.ms
+ * (по умолчанию deadline.default.ms) и отсчитывается от момента постановки
+ * запроса в очередь. Если бюджет уже исчерпан, запрос отклоняется с
+ * 504 Gateway Timeout без выполнения. Иначе крайний срок доступен
+ * сервисам и DAO через Deadline.current().
+ * </p>
+ */
+public class DeadlineFilter extends Filter {
+    private static final Logger logger = LoggerFactory.getLogger(DeadlineFilter.class);
+    public static final String DEADLINE_HEADER = "X-Request-Deadline-Ms";
+
+    private final String route;
+    private final long defaultBudgetMs;
+    private final long maxBudgetMs;
+
+    /**
+     * @param route имя маршрута в настройках, например "otp.validate"
+     */
+    public DeadlineFilter(String route) {
+        this.route = route;
+        this.maxBudgetMs = AppConfig.getLong("deadline.max.ms", 30_000);
+        long fallback = AppConfig.getLong("deadline.default.ms", 2000);
+        this.defaultBudgetMs = Math.min(maxBudgetMs, AppConfig.getLong("deadline." + route + ".ms", fallback));
+    }
+
+    @Override
+    public String description() {
+        return "Крайний срок обработки запроса для маршрута " + route;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long budgetMs = budgetOf(exchange);
+        long waitedNanos = InstrumentedExecutor.currentQueueWaitNanos();
+        Deadline deadline = Deadline.after(TimeUnit.MILLISECONDS.toNanos(budgetMs) - waitedNanos, TimeUnit.NANOSECONDS);
+        if (deadline.isExpired()) {
+            logger.warn("Запрос {} {} отброшен: бюджет {} мс исчерпан в очереди",
+                    exchange.getRequestMethod(), exchange.getRequestURI().getPath(), budgetMs);
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+            return;
+        }
+
+        Deadline.setCurrent(deadline);
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            Deadline.setCurrent(null);
+        }
+    }
+
+    private long budgetOf(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst(DEADLINE_HEADER);
+        if (header != null) {
+            try {
+                long requested = Long.parseLong(header.trim());
+                if (requested > 0) {
+                    return Math.min(requested, maxBudgetMs);
+                }
+            } catch (NumberFormatException e) {
+                logger.warn("Некорректный заголовок {}: {}", DEADLINE_HEADER, header);
+            }
+        }
+        return defaultBudgetMs;
+    }
+}
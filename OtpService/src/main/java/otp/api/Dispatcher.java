@@ -1,8 +1,9 @@
 package otp.api;
 
-import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpContext;
 import otp.model.UserRole;
+import otp.server.HttpTransport;
+import otp.server.LanePriority;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,12 +14,24 @@ import org.slf4j.LoggerFactory;
  * <ul>
  *   <li>POST   /register           → AuthController.handleRegister()  (публичный)</li>
  *   <li>POST   /login              → AuthController.handleLogin()     (публичный)</li>
+ *   <li>POST   /logout             → AuthController.handleLogout()    (роль USER)</li>
  *   <li>POST   /otp/generate       → UserController.generateOtp()     (роль USER)</li>
  *   <li>POST   /otp/validate       → UserController.validateOtp()     (роль USER)</li>
+ *   <li>POST   /otp/generate/batch → UserController.generateOtpBatch() (роль USER)</li>
+ *   <li>POST   /otp/validate/batch → UserController.validateOtpBatch() (роль USER)</li>
  *   <li>PATCH  /admin/config       → AdminController.updateOtpConfig() (роль ADMIN)</li>
  *   <li>GET    /admin/users        → AdminController.listUsers()       (роль ADMIN)</li>
  *   <li>DELETE /admin/users/{id}   → AdminController.deleteUser()      (роль ADMIN)</li>
+ *   <li>GET    /admin/otp-codes/export → AdminController.exportOtpCodes() (роль ADMIN)</li>
+ *   <li>DELETE /admin/token-cache  → AdminController.clearTokenCache() (роль ADMIN)</li>
+ *   <li>GET    /admin/metrics      → AdminController.metrics()         (роль ADMIN)</li>
  * </ul>
+ * Перед фильтром аутентификации каждого маршрута стоит AdmissionFilter:
+ * он выполняет запрос в отдельной полосе маршрута (свой пул и очередь)
+ * и при перегрузке отклоняет запросы с 503 и Retry-After.
+ * Приоритеты полос: validate (CRITICAL) &gt; login/register (HIGH) &gt; generate (NORMAL) &gt; admin (LOW).
+ * Следом DeadlineFilter задаёт крайний срок запроса (X-Request-Deadline-Ms или deadline.&lt;route&gt;.ms).
+ * Маршруты /otp/* дополнительно защищены RateLimitFilter (429 при превышении лимита).
  * </p>
  */
 public class Dispatcher {
@@ -31,33 +44,58 @@ public class Dispatcher {
     /**
      * Регистрация всех маршрутов и подключение фильтров аутентификации.
      *
-     * @param server экземпляр HttpServer
+     * @param transport HTTP-транспорт (JDK HttpServer или NIO)
      */
-    public void registerRoutes(HttpServer server) {
+    public void registerRoutes(HttpTransport transport) {
         logger.info("Регистрация маршрутов приложения");
 
         // Публичные маршруты
-        HttpContext registerCtx = server.createContext("/register", authController::handleRegister);
+        HttpContext registerCtx = transport.createContext("/register", authController::handleRegister);
+        addLoadFilters(registerCtx, "register", LanePriority.HIGH);
         logger.info("Зарегистрирован публичный маршрут: POST /register");
 
-        HttpContext loginCtx = server.createContext("/login", authController::handleLogin);
+        HttpContext loginCtx = transport.createContext("/login", authController::handleLogin);
+        addLoadFilters(loginCtx, "login", LanePriority.HIGH);
         logger.info("Зарегистрирован публичный маршрут: POST /login");
 
+        HttpContext logoutCtx = transport.createContext("/logout", authController::handleLogout);
+        addLoadFilters(logoutCtx, "logout", LanePriority.NORMAL);
+        logoutCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        logger.info("Зарегистрирован защищенный маршрут: POST /logout (роль: USER)");
+
         // Маршруты для пользователей (роль USER)
-        HttpContext genCtx = server.createContext("/otp/generate", userController::generateOtp);
+        HttpContext genCtx = transport.createContext("/otp/generate", userController::generateOtp);
+        addLoadFilters(genCtx, "otp.generate", LanePriority.NORMAL);
         genCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        genCtx.getFilters().add(new RateLimitFilter("otp.generate"));
         logger.info("Зарегистрирован защищенный маршрут: POST /otp/generate (роль: USER)");
 
-        HttpContext valCtx = server.createContext("/otp/validate", userController::validateOtp);
+        HttpContext valCtx = transport.createContext("/otp/validate", userController::validateOtp);
+        addLoadFilters(valCtx, "otp.validate", LanePriority.CRITICAL);
         valCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        valCtx.getFilters().add(new RateLimitFilter("otp.validate"));
         logger.info("Зарегистрирован защищенный маршрут: POST /otp/validate (роль: USER)");
 
+        // Пакетные маршруты: одна квота лимитера и одна полоса на весь пакет
+        HttpContext genBatchCtx = transport.createContext("/otp/generate/batch", userController::generateOtpBatch);
+        addLoadFilters(genBatchCtx, "otp.generate.batch", LanePriority.NORMAL);
+        genBatchCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        genBatchCtx.getFilters().add(new RateLimitFilter("otp.generate.batch"));
+        logger.info("Зарегистрирован защищенный маршрут: POST /otp/generate/batch (роль: USER)");
+
+        HttpContext valBatchCtx = transport.createContext("/otp/validate/batch", userController::validateOtpBatch);
+        addLoadFilters(valBatchCtx, "otp.validate.batch", LanePriority.HIGH);
+        valBatchCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        valBatchCtx.getFilters().add(new RateLimitFilter("otp.validate.batch"));
+        logger.info("Зарегистрирован защищенный маршрут: POST /otp/validate/batch (роль: USER)");
+
         // Маршруты для администратора (роль ADMIN)
-        HttpContext configCtx = server.createContext("/admin/config", adminController::updateOtpConfig);
+        HttpContext configCtx = transport.createContext("/admin/config", adminController::updateOtpConfig);
+        addLoadFilters(configCtx, "admin.config", LanePriority.LOW);
         configCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
         logger.info("Зарегистрирован защищенный маршрут: PATCH /admin/config (роль: ADMIN)");
 
-        HttpContext usersCtx = server.createContext("/admin/users", exchange -> {
+        HttpContext usersCtx = transport.createContext("/admin/users", exchange -> {
             String method = exchange.getRequestMethod();
             String path = exchange.getRequestURI().getPath();
 
@@ -74,9 +112,36 @@ public class Dispatcher {
                 exchange.sendResponseHeaders(405, -1);
             }
         });
+        addLoadFilters(usersCtx, "admin.users", LanePriority.LOW);
         usersCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
         logger.info("Зарегистрированы защищенные маршруты: GET/DELETE /admin/users (роль: ADMIN)");
 
+        // Выгрузка идёт дольше любого крайнего срока, поэтому без DeadlineFilter;
+        // своя полоса ограничивает число одновременных выгрузок
+        HttpContext exportCtx = transport.createContext("/admin/otp-codes/export", adminController::exportOtpCodes);
+        exportCtx.getFilters().add(new AdmissionFilter("admin.export", LanePriority.LOW));
+        exportCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
+        logger.info("Зарегистрирован защищенный маршрут: GET /admin/otp-codes/export (роль: ADMIN)");
+
+        HttpContext tokenCacheCtx = transport.createContext("/admin/token-cache", adminController::clearTokenCache);
+        addLoadFilters(tokenCacheCtx, "admin.token.cache", LanePriority.LOW);
+        tokenCacheCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
+        logger.info("Зарегистрирован защищенный маршрут: DELETE /admin/token-cache (роль: ADMIN)");
+
+        // Метрики без контроля допуска: они нужны именно во время перегрузки
+        HttpContext metricsCtx = transport.createContext("/admin/metrics", adminController::metrics);
+        metricsCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
+        logger.info("Зарегистрирован защищенный маршрут: GET /admin/metrics (роль: ADMIN)");
+
         logger.info("Все маршруты успешно зарегистрированы");
     }
+
+    /**
+     * Добавляет фильтры, общие для всех маршрутов под нагрузкой: контроль допуска
+     * (полоса маршрута, сброс при перегрузке) и крайний срок обработки запроса.
+     */
+    private void addLoadFilters(HttpContext ctx, String route, LanePriority priority) {
+        ctx.getFilters().add(new AdmissionFilter(route, priority));
+        ctx.getFilters().add(new DeadlineFilter(route));
+    }
 }
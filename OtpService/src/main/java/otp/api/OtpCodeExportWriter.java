@@ -0,0 +1,131 @@
+package otp.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import otp.codec.MediaType;
+import otp.model.OtpCode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Запись строк выгрузки OTP-кодов в тело ответа по мере чтения из БД.
+ * <p>
+ * NDJSON — один JSON-объект на строку, CSV — заголовок и строки по RFC 4180.
+ * Поля пишутся напрямую в генератор/Writer, без промежуточных объектов на строку.
+ * </p>
+ */
+abstract class OtpCodeExportWriter implements Closeable {
+
+    /**
+     * Создаёт запись в формате из параметра format.
+     *
+     * @param format "ndjson" или "csv"
+     * @return null, если формат не поддерживается
+     */
+    static OtpCodeExportWriter forFormat(String format, OutputStream out) throws IOException {
+        if ("ndjson".equalsIgnoreCase(format)) {
+            return new Ndjson(out);
+        }
+        if ("csv".equalsIgnoreCase(format)) {
+            return new Csv(out);
+        }
+        return null;
+    }
+
+    /**
+     * @return true, если формат поддерживается (проверка до отправки заголовков)
+     */
+    static boolean isSupported(String format) {
+        return "ndjson".equalsIgnoreCase(format) || "csv".equalsIgnoreCase(format);
+    }
+
+    /**
+     * @return значение заголовка Content-Type для формата
+     */
+    static String contentType(String format) {
+        return "csv".equalsIgnoreCase(format) ? "text/csv; charset=utf-8" : "application/x-ndjson";
+    }
+
+    abstract void write(OtpCode code) throws IOException;
+
+    private static final class Ndjson extends OtpCodeExportWriter {
+        private final JsonGenerator gen;
+
+        Ndjson(OutputStream out) throws IOException {
+            this.gen = MediaType.JSON.getMapper().getFactory().createGenerator(out);
+        }
+
+        @Override
+        void write(OtpCode code) throws IOException {
+            gen.writeStartObject();
+            gen.writeNumberField("id", code.getId());
+            gen.writeNumberField("userId", code.getUserId());
+            gen.writeStringField("operationId", code.getOperationId());
+            gen.writeStringField("code", code.getCode());
+            gen.writeStringField("status", code.getStatus().name());
+            gen.writeStringField("createdAt",
+                    code.getCreatedAt() != null ? code.getCreatedAt().toString() : null);
+            gen.writeEndObject();
+            gen.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            gen.close();
+        }
+    }
+
+    private static final class Csv extends OtpCodeExportWriter {
+        private final Writer out;
+
+        Csv(OutputStream out) throws IOException {
+            this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.out.write("id,user_id,operation_id,code,status,created_at\r\n");
+        }
+
+        @Override
+        void write(OtpCode code) throws IOException {
+            out.write(String.valueOf(code.getId()));
+            out.write(',');
+            out.write(String.valueOf(code.getUserId()));
+            out.write(',');
+            writeField(code.getOperationId());
+            out.write(',');
+            writeField(code.getCode());
+            out.write(',');
+            out.write(code.getStatus().name());
+            out.write(',');
+            if (code.getCreatedAt() != null) {
+                out.write(code.getCreatedAt().toString());
+            }
+            out.write("\r\n");
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
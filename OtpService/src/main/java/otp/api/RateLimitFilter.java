@@ -0,0 +1,97 @@
+package otp.api;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import otp.codec.HttpCodec;
+import otp.model.User;
+import otp.util.RateLimiter;
+import otp.util.RateLimiters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фильтр ограничения частоты запросов для одного маршрута.
+ * <p>
+ * Ставится после AuthFilter и ограничивает частоту отдельно по id пользователя
+ * (из JWT, атрибут "user") и по адресу клиента. При превышении лимита
+ * возвращает 429 Too Many Requests с заголовком Retry-After.
+ * </p>
+ * Настройки маршрута (ratelimit.&lt;route&gt;.user.* и ratelimit.&lt;route&gt;.ip.*):
+ * <ul>
+ *   <li>permits — сколько запросов разрешено за период (0 — без ограничения)</li>
+ *   <li>period.seconds — длина периода</li>
+ *   <li>burst — сколько запросов можно выполнить подряд</li>
+ * </ul>
+ * Ограничители общие с бинарным эндпоинтом (см. RateLimiters).
+ */
+public class RateLimitFilter extends Filter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    private final String route;
+    private final RateLimiter userLimiter;
+    private final RateLimiter ipLimiter;
+
+    /**
+     * @param route имя маршрута в настройках, например "otp.generate"
+     */
+    public RateLimitFilter(String route) {
+        this.route = route;
+        this.userLimiter = RateLimiters.get(route, "user");
+        this.ipLimiter = RateLimiters.get(route, "ip");
+    }
+
+    @Override
+    public String description() {
+        return "Ограничение частоты запросов по пользователю и адресу для маршрута " + route;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (ipLimiter != null) {
+            long waitNanos = ipLimiter.tryAcquire(addressKey(exchange.getRemoteAddress()));
+            if (waitNanos > 0) {
+                reject(exchange, "адрес " + exchange.getRemoteAddress(), waitNanos);
+                return;
+            }
+        }
+
+        User user = (User) exchange.getAttribute("user");
+        if (userLimiter != null && user != null && user.getId() != null) {
+            long waitNanos = userLimiter.tryAcquire(user.getId());
+            if (waitNanos > 0) {
+                reject(exchange, "пользователь " + user.getId(), waitNanos);
+                return;
+            }
+        }
+
+        chain.doFilter(exchange);
+    }
+
+    private void reject(HttpExchange exchange, String who, long waitNanos) throws IOException {
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        logger.warn("Превышен лимит запросов к {}: {}, повтор через {} с", route, who, retryAfter);
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+        HttpCodec.sendError(exchange, 429, "Слишком много запросов, повторите позже");
+    }
+
+    /**
+     * Ключ адреса клиента: свёртка байтов адреса в long
+     * (для IPv4 однозначная, для IPv6 — хеш 16 байт).
+     */
+    private static long addressKey(InetSocketAddress remote) {
+        if (remote == null || remote.getAddress() == null) {
+            return 0L;
+        }
+        InetAddress address = remote.getAddress();
+        long key = 0;
+        for (byte b : address.getAddress()) {
+            key = key * 257 + (b & 0xFF);
+        }
+        return key;
+    }
+}
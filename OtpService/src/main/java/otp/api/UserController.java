@@ -1,18 +1,27 @@
 package otp.api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.sun.net.httpserver.HttpExchange;
+import otp.codec.HttpCodec;
+import otp.codec.MediaType;
+import otp.config.AppConfig;
+import otp.dao.impl.CachingOtpConfigDao;
+import otp.dao.impl.CachingUserDao;
 import otp.dao.impl.OtpCodeDaoImpl;
-import otp.dao.impl.OtpConfigDaoImpl;
-import otp.dao.impl.UserDaoImpl;
+import otp.service.BatchItemResult;
+import otp.service.CodeSpaceExhaustedException;
+import otp.service.GenerateItem;
 import otp.service.OtpService;
+import otp.service.ValidateItem;
 import otp.service.notification.NotificationChannel;
 import otp.service.notification.NotificationServiceFactory;
-import otp.util.JsonUtil;
-import otp.util.HttpUtils;
+import otp.util.DeadlineExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Контроллер пользовательских операций для работы с OTP-кодами (роль USER).
@@ -21,18 +30,26 @@ import java.io.IOException;
  * <ul>
  *   <li>POST /otp/generate — генерирует и отправляет OTP-код</li>
  *   <li>POST /otp/validate — проверяет корректность и статус OTP-кода</li>
+ *   <li>POST /otp/generate/batch — генерирует и отправляет пачку OTP-кодов</li>
+ *   <li>POST /otp/validate/batch — проверяет пачку OTP-кодов</li>
  * </ul>
+ * Тело запроса принимается в JSON, CBOR (application/cbor) или Smile
+ * (application/x-jackson-smile) по Content-Type; ответы с ошибкой кодируются
+ * в формате из заголовка Accept (JSON по умолчанию).
  * </p>
  */
 public class UserController {
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
+    private static final String UNSUPPORTED_MEDIA_TYPE =
+            "Content-Type должен быть application/json, application/cbor или application/x-jackson-smile";
 
     private final OtpService otpService = new OtpService(
             new OtpCodeDaoImpl(),
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
+            CachingOtpConfigDao.shared(),
+            CachingUserDao.shared(),
             new NotificationServiceFactory()
     );
+    private final int maxBatchSize = AppConfig.getInt("otp.batch.max.size", 100);
 
     /**
      * Обрабатывает HTTP POST запрос генерации OTP-кода.
@@ -42,8 +59,10 @@ public class UserController {
      * <ul>
      *   <li>202 Accepted — запрос принят и код отправлен</li>
      *   <li>400 Bad Request — неверные данные или канал</li>
-     *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
+     *   <li>415 Unsupported Media Type — Content-Type не JSON, CBOR или Smile</li>
      *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>503 Service Unavailable — все значения кода текущей длины заняты (с Retry-After)</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
@@ -56,19 +75,20 @@ public class UserController {
 
         if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для генерации OTP", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
-        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-        if (contentType == null || !contentType.contains("application/json")) {
-            logger.warn("Неподдерживаемый Content-Type: {} для генерации OTP", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type должен быть application/json");
+        MediaType bodyType = HttpCodec.requestType(exchange);
+        if (bodyType == null) {
+            logger.warn("Неподдерживаемый Content-Type: {} для генерации OTP",
+                    exchange.getRequestHeaders().getFirst("Content-Type"));
+            HttpCodec.sendError(exchange, 415, UNSUPPORTED_MEDIA_TYPE);
             return;
         }
 
         try {
-            GenerateRequest req = JsonUtil.fromJson(exchange.getRequestBody(), GenerateRequest.class);
+            GenerateRequest req = HttpCodec.readBody(exchange, bodyType, GenerateRequest.class);
             logger.info("Обработка генерации OTP для userId={}, operationId={}, channel={}",
                     req.userId, req.operationId, req.channel);
 
@@ -76,26 +96,36 @@ public class UserController {
                     NotificationChannel.valueOf(req.channel));
 
             logger.info("OTP успешно сгенерирован и отправлен");
-            HttpUtils.sendEmptyResponse(exchange, 202);
+            HttpCodec.sendEmpty(exchange, 202);
+        } catch (CodeSpaceExhaustedException e) {
+            logger.warn("Ошибка генерации OTP: {}", e.getMessage());
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpCodec.sendError(exchange, 503, "Нет свободных значений кода, повторите запрос позже");
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
         } catch (IllegalArgumentException e) {
             logger.warn("Ошибка генерации OTP: {}", e.getMessage());
-            HttpUtils.sendError(exchange, 400, e.getMessage());
+            HttpCodec.sendError(exchange, 400, e.getMessage());
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при генерации OTP", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
         }
     }
 
     /**
      * Обрабатывает HTTP POST запрос валидации OTP-кода.
      * <p>
-     * Ожидает JSON: {"code": "123456"}.
+     * Ожидает JSON: {"userId": 123, "operationId": "op123", "code": "123456"}.
+     * С userId код проверяется и погашается одним запросом к БД в рамках пользователя и операции;
+     * без него (устаревший формат {"code": "123456"}) код ищется среди всех пользователей.
      * </p>
      * <ul>
      *   <li>200 OK — код корректен</li>
      *   <li>400 Bad Request — неверный или просроченный код</li>
-     *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
+     *   <li>415 Unsupported Media Type — Content-Type не JSON, CBOR или Smile</li>
      *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
@@ -108,35 +138,198 @@ public class UserController {
 
         if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
             logger.warn("Метод не разрешен: {} для валидации OTP", exchange.getRequestMethod());
-            HttpUtils.sendError(exchange, 405, "Метод не разрешен");
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
             return;
         }
 
-        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-        if (contentType == null || !contentType.contains("application/json")) {
-            logger.warn("Неподдерживаемый Content-Type: {} для валидации OTP", contentType);
-            HttpUtils.sendError(exchange, 415, "Content-Type должен быть application/json");
+        MediaType bodyType = HttpCodec.requestType(exchange);
+        if (bodyType == null) {
+            logger.warn("Неподдерживаемый Content-Type: {} для валидации OTP",
+                    exchange.getRequestHeaders().getFirst("Content-Type"));
+            HttpCodec.sendError(exchange, 415, UNSUPPORTED_MEDIA_TYPE);
             return;
         }
 
         try {
-            ValidateRequest req = JsonUtil.fromJson(exchange.getRequestBody(), ValidateRequest.class);
-            logger.info("Обработка валидации OTP-кода: {}", req.code);
-
-            boolean valid = otpService.validateOtp(req.code);
+            ValidateRequest req = HttpCodec.readBody(exchange, bodyType, ValidateRequest.class);
+            boolean valid;
+            if (req.userId != null) {
+                logger.info("Обработка валидации OTP-кода для userId={}, operationId={}", req.userId, req.operationId);
+                valid = otpService.validateOtp(req.userId, req.operationId, req.code);
+            } else {
+                logger.info("Обработка валидации OTP-кода без userId: {}", req.code);
+                valid = otpService.validateOtp(req.code);
+            }
             if (valid) {
                 logger.info("OTP-код успешно валидирован");
-                HttpUtils.sendEmptyResponse(exchange, 200);
+                HttpCodec.sendEmpty(exchange, 200);
             } else {
                 logger.warn("OTP-код недействителен или истек");
-                HttpUtils.sendError(exchange, 400, "Недействительный или просроченный код");
+                HttpCodec.sendError(exchange, 400, "Недействительный или просроченный код");
             }
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
         } catch (IllegalArgumentException e) {
             logger.warn("Ошибка валидации OTP: {}", e.getMessage());
-            HttpUtils.sendError(exchange, 400, e.getMessage());
+            HttpCodec.sendError(exchange, 400, e.getMessage());
         } catch (Exception e) {
             logger.error("Внутренняя ошибка сервера при валидации OTP", e);
-            HttpUtils.sendError(exchange, 500, "Внутренняя ошибка сервера");
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP POST запрос пакетной генерации OTP-кодов.
+     * <p>
+     * Ожидает {"items": [{"userId": 1, "operationId": "op1", "channel": "SMS"}, ...]}
+     * и возвращает {"results": [{"status": 202}, {"status": 400, "error": "..."}, ...]}
+     * в порядке элементов. Все коды пакета сохраняются одним запросом к БД.
+     * </p>
+     * <ul>
+     *   <li>200 OK — пакет обработан, статус каждого элемента в results</li>
+     *   <li>400 Bad Request — пустой или некорректный пакет</li>
+     *   <li>413 Payload Too Large — элементов больше otp.batch.max.size</li>
+     *   <li>415 Unsupported Media Type — Content-Type не JSON, CBOR или Smile</li>
+     *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void generateOtpBatch(HttpExchange exchange) throws IOException {
+        logger.info("Получен запрос на пакетную генерацию OTP: {} {}",
+                exchange.getRequestMethod(), exchange.getRequestURI());
+
+        MediaType bodyType = checkBatchRequest(exchange, "пакетной генерации OTP");
+        if (bodyType == null) {
+            return;
+        }
+
+        try {
+            GenerateBatchRequest req = HttpCodec.readBody(exchange, bodyType, GenerateBatchRequest.class);
+            if (!checkBatchSize(exchange, req.items)) {
+                return;
+            }
+            List<GenerateItem> items = new ArrayList<>(req.items.size());
+            for (GenerateRequest item : req.items) {
+                items.add(new GenerateItem(item.userId, item.operationId, parseChannel(item.channel)));
+            }
+            List<BatchItemResult> results = otpService.sendOtpBatch(items);
+            logger.info("Пакетная генерация OTP обработана: {} элементов", results.size());
+            HttpCodec.sendResponse(exchange, 200, new BatchResponse(results));
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+        } catch (JsonProcessingException e) {
+            logger.warn("Некорректное тело пакетной генерации OTP: {}", e.getOriginalMessage());
+            HttpCodec.sendError(exchange, 400, "Некорректное тело запроса");
+        } catch (Exception e) {
+            logger.error("Внутренняя ошибка сервера при пакетной генерации OTP", e);
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+        }
+    }
+
+    /**
+     * Обрабатывает HTTP POST запрос пакетной валидации OTP-кодов.
+     * <p>
+     * Ожидает {"items": [{"userId": 1, "operationId": "op1", "code": "123456"}, ...]} и возвращает
+     * {"results": [{"status": 200}, {"status": 400, "error": "..."}, ...]} в порядке элементов.
+     * Каждый код ищется только среди кодов своего пользователя и операции (элемент без них — 400),
+     * все коды пакета погашаются одним UPDATE.
+     * </p>
+     * <ul>
+     *   <li>200 OK — пакет обработан, статус каждого кода в results</li>
+     *   <li>400 Bad Request — пустой или некорректный пакет</li>
+     *   <li>413 Payload Too Large — элементов больше otp.batch.max.size</li>
+     *   <li>415 Unsupported Media Type — Content-Type не JSON, CBOR или Smile</li>
+     *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>504 Gateway Timeout — истёк крайний срок обработки запроса</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void validateOtpBatch(HttpExchange exchange) throws IOException {
+        logger.info("Получен запрос на пакетную валидацию OTP: {} {}",
+                exchange.getRequestMethod(), exchange.getRequestURI());
+
+        MediaType bodyType = checkBatchRequest(exchange, "пакетной валидации OTP");
+        if (bodyType == null) {
+            return;
+        }
+
+        try {
+            ValidateBatchRequest req = HttpCodec.readBody(exchange, bodyType, ValidateBatchRequest.class);
+            if (!checkBatchSize(exchange, req.items)) {
+                return;
+            }
+            List<ValidateItem> items = new ArrayList<>(req.items.size());
+            for (ValidateRequest item : req.items) {
+                items.add(item != null ? new ValidateItem(item.userId, item.operationId, item.code) : null);
+            }
+            List<BatchItemResult> results = otpService.validateOtpBatch(items);
+            logger.info("Пакетная валидация OTP обработана: {} кодов", results.size());
+            HttpCodec.sendResponse(exchange, 200, new BatchResponse(results));
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            HttpCodec.sendError(exchange, 504, "Истёк срок обработки запроса");
+        } catch (JsonProcessingException e) {
+            logger.warn("Некорректное тело пакетной валидации OTP: {}", e.getOriginalMessage());
+            HttpCodec.sendError(exchange, 400, "Некорректное тело запроса");
+        } catch (Exception e) {
+            logger.error("Внутренняя ошибка сервера при пакетной валидации OTP", e);
+            HttpCodec.sendError(exchange, 500, "Внутренняя ошибка сервера");
+        }
+    }
+
+    /**
+     * Проверяет метод и Content-Type пакетного запроса.
+     * @return формат тела или null, если ответ с ошибкой уже отправлен
+     */
+    private MediaType checkBatchRequest(HttpExchange exchange, String what) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            logger.warn("Метод не разрешен: {} для {}", exchange.getRequestMethod(), what);
+            HttpCodec.sendError(exchange, 405, "Метод не разрешен");
+            return null;
+        }
+        MediaType bodyType = HttpCodec.requestType(exchange);
+        if (bodyType == null) {
+            logger.warn("Неподдерживаемый Content-Type: {} для {}",
+                    exchange.getRequestHeaders().getFirst("Content-Type"), what);
+            HttpCodec.sendError(exchange, 415, UNSUPPORTED_MEDIA_TYPE);
+        }
+        return bodyType;
+    }
+
+    /**
+     * Проверяет, что пакет не пуст и не превышает otp.batch.max.size.
+     * @return true, если размер допустим; иначе ответ с ошибкой уже отправлен
+     */
+    private boolean checkBatchSize(HttpExchange exchange, List<?> items) throws IOException {
+        if (items == null || items.isEmpty()) {
+            HttpCodec.sendError(exchange, 400, "Пакет не содержит элементов");
+            return false;
+        }
+        if (items.size() > maxBatchSize) {
+            logger.warn("Пакет отклонён: {} элементов при максимуме {}", items.size(), maxBatchSize);
+            HttpCodec.sendError(exchange, 413, "Размер пакета превышает " + maxBatchSize);
+            return false;
+        }
+        return true;
+    }
+
+    private static NotificationChannel parseChannel(String channel) {
+        if (channel == null) {
+            return null;
+        }
+        try {
+            return NotificationChannel.valueOf(channel);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
 
@@ -153,6 +346,33 @@ public class UserController {
      * DTO для разбора JSON тела POST /otp/validate.
      */
     private static class ValidateRequest {
+        public Long userId;
+        public String operationId;
         public String code;
     }
+
+    /**
+     * DTO для разбора тела POST /otp/generate/batch.
+     */
+    private static class GenerateBatchRequest {
+        public List<GenerateRequest> items;
+    }
+
+    /**
+     * DTO для разбора тела POST /otp/validate/batch.
+     */
+    private static class ValidateBatchRequest {
+        public List<ValidateRequest> items;
+    }
+
+    /**
+     * DTO ответа пакетных маршрутов: результаты в порядке элементов запроса.
+     */
+    private static class BatchResponse {
+        public final List<BatchItemResult> results;
+
+        BatchResponse(List<BatchItemResult> results) {
+            this.results = results;
+        }
+    }
 }
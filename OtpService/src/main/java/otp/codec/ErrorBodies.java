@@ -0,0 +1,66 @@
+package otp.codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Заранее закодированные тела ошибок {"error": "..."} для каждого формата.
+ * <p>
+ * Сообщения об ошибках почти всегда — константы контроллеров и фильтров,
+ * поэтому тело кодируется один раз и дальше отправляется готовым массивом.
+ * Число кэшируемых сообщений ограничено, чтобы сообщения с переменной частью
+ * (например, текст исключения) не раздували кэш.
+ * </p>
+ */
+final class ErrorBodies {
+    private static final int MAX_CACHED = 512;
+
+    private static final Map<MediaType, Map<String, byte[]>> CACHE = new EnumMap<>(MediaType.class);
+
+    static {
+        for (MediaType type : MediaType.values()) {
+            CACHE.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private ErrorBodies() {}
+
+    /**
+     * @return закодированное тело ошибки; массив общий, изменять его нельзя
+     */
+    static byte[] get(MediaType type, String message) {
+        String key = message != null ? message : "";
+        Map<String, byte[]> cache = CACHE.get(type);
+        byte[] body = cache.get(key);
+        if (body == null) {
+            body = encode(type, key);
+            if (cache.size() < MAX_CACHED) {
+                cache.putIfAbsent(key, body);
+            }
+        }
+        return body;
+    }
+
+    private static byte[] encode(MediaType type, String message) {
+        try {
+            return ObjectCodecs.writer(type, ErrorBody.class).writeValueAsBytes(new ErrorBody(message));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Тело ответа с ошибкой.
+     */
+    static final class ErrorBody {
+        public final String error;
+
+        ErrorBody(String error) {
+            this.error = error;
+        }
+    }
+}
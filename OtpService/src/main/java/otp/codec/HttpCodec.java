@@ -0,0 +1,119 @@
+package otp.codec;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Чтение тел запросов и отправка ответов для контроллеров и фильтров.
+ * <p>
+ * Тело запроса разбирается потоково прямо из HttpExchange кэшированным ObjectReader
+ * (см. ObjectCodecs); формат определяется по Content-Type. Ответ сериализуется
+ * кэшированным ObjectWriter в буфер из пула (ResponseBuffer) в формате из Accept.
+ * Тела ошибок кодируются один раз и отправляются готовыми массивами (ErrorBodies).
+ * Большие списки отправляются потоково (sendArray), чтобы не держать в памяти всё тело.
+ * </p>
+ */
+public final class HttpCodec {
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private HttpCodec() {}
+
+    /**
+     * Разбирает тело запроса в объект указанного класса.
+     *
+     * @param exch  текущий запрос
+     * @param type  формат тела (см. requestType)
+     * @param clazz класс DTO
+     * @throws IOException при ошибке чтения или некорректном теле
+     */
+    public static <T> T readBody(HttpExchange exch, MediaType type, Class<T> clazz) throws IOException {
+        return ObjectCodecs.reader(type, clazz).readValue(exch.getRequestBody());
+    }
+
+    /**
+     * Отправляет объект в формате, выбранном по заголовку Accept (JSON по умолчанию).
+     */
+    public static void sendResponse(HttpExchange exch, int status, Object body) throws IOException {
+        MediaType type = responseType(exch);
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        try {
+            ObjectCodecs.writer(type, body.getClass()).writeValue(buffer, body);
+            writeHeaders(exch, status, type, buffer.size());
+            try (OutputStream os = exch.getResponseBody()) {
+                buffer.writeTo(os);
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Отправляет массив потоково, с chunked-кодированием: элементы сериализуются
+     * по одному прямо в тело ответа, без промежуточного буфера на весь массив.
+     *
+     * @param exch        текущий запрос
+     * @param status      HTTP-статус
+     * @param items       элементы массива
+     * @param elementType класс элементов (для кэшированного ObjectWriter)
+     */
+    public static void sendArray(HttpExchange exch, int status, Iterable<?> items, Class<?> elementType)
+            throws IOException {
+        MediaType type = responseType(exch);
+        // Сброс после каждого элемента дал бы по chunk на элемент; сбрасываем по заполнению буфера
+        ObjectWriter writer = ObjectCodecs.writer(type, elementType)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        writeHeaders(exch, status, type, 0);
+        try (OutputStream os = exch.getResponseBody();
+             JsonGenerator gen = type.getMapper().getFactory().createGenerator(os)) {
+            gen.writeStartArray();
+            for (Object item : items) {
+                writer.writeValue(gen, item);
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    /**
+     * Отправляет ошибку {"error": message} в формате из заголовка Accept.
+     */
+    public static void sendError(HttpExchange exch, int status, String message) throws IOException {
+        MediaType type = responseType(exch);
+        byte[] body = ErrorBodies.get(type, message);
+        writeHeaders(exch, status, type, body.length);
+        try (OutputStream os = exch.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * Отправляет ответ без тела (например, 201, 202 или 204).
+     */
+    public static void sendEmpty(HttpExchange exch, int status) throws IOException {
+        exch.sendResponseHeaders(status, -1);
+    }
+
+    /**
+     * @return формат тела запроса по Content-Type или null, если формат не поддерживается
+     */
+    public static MediaType requestType(HttpExchange exch) {
+        return MediaType.fromContentType(exch.getRequestHeaders().getFirst("Content-Type"));
+    }
+
+    /**
+     * @return формат ответа по заголовку Accept
+     */
+    public static MediaType responseType(HttpExchange exch) {
+        return MediaType.fromAccept(exch.getRequestHeaders().getFirst("Accept"));
+    }
+
+    private static void writeHeaders(HttpExchange exch, int status, MediaType type, int length) throws IOException {
+        exch.getResponseHeaders().set("Content-Type", type.getContentType());
+        exch.getResponseHeaders().set("Vary", "Accept");
+        exch.sendResponseHeaders(status, length);
+    }
+}
@@ -0,0 +1,127 @@
+package otp.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+import java.util.Locale;
+
+/**
+ * Поддерживаемые форматы тела запроса и ответа.
+ * <p>
+ * JSON остаётся форматом по умолчанию; CBOR и Smile — компактные бинарные
+ * кодировки той же модели данных для внутренних высоконагруженных клиентов.
+ * Формат запроса выбирается по Content-Type, формат ответа — по Accept.
+ * </p>
+ */
+public enum MediaType {
+    JSON("application/json", new ObjectMapper()),
+    CBOR("application/cbor", new CBORMapper()),
+    SMILE("application/x-jackson-smile", new SmileMapper());
+
+    private static final MediaType[] VALUES = values();
+
+    private final String contentType;
+    private final ObjectMapper mapper;
+
+    MediaType(String contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return значение для заголовка Content-Type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return ObjectMapper для этого формата (потокобезопасен)
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Определяет формат тела запроса по заголовку Content-Type.
+     *
+     * @param contentType значение заголовка (может содержать параметры, например charset)
+     * @return формат или null, если он не поддерживается или заголовок отсутствует
+     */
+    public static MediaType fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        // Без выделения памяти: сравниваем тип до ';' прямо в исходной строке
+        int end = contentType.indexOf(';');
+        if (end < 0) {
+            end = contentType.length();
+        }
+        int start = 0;
+        while (start < end && contentType.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && contentType.charAt(end - 1) == ' ') {
+            end--;
+        }
+        for (MediaType mt : VALUES) {
+            if (end - start == mt.contentType.length()
+                    && contentType.regionMatches(true, start, mt.contentType, 0, end - start)) {
+                return mt;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Выбирает формат ответа по заголовку Accept.
+     * Берётся первый поддерживаемый тип с ненулевым q; при его отсутствии,
+     * а также для {@code *}/{@code *} и application/{@code *} — JSON.
+     *
+     * @param accept значение заголовка Accept (может быть null)
+     * @return формат ответа, никогда не null
+     */
+    public static MediaType fromAccept(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return JSON;
+        }
+        if (accept.indexOf(',') < 0 && accept.indexOf(';') < 0) {
+            // Частый случай — один тип без параметров
+            MediaType mt = fromContentType(accept);
+            return mt != null ? mt : JSON;
+        }
+        MediaType best = null;
+        double bestQ = 0;
+        for (String part : accept.split(",")) {
+            String[] params = part.split(";");
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (q <= bestQ) {
+                continue;
+            }
+            String type = baseType(params[0]);
+            MediaType mt = "*/*".equals(type) || "application/*".equals(type) ? JSON : fromContentType(type);
+            if (mt != null) {
+                best = mt;
+                bestQ = q;
+            }
+        }
+        return best != null ? best : JSON;
+    }
+
+    private static String baseType(String value) {
+        int semicolon = value.indexOf(';');
+        String type = semicolon < 0 ? value : value.substring(0, semicolon);
+        return type.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,57 @@
+package otp.codec;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Кэш ObjectReader/ObjectWriter для пары (формат, тип).
+ * <p>
+ * ObjectMapper.readValue(..., Class) при каждом вызове ищет десериализатор
+ * по типу; готовый ObjectReader уже связан с ним и неизменяем, поэтому
+ * его можно держать в статическом кэше и использовать из любых потоков.
+ * </p>
+ */
+final class ObjectCodecs {
+    private static final Map<MediaType, ClassValue<ObjectReader>> READERS = readers();
+    private static final Map<MediaType, ClassValue<ObjectWriter>> WRITERS = writers();
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private ObjectCodecs() {}
+
+    static ObjectReader reader(MediaType type, Class<?> clazz) {
+        return READERS.get(type).get(clazz);
+    }
+
+    static ObjectWriter writer(MediaType type, Class<?> clazz) {
+        return WRITERS.get(type).get(clazz);
+    }
+
+    private static Map<MediaType, ClassValue<ObjectReader>> readers() {
+        Map<MediaType, ClassValue<ObjectReader>> result = new EnumMap<>(MediaType.class);
+        for (MediaType type : MediaType.values()) {
+            result.put(type, new ClassValue<>() {
+                @Override
+                protected ObjectReader computeValue(Class<?> clazz) {
+                    return type.getMapper().readerFor(clazz);
+                }
+            });
+        }
+        return result;
+    }
+
+    private static Map<MediaType, ClassValue<ObjectWriter>> writers() {
+        Map<MediaType, ClassValue<ObjectWriter>> result = new EnumMap<>(MediaType.class);
+        for (MediaType type : MediaType.values()) {
+            result.put(type, new ClassValue<>() {
+                @Override
+                protected ObjectWriter computeValue(Class<?> clazz) {
+                    return type.getMapper().writerFor(clazz);
+                }
+            });
+        }
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package otp.codec;
+
+import otp.config.AppConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Переиспользуемый буфер для сериализации тела ответа.
+ * <p>
+ * Тело сначала пишется в буфер, чтобы отправить точный Content-Length,
+ * а затем одним вызовом в поток ответа. Буферы берутся из ограниченного пула
+ * (codec.buffer.pool.size); слишком выросшие буферы (больше
+ * codec.buffer.max.retained.bytes) в пул не возвращаются.
+ * </p>
+ */
+final class ResponseBuffer extends OutputStream {
+    private static final int INITIAL_SIZE = 4096;
+    private static final int MAX_RETAINED = AppConfig.getInt("codec.buffer.max.retained.bytes", 65536);
+    private static final ArrayBlockingQueue<ResponseBuffer> POOL =
+            new ArrayBlockingQueue<>(Math.max(1, AppConfig.getInt("codec.buffer.pool.size", 64)));
+
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int count;
+
+    private ResponseBuffer() {}
+
+    /**
+     * @return пустой буфер из пула или новый, если пул пуст
+     */
+    static ResponseBuffer acquire() {
+        ResponseBuffer buffer = POOL.poll();
+        return buffer != null ? buffer : new ResponseBuffer();
+    }
+
+    /**
+     * Возвращает буфер в пул; после вызова буфер использовать нельзя.
+     */
+    void release() {
+        count = 0;
+        if (buf.length <= MAX_RETAINED) {
+            POOL.offer(this);
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Записывает накопленные байты в поток.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length * 2, needed)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package otp.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Утилитный класс для чтения настроек приложения из application.properties.
+ * Значение системного свойства (-Dkey=value) имеет приоритет над файлом.
+ */
+public final class AppConfig {
+    private static final String PROPS_FILE = "application.properties";
+    private static final Properties PROPS = new Properties();
+
+    // Статический блок загружает настройки при первом обращении
+    static {
+        try (InputStream is = AppConfig.class
+                .getClassLoader()
+                .getResourceAsStream(PROPS_FILE)) {
+            if (is != null) {
+                PROPS.load(is);
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(
+                    "Ошибка загрузки настроек из " + PROPS_FILE + ": " + e.getMessage());
+        }
+    }
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private AppConfig() {}
+
+    /**
+     * Возвращает строковое значение настройки.
+     * @param key          имя настройки
+     * @param defaultValue значение по умолчанию
+     * @return значение настройки или defaultValue, если она не задана
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = PROPS.getProperty(key);
+        }
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
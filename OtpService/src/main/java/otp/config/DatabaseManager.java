@@ -1,9 +1,13 @@
 package otp.config;
 
+import otp.util.Deadline;
+import otp.util.DeadlineExceededException;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -11,9 +15,15 @@ import java.util.Properties;
  * Утилитный класс для работы с подключением к БД.
  * Загружает настройки из application.properties и предоставляет методы
  * для получения Connection и закрытия ресурсов.
+ * <p>
+ * Если у текущего запроса задан крайний срок (Deadline.current()), он
+ * ограничивает время установки соединения и выполнения запросов.
+ * </p>
  */
 public class DatabaseManager {
     private static final String PROPS_FILE = "application.properties";
+    /** SQLState PostgreSQL: запрос отменён (в том числе по setQueryTimeout) */
+    private static final String QUERY_CANCELED_STATE = "57014";
     private static String url;
     private static String user;
     private static String password;
@@ -39,11 +49,71 @@ public class DatabaseManager {
 
     /**
      * Возвращает новое JDBC-соединение.
+     * При заданном крайнем сроке запроса время подключения ограничено оставшимся бюджетом,
+     * а при уже истёкшем сроке соединение не открывается.
      * @return Connection
      * @throws SQLException если не удалось установить соединение
+     * @throws DeadlineExceededException если крайний срок запроса уже истёк
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return DriverManager.getConnection(url, user, password);
+        }
+        Deadline.checkCurrent("подключение к БД");
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        String timeout = String.valueOf(deadline.remainingSecondsCeil());
+        props.setProperty("connectTimeout", timeout);
+        props.setProperty("loginTimeout", timeout);
+        return DriverManager.getConnection(url, props);
+    }
+
+    /**
+     * Подготавливает запрос с таймаутом по крайнему сроку текущего запроса.
+     * @param conn соединение
+     * @param sql  SQL-запрос
+     * @return PreparedStatement
+     * @throws SQLException при ошибке подготовки запроса
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        return applyDeadline(conn.prepareStatement(sql));
+    }
+
+    /**
+     * Подготавливает запрос с возвратом сгенерированных ключей и таймаутом по крайнему сроку.
+     * @param conn              соединение
+     * @param sql               SQL-запрос
+     * @param autoGeneratedKeys флаг Statement.RETURN_GENERATED_KEYS
+     * @return PreparedStatement
+     * @throws SQLException при ошибке подготовки запроса
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys)
+            throws SQLException {
+        return applyDeadline(conn.prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    private static PreparedStatement applyDeadline(PreparedStatement ps) throws SQLException {
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            ps.setQueryTimeout(deadline.remainingSecondsCeil());
+        }
+        return ps;
+    }
+
+    /**
+     * Преобразует SQLException в исключение времени выполнения для DAO.
+     * Отмена запроса по таймауту и истёкший крайний срок становятся DeadlineExceededException.
+     * @param e исходная ошибка JDBC
+     * @return исключение, которое DAO выбрасывает дальше
+     */
+    public static RuntimeException translate(SQLException e) {
+        Deadline deadline = Deadline.current();
+        if (QUERY_CANCELED_STATE.equals(e.getSQLState()) || (deadline != null && deadline.isExpired())) {
+            return new DeadlineExceededException("Истёк срок выполнения запроса к БД", e);
+        }
+        return new RuntimeException(e);
     }
 
     /**
@@ -0,0 +1,286 @@
+package otp.config;
+
+import otp.util.MetricsRegistry;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Шина инвалидации кэшей между экземплярами сервиса поверх PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * Изменения, которые делает один экземпляр (конфигурация OTP, удаление пользователя,
+ * смена статуса кодов), публикуются как {@link InvalidationEvent} в канал
+ * invalidation.bus.channel. Публикация не блокирует вызывающего: события копятся
+ * в ограниченной очереди, а отдельный поток отправляет накопившееся одним запросом
+ * pg_notify. Переполнение очереди или ошибка отправки теряют события — другие
+ * экземпляры тогда увидят изменение только по истечении TTL своих кэшей.
+ * </p>
+ * <p>
+ * Отдельный поток держит выделенное соединение с LISTEN и передаёт чужие события
+ * подписчикам (свои пропускаются: локальный кэш уже обновлён). После каждого
+ * (пере)подключения подписчики получают onResync: события, пришедшие, пока
+ * соединения не было, не доставляются, поэтому кэши сбрасываются целиком.
+ * </p>
+ */
+public final class InvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationBus.class);
+
+    private static final Pattern CHANNEL_NAME = Pattern.compile("[a-z_][a-z0-9_]{0,62}");
+    private static final String NOTIFY_SQL = "SELECT pg_notify(?, p) FROM unnest(?::text[]) AS p";
+    private static final int MAX_BATCH = 500;
+
+    private static volatile InvalidationBus shared;
+
+    private final String channel;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final BlockingQueue<InvalidationEvent> queue;
+    private final int pollMillis;
+    private final long maxReconnectMillis;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private Thread listenerThread;
+    private Thread publisherThread;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder ignoredOwn = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    /**
+     * @param channel            имя канала NOTIFY
+     * @param queueCapacity      ёмкость очереди неотправленных событий
+     * @param pollMillis         как долго слушатель ждёт уведомления до проверки соединения
+     * @param maxReconnectMillis максимальная пауза между попытками переподключения
+     */
+    public InvalidationBus(String channel, int queueCapacity, int pollMillis, long maxReconnectMillis) {
+        if (!CHANNEL_NAME.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Недопустимое имя канала инвалидации: " + channel);
+        }
+        if (queueCapacity <= 0 || pollMillis <= 0 || maxReconnectMillis <= 0) {
+            throw new IllegalArgumentException("Параметры шины инвалидации должны быть положительными");
+        }
+        this.channel = channel;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.pollMillis = pollMillis;
+        this.maxReconnectMillis = maxReconnectMillis;
+    }
+
+    /**
+     * @return общая шина процесса, настроенная из application.properties (запускается через {@link #start()})
+     */
+    public static InvalidationBus shared() {
+        InvalidationBus bus = shared;
+        if (bus == null) {
+            synchronized (InvalidationBus.class) {
+                bus = shared;
+                if (bus == null) {
+                    bus = new InvalidationBus(
+                            AppConfig.get("invalidation.bus.channel", "otp_invalidation"),
+                            AppConfig.getInt("invalidation.bus.queue", 10_000),
+                            AppConfig.getInt("invalidation.bus.poll.ms", 10_000),
+                            AppConfig.getLong("invalidation.bus.reconnect.max.ms", 30_000));
+                    MetricsRegistry.register("invalidation.bus", bus::metrics);
+                    shared = bus;
+                }
+            }
+        }
+        return bus;
+    }
+
+    /**
+     * Добавляет подписчика. Подписываться нужно до {@link #start()}, иначе первый onResync будет пропущен.
+     *
+     * @param listener подписчик
+     */
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Ставит событие в очередь на рассылку другим экземплярам.
+     * До запуска шины (или если она отключена) событие отбрасывается.
+     *
+     * @param event событие инвалидации
+     */
+    public void publish(InvalidationEvent event) {
+        if (!running) {
+            return;
+        }
+        if (!queue.offer(event)) {
+            dropped.increment();
+            logger.warn("Очередь шины инвалидации заполнена, событие {} отброшено", event);
+        }
+    }
+
+    /**
+     * Запускает поток слушателя и поток отправки.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        listenerThread = new Thread(this::listenLoop, "invalidation-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        publisherThread = new Thread(this::publishLoop, "invalidation-publisher");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+        logger.info("Шина инвалидации запущена: канал {}, экземпляр {}", channel, instanceId);
+    }
+
+    /**
+     * Останавливает шину; неотправленные события теряются.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        listenerThread.interrupt();
+        publisherThread.interrupt();
+        logger.info("Шина инвалидации остановлена");
+    }
+
+    /**
+     * @return текущие значения метрик шины
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("connected", connected);
+        metrics.put("queued", queue.size());
+        metrics.put("published", published.sum());
+        metrics.put("dropped", dropped.sum());
+        metrics.put("publishFailures", publishFailures.sum());
+        metrics.put("received", received.sum());
+        metrics.put("ignoredOwn", ignoredOwn.sum());
+        metrics.put("resyncs", resyncs.sum());
+        metrics.put("connectFailures", connectFailures.sum());
+        return metrics;
+    }
+
+    private void publishLoop() {
+        List<InvalidationEvent> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            // Одинаковые события в одной пачке достаточно отправить один раз
+            Set<String> payloads = new LinkedHashSet<>();
+            for (InvalidationEvent event : batch) {
+                payloads.add(event.encode(instanceId));
+            }
+            batch.clear();
+            try (Connection conn = DatabaseManager.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(NOTIFY_SQL)) {
+                ps.setString(1, channel);
+                ps.setArray(2, conn.createArrayOf("text", payloads.toArray()));
+                ps.execute();
+                published.add(payloads.size());
+            } catch (SQLException e) {
+                publishFailures.add(payloads.size());
+                logger.error("Не удалось разослать {} событий инвалидации: {}", payloads.size(), e.getMessage());
+            }
+        }
+    }
+
+    private void listenLoop() {
+        long backoffMillis = 0;
+        while (running) {
+            if (backoffMillis > 0) {
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try (Connection conn = DatabaseManager.getConnection();
+                 Statement st = conn.createStatement()) {
+                st.execute("LISTEN " + channel);
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                connected = true;
+                backoffMillis = 0;
+                logger.info("Слушатель шины инвалидации подключён к каналу {}", channel);
+                resync();
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(pollMillis);
+                    if (notifications == null || notifications.length == 0) {
+                        // Тишина в канале: убеждаемся, что соединение живо
+                        if (!conn.isValid(5)) {
+                            throw new SQLException("Соединение слушателя шины инвалидации потеряно");
+                        }
+                        continue;
+                    }
+                    for (PGNotification n : notifications) {
+                        dispatch(n.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                connectFailures.increment();
+                backoffMillis = Math.min(maxReconnectMillis, Math.max(500, backoffMillis * 2));
+                logger.warn("Слушатель шины инвалидации отключён: {}; переподключение через {} мс",
+                        e.getMessage(), backoffMillis);
+            } finally {
+                connected = false;
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        received.increment();
+        if (instanceId.equals(InvalidationEvent.senderOf(payload))) {
+            ignoredOwn.increment();
+            return;
+        }
+        InvalidationEvent event = InvalidationEvent.decode(payload);
+        if (event == null) {
+            logger.warn("Нераспознанное событие инвалидации: {}", payload);
+            return;
+        }
+        logger.debug("Получено событие инвалидации {}", event);
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onInvalidation(event);
+            } catch (RuntimeException e) {
+                logger.error("Ошибка обработки события инвалидации {} подписчиком {}", event, listener, e);
+            }
+        }
+    }
+
+    private void resync() {
+        resyncs.increment();
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onResync();
+            } catch (RuntimeException e) {
+                logger.error("Ошибка полной синхронизации подписчика {}", listener, e);
+            }
+        }
+    }
+}
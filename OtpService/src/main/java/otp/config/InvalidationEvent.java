@@ -0,0 +1,120 @@
+package otp.config;
+
+/**
+ * Событие инвалидации локальных кэшей, которое рассылается всем экземплярам сервиса
+ * через {@link InvalidationBus}.
+ */
+public final class InvalidationEvent {
+
+    /**
+     * Что изменилось.
+     */
+    public enum Type {
+        /** Конфигурация OTP (длина, время жизни) */
+        OTP_CONFIG,
+        /** Пользователь изменён или удалён вместе со своими кодами; id — id пользователя */
+        USER,
+        /** Статус одного OTP-кода изменился; id — id кода */
+        OTP_CODE,
+        /** Просроченные коды массово помечены EXPIRED */
+        OTP_CODES_EXPIRED,
+        /** Вычисляемый (stateless) код принят; id — его отпечаток для защиты от повтора */
+        OTP_STATELESS_USED,
+        /** Выдано значение нового кода; id — 10^length + значение, чтобы сохранить ведущие нули */
+        OTP_CODE_ALLOCATED
+    }
+
+    private static final char SEPARATOR = '|';
+
+    private final Type type;
+    private final long id;
+
+    private InvalidationEvent(Type type, long id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    /** @return событие изменения конфигурации OTP */
+    public static InvalidationEvent otpConfig() {
+        return new InvalidationEvent(Type.OTP_CONFIG, 0);
+    }
+
+    /** @return событие изменения или удаления пользователя */
+    public static InvalidationEvent user(long userId) {
+        return new InvalidationEvent(Type.USER, userId);
+    }
+
+    /** @return событие смены статуса кода */
+    public static InvalidationEvent otpCode(long codeId) {
+        return new InvalidationEvent(Type.OTP_CODE, codeId);
+    }
+
+    /** @return событие массового истечения кодов */
+    public static InvalidationEvent otpCodesExpired() {
+        return new InvalidationEvent(Type.OTP_CODES_EXPIRED, 0);
+    }
+
+    /** @return событие приёма вычисляемого кода */
+    public static InvalidationEvent otpStatelessUsed(long fingerprint) {
+        return new InvalidationEvent(Type.OTP_STATELESS_USED, fingerprint);
+    }
+
+    /** @return событие выдачи значения кода */
+    public static InvalidationEvent otpCodeAllocated(long encodedValue) {
+        return new InvalidationEvent(Type.OTP_CODE_ALLOCATED, encodedValue);
+    }
+
+    /**
+     * @return тип события
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return id пользователя или кода (отпечаток для OTP_STATELESS_USED, значение для OTP_CODE_ALLOCATED);
+     *         0 для событий без id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Кодирует событие в полезную нагрузку NOTIFY: {@code <экземпляр>|<тип>|<id>}.
+     */
+    String encode(String instanceId) {
+        return instanceId + SEPARATOR + type.name() + SEPARATOR + id;
+    }
+
+    /**
+     * Разбирает полезную нагрузку NOTIFY.
+     *
+     * @return событие или null, если формат не распознан (например, от более новой версии сервиса)
+     */
+    static InvalidationEvent decode(String payload) {
+        int first = payload.indexOf(SEPARATOR);
+        int second = first < 0 ? -1 : payload.indexOf(SEPARATOR, first + 1);
+        if (second < 0) {
+            return null;
+        }
+        try {
+            Type type = Type.valueOf(payload.substring(first + 1, second));
+            return new InvalidationEvent(type, Long.parseLong(payload.substring(second + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return идентификатор экземпляра, отправившего событие
+     */
+    static String senderOf(String payload) {
+        int first = payload.indexOf(SEPARATOR);
+        return first < 0 ? "" : payload.substring(0, first);
+    }
+
+    @Override
+    public String toString() {
+        return type + (id != 0 ? ":" + id : "");
+    }
+}
@@ -0,0 +1,22 @@
+package otp.config;
+
+/**
+ * Подписчик шины инвалидации: локальный кэш, который нужно сбрасывать
+ * при изменениях, сделанных другими экземплярами сервиса.
+ * Методы вызываются в потоке слушателя шины и не должны надолго его занимать.
+ */
+public interface InvalidationListener {
+
+    /**
+     * Другой экземпляр изменил данные: удалить затронутые записи.
+     *
+     * @param event событие инвалидации
+     */
+    void onInvalidation(InvalidationEvent event);
+
+    /**
+     * Соединение слушателя (пере)установлено: события, пришедшие без него, потеряны,
+     * поэтому кэш нужно сбросить или перечитать целиком.
+     */
+    void onResync();
+}
@@ -1,8 +1,13 @@
 package otp.dao;
 
 import otp.model.OtpCode;
-import java.time.Duration;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Интерфейс для доступа к данным одноразовых кодов (OTP).
@@ -15,6 +20,12 @@ public interface OtpCodeDao {
      */
     void save(OtpCode code);
 
+    /**
+     * Сохраняет пачку кодов одним многострочным INSERT и заполняет их id.
+     * @param codes новые коды (createdAt может быть null — будет заполнено текущим временем)
+     */
+    void saveAll(List<OtpCode> codes);
+
     /**
      * Ищет запись по самому значению кода.
      * @param code строка кода
@@ -29,6 +40,57 @@ public interface OtpCodeDao {
      */
     List<OtpCode> findAllByUser(Long userId);
 
+    /**
+     * Потоково перебирает коды, созданные в интервале [from, to), в порядке создания.
+     * Строки читаются серверным курсором порциями, поэтому память не зависит от объёма выборки;
+     * транзакция чтения завершается сразу после последней строки.
+     *
+     * @param from    начало интервала включительно или null
+     * @param to      конец интервала не включительно или null
+     * @param handler обработчик каждой строки
+     * @return количество переданных обработчику строк
+     * @throws IOException если обработчик не смог записать строку
+     */
+    long exportByCreatedAt(LocalDateTime from, LocalDateTime to, RowHandler handler) throws IOException;
+
+    /**
+     * Возвращает активные неистёкшие коды, самые новые первыми.
+     * @param now   текущее время, с которым сравнивается expires_at
+     * @param limit максимум строк
+     * @return активные коды
+     */
+    List<OtpCode> findActive(LocalDateTime now, int limit);
+
+    /**
+     * Возвращает значения всех активных неистёкших кодов (только столбец code, по индексу expires_at).
+     * @param now текущее время, с которым сравнивается expires_at
+     * @return значения активных кодов
+     */
+    List<String> findActiveCodes(LocalDateTime now);
+
+    /**
+     * Погашает код одним условным UPDATE: код должен принадлежать пользователю и операции,
+     * быть ACTIVE и не истечь. Из одновременных попыток погасить один код успешна ровно одна.
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции (null — код без операции)
+     * @param code        введённый код
+     * @param now         текущее время, с которым сравнивается expires_at
+     * @return id погашенного кода или null, если подходящего кода нет
+     */
+    Long consume(long userId, String operationId, String code, LocalDateTime now);
+
+    /**
+     * Погашает пачку кодов одним UPDATE: каждый элемент ищется только среди активных неистёкших
+     * кодов своего пользователя и своей операции. Массивы параллельны, элемент i — (userIds[i],
+     * operationIds[i], codes[i]). Если несколько элементов указывают на один код, погашен он один раз.
+     * @param userIds      идентификаторы пользователей
+     * @param operationIds идентификаторы операций
+     * @param codes        введённые коды
+     * @param now          текущее время, с которым сравнивается expires_at
+     * @return индекс элемента → id погашенного им кода (элементов без совпадения в карте нет)
+     */
+    Map<Integer, Long> consumeAll(long[] userIds, String[] operationIds, String[] codes, LocalDateTime now);
+
     /**
      * Помечает код с заданным id как использованный.
      * @param id идентификатор записи OtpCode
@@ -36,14 +98,42 @@ public interface OtpCodeDao {
     void markAsUsed(Long id);
 
     /**
-     * Помечает все коды старше указанного TTL как просроченные.
-     * @param ttl время жизни кода (Duration), все коды с createdAt + ttl &lt; now() станут EXPIRED
+     * Помечает пачку активных кодов как использованные одним UPDATE.
+     * Коды, которые к этому моменту уже не ACTIVE, не меняются.
+     * @param ids идентификаторы записей OtpCode
+     * @return id записей, которые действительно были помечены
+     */
+    Set<Long> markAllAsUsed(Collection<Long> ids);
+
+    /**
+     * Помечает пачку кодов как просроченные одним UPDATE по первичному ключу.
+     * Меняются только коды, которые всё ещё ACTIVE и чей expires_at уже наступил.
+     * @param ids идентификаторы записей OtpCode
+     * @param now текущее время, с которым сравнивается expires_at
+     * @return значения кодов, которые действительно были помечены
+     */
+    List<String> markExpired(Collection<Long> ids, LocalDateTime now);
+
+    /**
+     * Помечает как просроченные до limit активных кодов с наступившим expires_at,
+     * начиная с самых давно истёкших. Строки, заблокированные параллельной транзакцией, пропускаются.
+     * @param now   текущее время, с которым сравнивается expires_at
+     * @param limit максимальный размер пачки
+     * @return значения помеченных кодов
      */
-    void markAsExpiredOlderThan(Duration ttl);
+    List<String> markExpiredDue(LocalDateTime now, int limit);
 
     /**
      * Удаляет все коды, принадлежащие указанному пользователю.
      * @param userId идентификатор пользователя
      */
     void deleteAllByUserId(Long userId);
+
+    /**
+     * Обработчик строки при потоковой выгрузке.
+     */
+    @FunctionalInterface
+    interface RowHandler {
+        void handle(OtpCode code) throws IOException;
+    }
 }
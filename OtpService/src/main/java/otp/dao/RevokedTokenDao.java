@@ -0,0 +1,39 @@
+package otp.dao;
+
+import otp.model.RevokedToken;
+
+import java.util.List;
+
+/**
+ * Интерфейс для доступа к таблице отозванных JWT-токенов.
+ */
+public interface RevokedTokenDao {
+
+    /**
+     * Отзывает один токен. Повторный отзыв того же jti игнорируется.
+     * @param tokenId         идентификатор токена (jti)
+     * @param userId          владелец токена
+     * @param expiresAtMillis момент истечения токена
+     */
+    void revokeToken(String tokenId, long userId, long expiresAtMillis);
+
+    /**
+     * Отзывает все токены пользователя, выданные не позже revokedAtMillis.
+     * @param userId          идентификатор пользователя
+     * @param revokedAtMillis момент отзыва
+     * @param expiresAtMillis момент, когда истечёт последний из отозванных токенов
+     */
+    void revokeUser(long userId, long revokedAtMillis, long expiresAtMillis);
+
+    /**
+     * Возвращает записи, чьи токены ещё не истекли.
+     * @return список действующих отзывов
+     */
+    List<RevokedToken> findActive();
+
+    /**
+     * Удаляет записи об уже истёкших токенах.
+     * @return количество удалённых записей
+     */
+    int deleteExpired();
+}
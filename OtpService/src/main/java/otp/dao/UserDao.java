@@ -1,7 +1,11 @@
 package otp.dao;
 
 import otp.model.User;
+import otp.model.UserRole;
+import otp.model.UserSummary;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Интерфейс для доступа к данным пользователей.
@@ -9,10 +13,25 @@ import java.util.List;
 public interface UserDao {
 
     /**
-     * Сохраняет нового пользователя в БД.
-     * @param user объект User для вставки (id генерируется БД)
+     * Результат регистрации пользователя.
      */
-    void create(User user);
+    enum RegistrationResult {
+        /** Пользователь создан */
+        CREATED,
+        /** Логин уже занят */
+        USERNAME_TAKEN,
+        /** Регистрируется администратор, а он уже есть */
+        ADMIN_EXISTS
+    }
+
+    /**
+     * Атомарно создаёт пользователя, если логин свободен и (для роли ADMIN) администратора ещё нет.
+     * Проверка и вставка выполняются одним запросом, поэтому одновременные регистрации
+     * не создадут двух пользователей с одним логином или двух администраторов.
+     * @param user объект User для вставки; при успехе получает id, сгенерированный БД
+     * @return результат регистрации
+     */
+    RegistrationResult register(User user);
 
     /**
      * Ищет пользователя по логину.
@@ -29,16 +48,30 @@ public interface UserDao {
     User findById(Long id);
 
     /**
-     * Возвращает список всех пользователей, у которых роль не ADMIN.
-     * @return список пользователей без администраторов
+     * Ищет пользователей по набору идентификаторов одним запросом.
+     * @param ids идентификаторы
+     * @return найденные пользователи по id (отсутствующих в карте нет)
+     */
+    Map<Long, User> findByIds(Collection<Long> ids);
+
+    /**
+     * Возвращает страницу пользователей с id больше afterId в порядке возрастания id.
+     * Выбираются только поля проекции UserSummary.
+     *
+     * @param afterId        курсор: id последнего пользователя предыдущей страницы (0 — с начала)
+     * @param limit          максимум строк
+     * @param usernamePrefix фильтр по началу логина или null
+     * @param role           фильтр по роли; null — все, кроме администраторов
+     * @return пользователи страницы
      */
-    List<User> findAllUsersWithoutAdmins();
+    List<UserSummary> findUsersPage(long afterId, int limit, String usernamePrefix, UserRole role);
 
     /**
-     * Проверяет, существует ли в системе хотя бы один администратор.
-     * @return true, если администратор уже есть
+     * Заменяет хеш пароля пользователя (перехеширование при входе).
+     * @param userId       идентификатор пользователя
+     * @param passwordHash новый хеш пароля
      */
-    boolean adminExists();
+    void updatePasswordHash(Long userId, String passwordHash);
 
     /**
      * Удаляет пользователя по идентификатору (с каскадным удалением OTP-кодов).
@@ -0,0 +1,210 @@
+package otp.dao.impl;
+
+import otp.config.InvalidationEvent;
+import otp.config.InvalidationListener;
+import otp.dao.OtpConfigDao;
+import otp.model.OtpConfig;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Декоратор OtpConfigDao, который держит конфигурацию OTP в памяти.
+ * <p>
+ * Конфигурация меняется редко, а читается на каждой генерации и проверке кода,
+ * поэтому getConfig() отдаёт копию текущего снимка без обращения к БД.
+ * Снимок загружается при первом обращении и заменяется целиком: при updateConfig
+ * (после успешной записи в БД) и при фоновом перечитывании раз в
+ * otp.config.refresh.seconds — так видны изменения, сделанные другими экземплярами.
+ * Одновременные загрузки объединяются: в БД идёт один запрос, остальные ждут его результат.
+ * Загрузка, начатая до updateConfig, снимок не перезаписывает. Изменение на другом
+ * экземпляре приходит через шину инвалидации и сразу вызывает перечитывание.
+ * </p>
+ */
+public class CachingOtpConfigDao implements OtpConfigDao, InvalidationListener {
+    private static final Logger logger = LoggerFactory.getLogger(CachingOtpConfigDao.class);
+
+    private static volatile CachingOtpConfigDao shared;
+
+    private final OtpConfigDao delegate;
+    private final AtomicReference<OtpConfig> snapshot = new AtomicReference<>();
+    /** Загрузка из БД, которая идёт сейчас; к ней присоединяются остальные вызовы */
+    private final AtomicReference<CompletableFuture<OtpConfig>> inFlight = new AtomicReference<>();
+    /** Растёт при каждом updateConfig; загрузка со старым значением снимок не заменяет */
+    private long modifications;
+    private final Object publishLock = new Object();
+    private ScheduledExecutorService refresher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+
+    /**
+     * @param delegate DAO, из которого загружается конфигурация
+     */
+    public CachingOtpConfigDao(OtpConfigDao delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return общий для процесса DAO конфигурации OTP
+     */
+    public static CachingOtpConfigDao shared() {
+        CachingOtpConfigDao dao = shared;
+        if (dao == null) {
+            synchronized (CachingOtpConfigDao.class) {
+                dao = shared;
+                if (dao == null) {
+                    dao = new CachingOtpConfigDao(new OtpConfigDaoImpl());
+                    MetricsRegistry.register("otp.config", dao::metrics);
+                    shared = dao;
+                }
+            }
+        }
+        return dao;
+    }
+
+    @Override
+    public OtpConfig getConfig() {
+        OtpConfig current = snapshot.get();
+        if (current != null) {
+            hits.increment();
+            return copy(current);
+        }
+        return copy(reload());
+    }
+
+    @Override
+    public void updateConfig(OtpConfig config) {
+        delegate.updateConfig(config);
+        synchronized (publishLock) {
+            modifications++;
+            snapshot.set(copy(config));
+        }
+        logger.info("Снимок конфигурации OTP заменён: {}", config);
+    }
+
+    @Override
+    public void initDefaultConfigIfEmpty() {
+        delegate.initDefaultConfigIfEmpty();
+        reload();
+    }
+
+    /**
+     * Перечитывает конфигурацию из БД и заменяет снимок.
+     * Если загрузка уже идёт, дожидается её результата вместо второго запроса.
+     *
+     * @return загруженная конфигурация или null, если записи в БД нет
+     */
+    public OtpConfig reload() {
+        CompletableFuture<OtpConfig> mine = new CompletableFuture<>();
+        CompletableFuture<OtpConfig> running = inFlight.compareAndExchange(null, mine);
+        if (running != null) {
+            coalescedLoads.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            long version;
+            synchronized (publishLock) {
+                version = modifications;
+            }
+            loads.increment();
+            OtpConfig loaded = delegate.getConfig();
+            if (loaded != null) {
+                synchronized (publishLock) {
+                    if (modifications == version) {
+                        snapshot.set(copy(loaded));
+                    }
+                }
+            }
+            mine.complete(loaded);
+            return loaded;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.compareAndSet(mine, null);
+        }
+    }
+
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.OTP_CONFIG) {
+            reload();
+        }
+    }
+
+    @Override
+    public void onResync() {
+        reload();
+    }
+
+    /**
+     * Запускает фоновое перечитывание конфигурации.
+     *
+     * @param periodSeconds период в секундах; 0 или меньше — не перечитывать
+     */
+    public synchronized void startRefresh(long periodSeconds) {
+        if (periodSeconds <= 0 || refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "otp-config-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                // Остаётся прежний снимок; следующая попытка — через период
+                refreshFailures.increment();
+                logger.warn("Не удалось перечитать конфигурацию OTP: {}", e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        logger.info("Запущено перечитывание конфигурации OTP, период={} с", periodSeconds);
+    }
+
+    /** Останавливает фоновое перечитывание */
+    public synchronized void stopRefresh() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * @return текущие значения метрик снимка конфигурации
+     */
+    public Map<String, Object> metrics() {
+        OtpConfig current = snapshot.get();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("loaded", current != null);
+        metrics.put("length", current != null ? current.getLength() : 0);
+        metrics.put("ttlSeconds", current != null ? current.getTtlSeconds() : 0);
+        metrics.put("hits", hits.sum());
+        metrics.put("loads", loads.sum());
+        metrics.put("coalescedLoads", coalescedLoads.sum());
+        metrics.put("refreshFailures", refreshFailures.sum());
+        return metrics;
+    }
+
+    private static OtpConfig copy(OtpConfig config) {
+        return config == null ? null : new OtpConfig(config.getId(), config.getLength(), config.getTtlSeconds());
+    }
+}
@@ -0,0 +1,304 @@
+package otp.dao.impl;
+
+import otp.config.AppConfig;
+import otp.config.InvalidationEvent;
+import otp.config.InvalidationListener;
+import otp.dao.UserDao;
+import otp.model.User;
+import otp.model.UserRole;
+import otp.model.UserSummary;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Декоратор UserDao с кэшем пользователей на чтение (read-through).
+ * <p>
+ * Пользователь хранится в двух индексах — по id и по логину — и живёт не дольше
+ * user.cache.ttl.seconds. Размер ограничен user.cache.max.size: при заполнении
+ * новая запись вытесняет одну из существующих. register, delete и updatePasswordHash
+ * сразу удаляют затронутые записи; загрузка, начатая до такого изменения, в кэш
+ * не попадает (сверяется счётчик изменений). Отсутствующие пользователи не кэшируются.
+ * Наружу отдаются копии, чтобы изменения объекта вызывающим не портили кэш.
+ * </p>
+ * <p>
+ * Кэш должен быть один на процесс, иначе удаление через один экземпляр не увидят
+ * другие, поэтому контроллеры берут общий экземпляр через {@link #shared()}.
+ * Изменения на других экземплярах сервиса приходят через шину инвалидации.
+ * </p>
+ */
+public class CachingUserDao implements UserDao, InvalidationListener {
+    private static final Logger logger = LoggerFactory.getLogger(CachingUserDao.class);
+
+    private static volatile UserDao shared;
+
+    private final UserDao delegate;
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final ConcurrentHashMap<Long, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> byUsername = new ConcurrentHashMap<>();
+    /** Растёт при каждом изменении пользователей; загрузка со старым значением не кэшируется */
+    private final AtomicLong modifications = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param delegate   DAO, к которому идут запросы при промахе
+     * @param maxSize    максимальное число пользователей в кэше
+     * @param ttlSeconds время жизни записи
+     */
+    public CachingUserDao(UserDao delegate, int maxSize, int ttlSeconds) {
+        if (maxSize <= 0 || ttlSeconds <= 0) {
+            throw new IllegalArgumentException("Параметры кэша пользователей должны быть положительными");
+        }
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * @return общий для процесса DAO пользователей: с кэшем или, если user.cache.enabled=false, без него
+     */
+    public static UserDao shared() {
+        UserDao dao = shared;
+        if (dao == null) {
+            synchronized (CachingUserDao.class) {
+                dao = shared;
+                if (dao == null) {
+                    if (AppConfig.getBoolean("user.cache.enabled", true)) {
+                        CachingUserDao cache = new CachingUserDao(new UserDaoImpl(),
+                                AppConfig.getInt("user.cache.max.size", 10_000),
+                                AppConfig.getInt("user.cache.ttl.seconds", 60));
+                        MetricsRegistry.register("user.cache", cache::metrics);
+                        dao = cache;
+                    } else {
+                        logger.info("Кэш пользователей отключён");
+                        dao = new UserDaoImpl();
+                    }
+                    shared = dao;
+                }
+            }
+        }
+        return dao;
+    }
+
+    @Override
+    public RegistrationResult register(User user) {
+        modifications.incrementAndGet();
+        invalidateUsername(user.getUsername());
+        return delegate.register(user);
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        Entry entry = lookup(byUsername, username);
+        if (entry != null) {
+            return copy(entry.user);
+        }
+        long version = modifications.get();
+        User user = delegate.findByUsername(username);
+        cache(user, version);
+        return copy(user);
+    }
+
+    @Override
+    public User findById(Long id) {
+        Entry entry = lookup(byId, id);
+        if (entry != null) {
+            return copy(entry.user);
+        }
+        long version = modifications.get();
+        User user = delegate.findById(id);
+        cache(user, version);
+        return copy(user);
+    }
+
+    @Override
+    public Map<Long, User> findByIds(Collection<Long> ids) {
+        Map<Long, User> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            Entry entry = lookup(byId, id);
+            if (entry != null) {
+                result.put(id, copy(entry.user));
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long version = modifications.get();
+            for (User user : delegate.findByIds(missing).values()) {
+                cache(user, version);
+                result.put(user.getId(), copy(user));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<UserSummary> findUsersPage(long afterId, int limit, String usernamePrefix, UserRole role) {
+        return delegate.findUsersPage(afterId, limit, usernamePrefix, role);
+    }
+
+    @Override
+    public void updatePasswordHash(Long userId, String passwordHash) {
+        modifications.incrementAndGet();
+        try {
+            delegate.updatePasswordHash(userId, passwordHash);
+        } finally {
+            invalidate(userId);
+        }
+    }
+
+    @Override
+    public void delete(Long userId) {
+        modifications.incrementAndGet();
+        try {
+            delegate.delete(userId);
+        } finally {
+            invalidate(userId);
+        }
+    }
+
+    /**
+     * Удаляет пользователя из обоих индексов кэша.
+     *
+     * @param userId идентификатор пользователя
+     */
+    public void invalidate(Long userId) {
+        modifications.incrementAndGet();
+        Entry entry = byId.remove(userId);
+        if (entry != null) {
+            byUsername.remove(entry.user.getUsername(), entry);
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Очищает кэш целиком.
+     */
+    public void invalidateAll() {
+        modifications.incrementAndGet();
+        invalidations.add(byId.size());
+        byId.clear();
+        byUsername.clear();
+    }
+
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.USER) {
+            invalidate(event.getId());
+        }
+    }
+
+    @Override
+    public void onResync() {
+        invalidateAll();
+    }
+
+    /**
+     * @return текущие значения метрик кэша
+     */
+    public Map<String, Object> metrics() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("size", byId.size());
+        metrics.put("maxSize", maxSize);
+        metrics.put("hits", h);
+        metrics.put("misses", m);
+        metrics.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        metrics.put("evictions", evictions.sum());
+        metrics.put("expirations", expirations.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private <K> Entry lookup(ConcurrentHashMap<K, Entry> index, K key) {
+        Entry entry = key != null ? index.get(key) : null;
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAtNanos > ttlNanos) {
+            if (byId.remove(entry.user.getId(), entry)) {
+                byUsername.remove(entry.user.getUsername(), entry);
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    private void cache(User user, long version) {
+        if (user == null) {
+            return;
+        }
+        if (byId.size() >= maxSize) {
+            evictOne();
+        }
+        Entry entry = new Entry(copy(user), System.nanoTime());
+        Entry previous = byId.put(user.getId(), entry);
+        if (previous != null && !previous.user.getUsername().equals(user.getUsername())) {
+            byUsername.remove(previous.user.getUsername(), previous);
+        }
+        byUsername.put(user.getUsername(), entry);
+        // Пользователя изменили, пока шла загрузка: прочитанная строка может быть устаревшей
+        if (modifications.get() != version) {
+            byId.remove(user.getId(), entry);
+            byUsername.remove(user.getUsername(), entry);
+        }
+    }
+
+    private void evictOne() {
+        Iterator<Entry> it = byId.values().iterator();
+        if (it.hasNext()) {
+            Entry victim = it.next();
+            if (byId.remove(victim.user.getId(), victim)) {
+                byUsername.remove(victim.user.getUsername(), victim);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void invalidateUsername(String username) {
+        Entry entry = byUsername.remove(username);
+        if (entry != null) {
+            byId.remove(entry.user.getId(), entry);
+            invalidations.increment();
+        }
+    }
+
+    private static User copy(User user) {
+        return user == null ? null
+                : new User(user.getId(), user.getUsername(), user.getPasswordHash(), user.getRole());
+    }
+
+    private static final class Entry {
+        final User user;
+        final long loadedAtNanos;
+
+        Entry(User user, long loadedAtNanos) {
+            this.user = user;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package otp.dao.impl;
 
+import otp.config.AppConfig;
 import otp.config.DatabaseManager;
 import otp.dao.OtpCodeDao;
 import otp.model.OtpCode;
@@ -7,11 +8,16 @@ import otp.model.OtpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.*;
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * JDBC-реализация OtpCodeDao.
@@ -20,16 +26,60 @@ import java.util.List;
 public class OtpCodeDaoImpl implements OtpCodeDao {
     private static final Logger logger = LoggerFactory.getLogger(OtpCodeDaoImpl.class);
 
+    /** Строк в одной порции серверного курсора при выгрузке */
+    private final int exportFetchSize = AppConfig.getInt("export.fetch.size", 1000);
+    /** Сколько транзакция выгрузки может простаивать, пока клиент не забирает данные */
+    private final long exportIdleTimeoutMs = AppConfig.getLong("export.idle.transaction.timeout.ms", 60_000);
+
     private static final String INSERT_SQL =
-            "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at) VALUES (?, ?, ?, ?, ?)";
+            "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at, expires_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_VALUES_ROW = "(?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_MARK_ALL_USED_SQL =
+            "UPDATE otp_codes SET status = 'USED' WHERE id = ANY(?) AND status = 'ACTIVE' RETURNING id";
     private static final String SELECT_BY_CODE_SQL =
-            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes WHERE code = ?";
+            "SELECT id, user_id, operation_id, code, status, created_at, expires_at FROM otp_codes WHERE code = ?";
     private static final String SELECT_BY_USER_SQL =
-            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes WHERE user_id = ?";
+            "SELECT id, user_id, operation_id, code, status, created_at, expires_at FROM otp_codes WHERE user_id = ?";
+    private static final String SELECT_ACTIVE_SQL =
+            "SELECT id, user_id, operation_id, code, status, created_at, expires_at FROM otp_codes"
+                    + " WHERE status = 'ACTIVE' AND expires_at > ? ORDER BY id DESC LIMIT ?";
+    private static final String SELECT_ACTIVE_CODES_SQL =
+            "SELECT code FROM otp_codes WHERE status = 'ACTIVE' AND expires_at > ?";
+    private static final String SELECT_EXPORT_SQL =
+            "SELECT id, user_id, operation_id, code, status, created_at, expires_at FROM otp_codes"
+                    + " WHERE created_at >= COALESCE(?, '-infinity'::timestamp)"
+                    + " AND created_at < COALESCE(?, 'infinity'::timestamp)"
+                    + " ORDER BY created_at, id";
+    // Подзапрос выбирает одну строку по индексу (user_id, operation_id, code) среди ACTIVE;
+    // SKIP LOCKED: строку, которую сейчас гасит параллельный запрос, второй не ждёт и не получит
+    private static final String CONSUME_SQL_TEMPLATE =
+            "UPDATE otp_codes SET status = 'USED' WHERE id = ("
+                    + "SELECT id FROM otp_codes WHERE user_id = ? AND %s AND code = ?"
+                    + " AND status = 'ACTIVE' AND expires_at > ? ORDER BY id LIMIT 1 FOR UPDATE SKIP LOCKED)"
+                    + " RETURNING id";
+    private static final String CONSUME_SQL = String.format(CONSUME_SQL_TEMPLATE, "operation_id = ?");
+    private static final String CONSUME_NO_OPERATION_SQL = String.format(CONSUME_SQL_TEMPLATE, "operation_id IS NULL");
+    // Элементы пакета сопоставляются с кодами по индексу (user_id, operation_id, code) среди ACTIVE;
+    // DISTINCT ON оставляет по одному коду на элемент, а повторная проверка status при UPDATE
+    // не даст погасить код, который параллельный запрос уже погасил
+    private static final String CONSUME_ALL_SQL =
+            "UPDATE otp_codes c SET status = 'USED' FROM ("
+                    + "SELECT DISTINCT ON (r.ord) r.ord, o.id"
+                    + " FROM unnest(?::bigint[], ?::text[], ?::text[]) WITH ORDINALITY AS r(user_id, operation_id, code, ord)"
+                    + " JOIN otp_codes o ON o.user_id = r.user_id AND o.operation_id = r.operation_id"
+                    + " AND o.code = r.code AND o.status = 'ACTIVE' AND o.expires_at > ?"
+                    + " ORDER BY r.ord, o.id) m"
+                    + " WHERE c.id = m.id AND c.status = 'ACTIVE'"
+                    + " RETURNING m.ord, c.id";
     private static final String UPDATE_MARK_USED_SQL =
             "UPDATE otp_codes SET status = 'USED' WHERE id = ?";
     private static final String UPDATE_MARK_EXPIRED_SQL =
-            "UPDATE otp_codes SET status = 'EXPIRED' WHERE status = 'ACTIVE' AND created_at < ?";
+            "UPDATE otp_codes SET status = 'EXPIRED' WHERE id = ANY(?) AND status = 'ACTIVE' AND expires_at <= ? RETURNING code";
+    // Подзапрос идёт по частичному индексу idx_otp_codes_active_expires_at и ограничен LIMIT
+    private static final String UPDATE_MARK_EXPIRED_DUE_SQL =
+            "UPDATE otp_codes SET status = 'EXPIRED' WHERE id IN ("
+                    + "SELECT id FROM otp_codes WHERE status = 'ACTIVE' AND expires_at <= ?"
+                    + " ORDER BY expires_at LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING code";
     private static final String DELETE_BY_USER_SQL =
             "DELETE FROM otp_codes WHERE user_id = ?";
 
@@ -40,7 +90,7 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
             code.setCreatedAt(LocalDateTime.now());
         }
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
             ps.setLong(1, code.getUserId());
             if (code.getOperationId() != null) {
                 ps.setString(2, code.getOperationId());
@@ -50,6 +100,7 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
             ps.setString(3, code.getCode());
             ps.setString(4, code.getStatus().name());
             ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
+            ps.setTimestamp(6, code.getExpiresAt() != null ? Timestamp.valueOf(code.getExpiresAt()) : null);
             int affected = ps.executeUpdate();
             if (affected == 0) {
                 throw new SQLException("Сохранение OTP кода не удалось, ни одной строки не затронуто.");
@@ -62,14 +113,61 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
             logger.info("Сохранен OTP код: {}", code);
         } catch (SQLException e) {
             logger.error("Ошибка сохранения OTP кода [{}]: {}", code.getCode(), e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
+        }
+    }
+
+    @Override
+    public void saveAll(List<OtpCode> codes) {
+        if (codes.isEmpty()) {
+            return;
+        }
+        // INSERT ... VALUES (...), (...) RETURNING id: id возвращаются в порядке строк VALUES
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at, expires_at) VALUES ");
+        for (int i = 0; i < codes.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(INSERT_VALUES_ROW);
+        }
+        sql.append(" RETURNING id");
+
+        LocalDateTime now = LocalDateTime.now();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, sql.toString())) {
+            int p = 1;
+            for (OtpCode code : codes) {
+                if (code.getCreatedAt() == null) {
+                    code.setCreatedAt(now);
+                }
+                ps.setLong(p++, code.getUserId());
+                if (code.getOperationId() != null) {
+                    ps.setString(p++, code.getOperationId());
+                } else {
+                    ps.setNull(p++, Types.VARCHAR);
+                }
+                ps.setString(p++, code.getCode());
+                ps.setString(p++, code.getStatus().name());
+                ps.setTimestamp(p++, Timestamp.valueOf(code.getCreatedAt()));
+                ps.setTimestamp(p++, code.getExpiresAt() != null ? Timestamp.valueOf(code.getExpiresAt()) : null);
+            }
+            try (ResultSet keys = ps.executeQuery()) {
+                for (OtpCode code : codes) {
+                    if (!keys.next()) {
+                        throw new SQLException("Сохранение пачки OTP кодов не удалось: получено меньше id, чем строк.");
+                    }
+                    code.setId(keys.getLong(1));
+                }
+            }
+            logger.info("Сохранено {} OTP кодов одним запросом", codes.size());
+        } catch (SQLException e) {
+            logger.error("Ошибка сохранения пачки из {} OTP кодов: {}", codes.size(), e.getMessage(), e);
+            throw DatabaseManager.translate(e);
         }
     }
 
     @Override
     public OtpCode findByCode(String code) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_BY_CODE_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_BY_CODE_SQL)) {
             ps.setString(1, code);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -80,7 +178,7 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
             }
         } catch (SQLException e) {
             logger.error("Ошибка поиска OTP по коду [{}]: {}", code, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
         return null;
     }
@@ -89,7 +187,7 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
     public List<OtpCode> findAllByUser(Long userId) {
         List<OtpCode> list = new ArrayList<>();
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_BY_USER_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_BY_USER_SQL)) {
             ps.setLong(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -99,48 +197,233 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
             logger.info("Найдено {} OTP кодов для пользователя {}", list.size(), userId);
         } catch (SQLException e) {
             logger.error("Ошибка поиска OTP кодов для пользователя [{}]: {}", userId, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
         return list;
     }
 
+    @Override
+    public long exportByCreatedAt(LocalDateTime from, LocalDateTime to, RowHandler handler) throws IOException {
+        long rows = 0;
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // Драйвер PostgreSQL читает порциями по fetchSize только внутри транзакции;
+            // при autocommit весь результат загружается в память сразу
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            try (Statement st = conn.createStatement()) {
+                // Если клиент перестал читать ответ, сервер БД сам прервёт зависшую транзакцию
+                st.execute("SET LOCAL idle_in_transaction_session_timeout = " + exportIdleTimeoutMs);
+            }
+            try (PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_EXPORT_SQL)) {
+                ps.setFetchSize(exportFetchSize);
+                ps.setTimestamp(1, from != null ? Timestamp.valueOf(from) : null);
+                ps.setTimestamp(2, to != null ? Timestamp.valueOf(to) : null);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        handler.handle(mapRow(rs));
+                        rows++;
+                    }
+                }
+                // Курсор исчерпан — сразу завершаем транзакцию, не дожидаясь дописывания ответа
+                conn.commit();
+            } catch (IOException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+            logger.info("Выгружено {} OTP кодов за период [{}, {})", rows, from, to);
+        } catch (SQLException e) {
+            logger.error("Ошибка выгрузки OTP кодов за период [{}, {}): {}", from, to, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return rows;
+    }
+
+    @Override
+    public Map<Integer, Long> consumeAll(long[] userIds, String[] operationIds, String[] codes, LocalDateTime now) {
+        Map<Integer, Long> consumed = new HashMap<>();
+        if (userIds.length == 0) {
+            return consumed;
+        }
+        Long[] users = new Long[userIds.length];
+        for (int i = 0; i < userIds.length; i++) {
+            users[i] = userIds[i];
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, CONSUME_ALL_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", users));
+            ps.setArray(2, conn.createArrayOf("text", operationIds));
+            ps.setArray(3, conn.createArrayOf("text", codes));
+            ps.setTimestamp(4, Timestamp.valueOf(now));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    // WITH ORDINALITY нумерует с 1
+                    consumed.put(rs.getInt(1) - 1, rs.getLong(2));
+                }
+            }
+            logger.info("Погашено {} OTP из пачки {}", consumed.size(), userIds.length);
+        } catch (SQLException e) {
+            logger.error("Ошибка погашения пачки из {} OTP: {}", userIds.length, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return consumed;
+    }
+
     @Override
     public void markAsUsed(Long id) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_MARK_USED_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, UPDATE_MARK_USED_SQL)) {
             ps.setLong(1, id);
             int affected = ps.executeUpdate();
             logger.info("OTP id {} помечен как USED ({} строк затронуто)", id, affected);
         } catch (SQLException e) {
             logger.error("Ошибка пометки OTP id [{}] как USED: {}", id, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
     }
 
     @Override
-    public void markAsExpiredOlderThan(Duration ttl) {
-        LocalDateTime threshold = LocalDateTime.now().minus(ttl);
+    public Set<Long> markAllAsUsed(Collection<Long> ids) {
+        Set<Long> marked = new HashSet<>();
+        if (ids.isEmpty()) {
+            return marked;
+        }
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_MARK_EXPIRED_SQL)) {
-            ps.setTimestamp(1, Timestamp.valueOf(threshold));
-            int affected = ps.executeUpdate();
-            logger.info("Помечено {} OTP кодов как EXPIRED старше чем {}", affected, threshold);
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, UPDATE_MARK_ALL_USED_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    marked.add(rs.getLong(1));
+                }
+            }
+            logger.info("Помечено как USED {} OTP из {}", marked.size(), ids.size());
         } catch (SQLException e) {
-            logger.error("Ошибка пометки просроченных OTP кодов старше чем {}: {}", threshold, e.getMessage(), e);
-            throw new RuntimeException(e);
+            logger.error("Ошибка пометки пачки из {} OTP как USED: {}", ids.size(), e.getMessage(), e);
+            throw DatabaseManager.translate(e);
         }
+        return marked;
+    }
+
+    @Override
+    public List<OtpCode> findActive(LocalDateTime now, int limit) {
+        List<OtpCode> list = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_ACTIVE_SQL)) {
+            ps.setTimestamp(1, Timestamp.valueOf(now));
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(mapRow(rs));
+                }
+            }
+            logger.info("Найдено {} активных OTP кодов (лимит {})", list.size(), limit);
+        } catch (SQLException e) {
+            logger.error("Ошибка загрузки активных OTP кодов: {}", e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return list;
+    }
+
+    @Override
+    public Long consume(long userId, String operationId, String code, LocalDateTime now) {
+        String sql = operationId != null ? CONSUME_SQL : CONSUME_NO_OPERATION_SQL;
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, sql)) {
+            int p = 1;
+            ps.setLong(p++, userId);
+            if (operationId != null) {
+                ps.setString(p++, operationId);
+            }
+            ps.setString(p++, code);
+            ps.setTimestamp(p, Timestamp.valueOf(now));
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    long id = rs.getLong(1);
+                    logger.info("Погашен OTP id={} пользователя {}, operationId={}", id, userId, operationId);
+                    return id;
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Ошибка погашения OTP пользователя {}, operationId={}: {}",
+                    userId, operationId, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        logger.info("Нет активного OTP для пользователя {}, operationId={}", userId, operationId);
+        return null;
+    }
+
+    @Override
+    public List<String> markExpired(Collection<Long> ids, LocalDateTime now) {
+        List<String> codes = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return codes;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, UPDATE_MARK_EXPIRED_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+            ps.setTimestamp(2, Timestamp.valueOf(now));
+            readCodes(ps, codes);
+            logger.debug("Помечено {} OTP кодов как EXPIRED из {}", codes.size(), ids.size());
+        } catch (SQLException e) {
+            logger.error("Ошибка пометки пачки из {} OTP как EXPIRED: {}", ids.size(), e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return codes;
+    }
+
+    @Override
+    public List<String> markExpiredDue(LocalDateTime now, int limit) {
+        List<String> codes = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, UPDATE_MARK_EXPIRED_DUE_SQL)) {
+            ps.setTimestamp(1, Timestamp.valueOf(now));
+            ps.setInt(2, limit);
+            readCodes(ps, codes);
+            if (!codes.isEmpty()) {
+                logger.info("Помечено {} просроченных OTP кодов как EXPIRED (лимит {})", codes.size(), limit);
+            }
+        } catch (SQLException e) {
+            logger.error("Ошибка пометки просроченных OTP кодов: {}", e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return codes;
+    }
+
+    @Override
+    public List<String> findActiveCodes(LocalDateTime now) {
+        List<String> codes = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_ACTIVE_CODES_SQL)) {
+            ps.setTimestamp(1, Timestamp.valueOf(now));
+            readCodes(ps, codes);
+            logger.debug("Найдено {} значений активных OTP кодов", codes.size());
+        } catch (SQLException e) {
+            logger.error("Ошибка загрузки значений активных OTP кодов: {}", e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return codes;
     }
 
     @Override
     public void deleteAllByUserId(Long userId) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(DELETE_BY_USER_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, DELETE_BY_USER_SQL)) {
             ps.setLong(1, userId);
             int affected = ps.executeUpdate();
             logger.info("Удалено {} OTP кодов для пользователя {}", affected, userId);
         } catch (SQLException e) {
             logger.error("Ошибка удаления OTP кодов для пользователя [{}]: {}", userId, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
+        }
+    }
+
+    /**
+     * Читает первый столбец (code) всех строк результата.
+     */
+    private static void readCodes(PreparedStatement ps, List<String> codes) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                codes.add(rs.getString(1));
+            }
         }
     }
 
@@ -157,6 +440,8 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
         code.setStatus(OtpStatus.valueOf(rs.getString("status")));
         Timestamp ts = rs.getTimestamp("created_at");
         code.setCreatedAt(ts != null ? ts.toLocalDateTime() : null);
+        Timestamp expires = rs.getTimestamp("expires_at");
+        code.setExpiresAt(expires != null ? expires.toLocalDateTime() : null);
         return code;
     }
 }
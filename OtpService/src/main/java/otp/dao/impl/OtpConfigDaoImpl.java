@@ -25,7 +25,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
     @Override
     public OtpConfig getConfig() {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_CONFIG_SQL);
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_CONFIG_SQL);
              ResultSet rs = ps.executeQuery()) {
 
             if (rs.next()) {
@@ -33,12 +33,12 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
                 cfg.setId(rs.getLong("id"));
                 cfg.setLength(rs.getInt("length"));
                 cfg.setTtlSeconds(rs.getInt("ttl_seconds"));
-                logger.info("Загружена конфигурация OTP: {}", cfg);
+                logger.debug("Загружена конфигурация OTP: {}", cfg);
                 return cfg;
             }
         } catch (SQLException e) {
             logger.error("Ошибка загрузки конфигурации OTP: {}", e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
         logger.warn("Конфигурация OTP не найдена в базе данных");
         return null;
@@ -47,7 +47,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
     @Override
     public void updateConfig(OtpConfig config) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_CONFIG_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, UPDATE_CONFIG_SQL)) {
 
             ps.setInt(1, config.getLength());
             ps.setInt(2, config.getTtlSeconds());
@@ -57,7 +57,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
                     config.getId(), config.getLength(), config.getTtlSeconds(), affected);
         } catch (SQLException e) {
             logger.error("Ошибка обновления конфигурации OTP [{}]: {}", config, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
     }
 
@@ -73,7 +73,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
         int defaultLength = 6;
         int defaultTtl = 300;
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_DEFAULT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, INSERT_DEFAULT_SQL, Statement.RETURN_GENERATED_KEYS)) {
 
             ps.setInt(1, defaultLength);
             ps.setInt(2, defaultTtl);
@@ -90,7 +90,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
             }
         } catch (SQLException e) {
             logger.error("Ошибка инициализации конфигурации OTP по умолчанию: {}", e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
     }
 }
@@ -0,0 +1,108 @@
+package otp.dao.impl;
+
+import otp.config.DatabaseManager;
+import otp.dao.RevokedTokenDao;
+import otp.model.RevokedToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDBC-реализация RevokedTokenDao.
+ * Текущее время передаётся из приложения, а не берётся как NOW() в БД:
+ * моменты истечения считаются по часам приложения.
+ */
+public class RevokedTokenDaoImpl implements RevokedTokenDao {
+    private static final Logger logger = LoggerFactory.getLogger(RevokedTokenDaoImpl.class);
+
+    private static final String INSERT_TOKEN_SQL =
+            "INSERT INTO revoked_tokens (jti, user_id, revoked_at, expires_at) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (jti) DO NOTHING";
+    private static final String INSERT_USER_SQL =
+            "INSERT INTO revoked_tokens (jti, user_id, revoked_at, expires_at) VALUES (NULL, ?, ?, ?)";
+    private static final String SELECT_ACTIVE_SQL =
+            "SELECT jti, user_id, revoked_at, expires_at FROM revoked_tokens WHERE expires_at > ?";
+    private static final String DELETE_EXPIRED_SQL =
+            "DELETE FROM revoked_tokens WHERE expires_at <= ?";
+
+    @Override
+    public void revokeToken(String tokenId, long userId, long expiresAtMillis) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, INSERT_TOKEN_SQL)) {
+
+            ps.setString(1, tokenId);
+            ps.setLong(2, userId);
+            ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            ps.setTimestamp(4, new Timestamp(expiresAtMillis));
+            ps.executeUpdate();
+            logger.info("Отозван токен {} пользователя {}", tokenId, userId);
+        } catch (SQLException e) {
+            logger.error("Ошибка отзыва токена {} пользователя {}: {}", tokenId, userId, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+    }
+
+    @Override
+    public void revokeUser(long userId, long revokedAtMillis, long expiresAtMillis) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, INSERT_USER_SQL)) {
+
+            ps.setLong(1, userId);
+            ps.setTimestamp(2, new Timestamp(revokedAtMillis));
+            ps.setTimestamp(3, new Timestamp(expiresAtMillis));
+            ps.executeUpdate();
+            logger.info("Отозваны все токены пользователя {}", userId);
+        } catch (SQLException e) {
+            logger.error("Ошибка отзыва токенов пользователя {}: {}", userId, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+    }
+
+    @Override
+    public List<RevokedToken> findActive() {
+        List<RevokedToken> result = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_ACTIVE_SQL)) {
+
+            ps.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.add(new RevokedToken(
+                            rs.getString("jti"),
+                            rs.getLong("user_id"),
+                            rs.getTimestamp("revoked_at").getTime(),
+                            rs.getTimestamp("expires_at").getTime()));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Ошибка загрузки списка отзыва: {}", e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        logger.debug("Загружено действующих отзывов: {}", result.size());
+        return result;
+    }
+
+    @Override
+    public int deleteExpired() {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, DELETE_EXPIRED_SQL)) {
+
+            ps.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            int deleted = ps.executeUpdate();
+            if (deleted > 0) {
+                logger.info("Удалено истёкших записей об отзыве: {}", deleted);
+            }
+            return deleted;
+        } catch (SQLException e) {
+            logger.error("Ошибка удаления истёкших записей об отзыве: {}", e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+    }
+}
@@ -4,12 +4,16 @@ import otp.config.DatabaseManager;
 import otp.dao.UserDao;
 import otp.model.User;
 import otp.model.UserRole;
+import otp.model.UserSummary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * JDBC-реализация UserDao.
@@ -18,46 +22,64 @@ import java.util.List;
 public class UserDaoImpl implements UserDao {
     private static final Logger logger = LoggerFactory.getLogger(UserDaoImpl.class);
 
-    private static final String INSERT_SQL =
-            "INSERT INTO users (username, password_hash, role) VALUES (?, ?, ?)";
+    // Вставка и причина отказа за один запрос: ON CONFLICT без цели срабатывает и на
+    // уникальный логин, и на частичный индекс единственного администратора. Подзапрос
+    // EXISTS видит снимок до вставки, то есть только уже существовавшие строки.
+    private static final String REGISTER_SQL =
+            "WITH ins AS (" +
+            "INSERT INTO users (username, password_hash, role) VALUES (?, ?, ?) " +
+            "ON CONFLICT DO NOTHING RETURNING id) " +
+            "SELECT (SELECT id FROM ins) AS id, " +
+            "EXISTS (SELECT 1 FROM users WHERE username = ?) AS username_taken";
     private static final String SELECT_BY_USERNAME_SQL =
             "SELECT id, username, password_hash, role FROM users WHERE username = ?";
     private static final String SELECT_BY_ID_SQL =
             "SELECT id, username, password_hash, role FROM users WHERE id = ?";
-    private static final String SELECT_ALL_USERS_SQL =
-            "SELECT id, username, password_hash, role FROM users WHERE role <> 'ADMIN'";
-    private static final String SELECT_ADMIN_EXISTS_SQL =
-            "SELECT 1 FROM users WHERE role = 'ADMIN' LIMIT 1";
+    private static final String SELECT_BY_IDS_SQL =
+            "SELECT id, username, password_hash, role FROM users WHERE id = ANY(?)";
+    private static final String SELECT_PAGE_SQL =
+            "SELECT id, username, role FROM users WHERE id > ?";
+    private static final String UPDATE_PASSWORD_HASH_SQL =
+            "UPDATE users SET password_hash = ? WHERE id = ?";
     private static final String DELETE_USER_SQL =
             "DELETE FROM users WHERE id = ?";
 
     @Override
-    public void create(User user) {
+    public RegistrationResult register(User user) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, REGISTER_SQL)) {
             ps.setString(1, user.getUsername());
             ps.setString(2, user.getPasswordHash());
             ps.setString(3, user.getRole().name());
-            int affected = ps.executeUpdate();
-            if (affected == 0) {
-                throw new SQLException("Creating user failed, no rows affected.");
-            }
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) {
-                    user.setId(keys.getLong(1));
+            ps.setString(4, user.getUsername());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Регистрация пользователя не вернула результат");
+                }
+                long id = rs.getLong("id");
+                if (!rs.wasNull()) {
+                    user.setId(id);
+                    logger.info("Создан пользователь: {}", user);
+                    return RegistrationResult.CREATED;
                 }
+                // Строку, вставленную конкурентной транзакцией, снимок может не видеть:
+                // тогда для не-администратора конфликт возможен только по логину
+                RegistrationResult result = !rs.getBoolean("username_taken") && user.getRole() == UserRole.ADMIN
+                        ? RegistrationResult.ADMIN_EXISTS
+                        : RegistrationResult.USERNAME_TAKEN;
+                logger.info("Пользователь {} не создан: {}", user.getUsername(), result);
+                return result;
             }
-            logger.info("Создан пользователь: {}", user);
         } catch (SQLException e) {
             logger.error("Ошибка создания пользователя [{}]: {}", user.getUsername(), e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
     }
 
     @Override
     public User findByUsername(String username) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_BY_USERNAME_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_BY_USERNAME_SQL)) {
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -68,7 +90,7 @@ public class UserDaoImpl implements UserDao {
             }
         } catch (SQLException e) {
             logger.error("Ошибка поиска пользователя по имени [{}]: {}", username, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
         return null;
     }
@@ -76,7 +98,7 @@ public class UserDaoImpl implements UserDao {
     @Override
     public User findById(Long id) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_BY_ID_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_BY_ID_SQL)) {
             ps.setLong(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -87,55 +109,107 @@ public class UserDaoImpl implements UserDao {
             }
         } catch (SQLException e) {
             logger.error("Ошибка поиска пользователя по id [{}]: {}", id, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
         return null;
     }
 
     @Override
-    public List<User> findAllUsersWithoutAdmins() {
-        List<User> users = new ArrayList<>();
+    public Map<Long, User> findByIds(Collection<Long> ids) {
+        Map<Long, User> users = new HashMap<>();
+        if (ids.isEmpty()) {
+            return users;
+        }
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_ALL_USERS_SQL);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                users.add(mapRow(rs));
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, SELECT_BY_IDS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    User user = mapRow(rs);
+                    users.put(user.getId(), user);
+                }
             }
-            logger.info("Найдено {} пользователей без администраторов", users.size());
+            logger.info("Найдено {} пользователей из {} запрошенных id", users.size(), ids.size());
         } catch (SQLException e) {
-            logger.error("Ошибка получения списка пользователей без администраторов: {}", e.getMessage(), e);
-            throw new RuntimeException(e);
+            logger.error("Ошибка поиска пользователей по id: {}", e.getMessage(), e);
+            throw DatabaseManager.translate(e);
         }
         return users;
     }
 
     @Override
-    public boolean adminExists() {
+    public List<UserSummary> findUsersPage(long afterId, int limit, String usernamePrefix, UserRole role) {
+        // Выборка по ключу: WHERE id > курсор ORDER BY id идёт по первичному ключу
+        // и не зависит от глубины страницы, в отличие от OFFSET
+        StringBuilder sql = new StringBuilder(SELECT_PAGE_SQL);
+        sql.append(role == null ? " AND role <> 'ADMIN'" : " AND role = ?");
+        if (usernamePrefix != null) {
+            sql.append(" AND username LIKE ? ESCAPE '\\'");
+        }
+        sql.append(" ORDER BY id LIMIT ?");
+
+        List<UserSummary> users = new ArrayList<>(Math.min(limit, 1024));
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(SELECT_ADMIN_EXISTS_SQL);
-             ResultSet rs = ps.executeQuery()) {
-            boolean exists = rs.next();
-            logger.info("Существует ли администратор: {}", exists);
-            return exists;
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, sql.toString())) {
+            int idx = 1;
+            ps.setLong(idx++, afterId);
+            if (role != null) {
+                ps.setString(idx++, role.name());
+            }
+            if (usernamePrefix != null) {
+                ps.setString(idx++, escapeLike(usernamePrefix) + "%");
+            }
+            ps.setInt(idx, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    users.add(new UserSummary(
+                            rs.getLong("id"),
+                            rs.getString("username"),
+                            UserRole.valueOf(rs.getString("role"))));
+                }
+            }
+            logger.info("Страница пользователей после id {}: найдено {} (лимит {})", afterId, users.size(), limit);
         } catch (SQLException e) {
-            logger.error("Ошибка проверки существования администратора: {}", e.getMessage(), e);
-            throw new RuntimeException(e);
+            logger.error("Ошибка получения страницы пользователей после id [{}]: {}", afterId, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
+        }
+        return users;
+    }
+
+    @Override
+    public void updatePasswordHash(Long userId, String passwordHash) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, UPDATE_PASSWORD_HASH_SQL)) {
+            ps.setString(1, passwordHash);
+            ps.setLong(2, userId);
+            int affected = ps.executeUpdate();
+            logger.info("Обновлён хеш пароля пользователя id {}: затронуто {} строк", userId, affected);
+        } catch (SQLException e) {
+            logger.error("Ошибка обновления хеша пароля пользователя id [{}]: {}", userId, e.getMessage(), e);
+            throw DatabaseManager.translate(e);
         }
     }
 
     @Override
     public void delete(Long userId) {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(DELETE_USER_SQL)) {
+             PreparedStatement ps = DatabaseManager.prepareStatement(conn, DELETE_USER_SQL)) {
             ps.setLong(1, userId);
             int affected = ps.executeUpdate();
             logger.info("Удален пользователь id {}: затронуто {} строк", userId, affected);
         } catch (SQLException e) {
             logger.error("Ошибка удаления пользователя id [{}]: {}", userId, e.getMessage(), e);
-            throw new RuntimeException(e);
+            throw DatabaseManager.translate(e);
         }
     }
 
+    /**
+     * Экранирует служебные символы LIKE, чтобы префикс сравнивался буквально.
+     */
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     /**
      * Вспомогательный метод для маппинга строки ResultSet в объект User.
      */
@@ -1,19 +1,31 @@
 package otp.main;
 
-import com.sun.net.httpserver.HttpServer;
 import otp.api.Dispatcher;
+import otp.config.AppConfig;
+import otp.config.InvalidationBus;
+import otp.dao.impl.CachingOtpConfigDao;
+import otp.dao.impl.CachingUserDao;
+import otp.dao.UserDao;
 import otp.dao.impl.OtpCodeDaoImpl;
-import otp.dao.impl.OtpConfigDaoImpl;
-import otp.dao.impl.UserDaoImpl;
+import otp.service.ActiveCodeStore;
+import otp.service.CodeAllocator;
 import otp.service.OtpExpirationScheduler;
 import otp.service.OtpService;
+import otp.service.StatelessOtp;
+import otp.service.TokenRevocationService;
+import otp.server.HttpTransport;
+import otp.server.HttpTransports;
+import otp.server.InstrumentedExecutor;
+import otp.server.RequestExecutors;
 import otp.service.notification.NotificationServiceFactory;
+import otp.service.UserService;
+import otp.rpc.OtpRpcHandler;
+import otp.rpc.RpcServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
 import java.util.Properties;
 
 /**
@@ -43,8 +55,22 @@ public class Application {
             // Запускаем планировщик для проверки просроченных OTP
             startExpirationScheduler();
 
-            // Создаём HTTP-сервер
-            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            // Загружаем список отозванных JWT-токенов и периодически обновляем его из БД
+            startTokenRevocation();
+
+            // Заполняем хранилище активных кодов из БД
+            startActiveCodeStore();
+
+            // Загружаем занятые значения кодов, чтобы новые коды не совпадали с активными
+            startCodeAllocator();
+
+            // Подписываем локальные кэши на изменения, сделанные другими экземплярами
+            startInvalidationBus();
+
+            // Создаём HTTP-транспорт (server.transport); запросы обрабатываются
+            // в отдельном исполнителе, а не в потоке приёма соединений
+            InstrumentedExecutor executor = RequestExecutors.fromConfig();
+            HttpTransport server = HttpTransports.fromConfig(port, executor);
 
             // Регистрируем маршруты
             Dispatcher dispatcher = new Dispatcher();
@@ -53,6 +79,16 @@ public class Application {
             // Запускаем сервер
             server.start();
 
+            // Останавливаем сервер и исполнитель запросов при завершении приложения
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                logger.info("Остановка HTTP-сервера...");
+                server.stop(1);
+                executor.shutdown(5);
+            }));
+
+            // Бинарный TCP-эндпоинт для внутренних сервисов (rpc.enabled)
+            startRpcServer();
+
             logger.info("Сервер запущен на http://localhost:{}", port);
             System.out.println("Сервер запущен на http://localhost:" + port);
         } catch (IOException e) {
@@ -69,8 +105,10 @@ public class Application {
     private static void initDatabase() {
         try {
             logger.info("Инициализация конфигурации OTP по умолчанию");
-            OtpConfigDaoImpl configDao = new OtpConfigDaoImpl();
+            CachingOtpConfigDao configDao = CachingOtpConfigDao.shared();
             configDao.initDefaultConfigIfEmpty();
+            // Снимок конфигурации перечитывается из БД, чтобы видеть изменения других экземпляров
+            configDao.startRefresh(AppConfig.getLong("otp.config.refresh.seconds", 60));
             logger.info("Инициализация БД завершена успешно");
         } catch (Exception e) {
             logger.error("Ошибка инициализации БД", e);
@@ -78,19 +116,92 @@ public class Application {
         }
     }
 
+    /**
+     * Запускает бинарный TCP-эндпоинт, если он включён настройкой rpc.enabled
+     */
+    private static void startRpcServer() throws IOException {
+        if (!AppConfig.getBoolean("rpc.enabled", false)) {
+            return;
+        }
+        OtpService otpService = new OtpService(
+            new OtpCodeDaoImpl(),
+            CachingOtpConfigDao.shared(),
+            CachingUserDao.shared(),
+            new NotificationServiceFactory()
+        );
+        UserService userService = new UserService(CachingUserDao.shared());
+        RpcServer rpcServer = RpcServer.fromConfig(new OtpRpcHandler(userService, otpService,
+                AppConfig.getLong("jwt.expiration.ms", 1800000)));
+        rpcServer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Остановка бинарного TCP-эндпоинта...");
+            rpcServer.stop(5);
+        }));
+    }
+
+    /**
+     * Запускает загрузку и периодическое обновление списка отозванных токенов
+     */
+    private static void startTokenRevocation() {
+        TokenRevocationService revocationService = TokenRevocationService.shared();
+        revocationService.start(AppConfig.getLong("auth.revocation.refresh.seconds", 30));
+        Runtime.getRuntime().addShutdownHook(new Thread(revocationService::stop));
+    }
+
+    /**
+     * Заполняет хранилище активных OTP-кодов и запускает удаление истёкших
+     */
+    private static void startActiveCodeStore() {
+        ActiveCodeStore store = ActiveCodeStore.shared();
+        store.warm();
+        store.startSweeper(AppConfig.getLong("otp.active.store.sweep.seconds", 30));
+    }
+
+    /**
+     * Заполняет множество занятых значений OTP-кодов и запускает его периодическое перестроение
+     */
+    private static void startCodeAllocator() {
+        CodeAllocator allocator = CodeAllocator.shared();
+        allocator.warm(CachingOtpConfigDao.shared().getConfig().getLength());
+        allocator.startRebuild(AppConfig.getLong("otp.code.allocator.rebuild.seconds", 30));
+    }
+
+    /**
+     * Подписывает кэши на шину инвалидации и запускает её, если она включена настройкой invalidation.bus.enabled
+     */
+    private static void startInvalidationBus() {
+        if (!AppConfig.getBoolean("invalidation.bus.enabled", true)) {
+            logger.info("Шина инвалидации отключена");
+            return;
+        }
+        InvalidationBus bus = InvalidationBus.shared();
+        UserDao userDao = CachingUserDao.shared();
+        if (userDao instanceof CachingUserDao) {
+            bus.subscribe((CachingUserDao) userDao);
+        }
+        bus.subscribe(CachingOtpConfigDao.shared());
+        bus.subscribe(TokenRevocationService.shared());
+        bus.subscribe(ActiveCodeStore.shared());
+        bus.subscribe(StatelessOtp.shared());
+        bus.subscribe(CodeAllocator.shared());
+        bus.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(bus::stop));
+    }
+
     /**
      * Запускает планировщик проверки просроченных OTP-кодов
      */
     private static void startExpirationScheduler() {
         OtpService otpService = new OtpService(
             new OtpCodeDaoImpl(),
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
+            CachingOtpConfigDao.shared(),
+            CachingUserDao.shared(),
             new NotificationServiceFactory()
         );
 
-        // Проверка каждые 5 минут
-        OtpExpirationScheduler scheduler = new OtpExpirationScheduler(otpService, 5);
+        // Точное истечение по колесу плюс редкий страховочный проход (otp.expiry.*)
+        OtpExpirationScheduler scheduler = OtpExpirationScheduler.fromConfig(otpService);
         scheduler.start();
 
         logger.info("Планировщик проверки просроченных OTP-кодов запущен");
@@ -5,7 +5,7 @@ import java.util.Objects;
 
 /**
  * Сущность одноразового кода (OTP).
- * Содержит информацию о сгенерированном коде, его статусе и времени создания.
+ * Содержит информацию о сгенерированном коде, его статусе, времени создания и истечения.
  */
 public class OtpCode {
     private Long id;
@@ -14,6 +14,7 @@ public class OtpCode {
     private String code;          // сам OTP
     private OtpStatus status;     // статус кода: ACTIVE, EXPIRED, USED
     private LocalDateTime createdAt;
+    private LocalDateTime expiresAt;  // момент, после которого код недействителен
 
     /**
      * Пустой конструктор для фреймворков и JDBC.
@@ -93,6 +94,14 @@ public class OtpCode {
         this.createdAt = createdAt;
     }
 
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -104,12 +113,13 @@ public class OtpCode {
                 && Objects.equals(operationId, otpCode.operationId)
                 && Objects.equals(code, otpCode.code)
                 && status == otpCode.status
-                && Objects.equals(createdAt, otpCode.createdAt);
+                && Objects.equals(createdAt, otpCode.createdAt)
+                && Objects.equals(expiresAt, otpCode.expiresAt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, userId, operationId, code, status, createdAt);
+        return Objects.hash(id, userId, operationId, code, status, createdAt, expiresAt);
     }
 
     @Override
@@ -121,6 +131,7 @@ public class OtpCode {
                 ", code='" + code + '\'' +
                 ", status=" + status +
                 ", createdAt=" + createdAt +
+                ", expiresAt=" + expiresAt +
                 '}';
     }
 }
@@ -0,0 +1,53 @@
+package otp.model;
+
+/**
+ * Запись об отзыве JWT-токенов: либо один токен (jti задан),
+ * либо все токены пользователя, выданные не позже момента отзыва (jti = null).
+ */
+public class RevokedToken {
+    private final String tokenId;
+    private final long userId;
+    private final long revokedAtMillis;
+    private final long expiresAtMillis;
+
+    /**
+     * @param tokenId         идентификатор токена (jti) или null для отзыва всех токенов пользователя
+     * @param userId          идентификатор пользователя
+     * @param revokedAtMillis момент отзыва
+     * @param expiresAtMillis момент, после которого отозванные токены истекут сами
+     */
+    public RevokedToken(String tokenId, long userId, long revokedAtMillis, long expiresAtMillis) {
+        this.tokenId = tokenId;
+        this.userId = userId;
+        this.revokedAtMillis = revokedAtMillis;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * @return идентификатор токена (jti) или null, если отозваны все токены пользователя
+     */
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    /**
+     * @return идентификатор пользователя
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return момент отзыва в миллисекундах
+     */
+    public long getRevokedAtMillis() {
+        return revokedAtMillis;
+    }
+
+    /**
+     * @return момент, после которого запись больше не нужна, в миллисекундах
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+}
@@ -0,0 +1,52 @@
+package otp.model;
+
+/**
+ * Проекция пользователя для административных списков: только поля,
+ * которые нужны в выдаче (без хеша пароля).
+ */
+public class UserSummary {
+    private final long id;
+    private final String username;
+    private final UserRole role;
+
+    /**
+     * @param id       идентификатор пользователя
+     * @param username логин
+     * @param role     роль в системе
+     */
+    public UserSummary(long id, String username, UserRole role) {
+        this.id = id;
+        this.username = username;
+        this.role = role;
+    }
+
+    /**
+     * @return идентификатор пользователя (он же курсор страницы)
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return логин пользователя
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return роль пользователя в системе
+     */
+    public UserRole getRole() {
+        return role;
+    }
+
+    @Override
+    public String toString() {
+        return "UserSummary{" +
+                "id=" + id +
+                ", username='" + username + '\'' +
+                ", role=" + role +
+                '}';
+    }
+}
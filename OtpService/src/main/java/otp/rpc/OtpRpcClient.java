@@ -0,0 +1,218 @@
+package otp.rpc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Клиент бинарного протокола OTP-сервиса.
+ * <p>
+ * Одно TCP-соединение используется всеми потоками: каждый вызов получает
+ * собственный requestId и возвращает CompletableFuture, который завершается,
+ * когда придёт ответ с этим requestId. Ошибки сервера приходят как RpcException
+ * со статусом (коды совпадают с HTTP).
+ * </p>
+ * <pre>
+ * try (OtpRpcClient client = OtpRpcClient.connect("otp-host", 9090)) {
+ *     client.login("payments", "secret").join();
+ *     client.generate(42L, "op-1", "SMS").join();
+ *     boolean ok = client.validate("123456").join();
+ * }
+ * </pre>
+ */
+public class OtpRpcClient implements Closeable {
+    private static final int MAX_FRAME_BYTES = 1 << 20;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<RpcFrame>> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private OtpRpcClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16384));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 16384));
+        Thread reader = new Thread(this::readLoop, "otp-rpc-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Открывает соединение с сервером.
+     *
+     * @param host хост OTP-сервиса
+     * @param port порт rpc.port
+     * @throws IOException если не удалось подключиться
+     */
+    public static OtpRpcClient connect(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), 5000);
+        return new OtpRpcClient(socket);
+    }
+
+    /**
+     * Входит по логину и паролю; соединение становится аутентифицированным.
+     *
+     * @return JWT-токен (пригоден и для HTTP-маршрутов)
+     */
+    public CompletableFuture<String> login(String username, String password) {
+        return call(RpcProtocol.OP_LOGIN, RpcPayload.strings(username, password)).thenApply(frame -> {
+            try {
+                return new RpcPayload.Reader(frame.getPayload()).readString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Аутентифицирует соединение существующим JWT-токеном.
+     */
+    public CompletableFuture<Void> authenticate(String token) {
+        return call(RpcProtocol.OP_AUTH, RpcPayload.strings(token)).thenApply(frame -> null);
+    }
+
+    /**
+     * Генерирует OTP-код и отправляет его по каналу (EMAIL, SMS, TELEGRAM, FILE).
+     */
+    public CompletableFuture<Void> generate(long userId, String operationId, String channel) {
+        byte[] payload = new RpcPayload.Writer().writeLong(userId).strings(operationId, channel).toBytes();
+        return call(RpcProtocol.OP_GENERATE, payload).thenApply(frame -> null);
+    }
+
+    /**
+     * Проверяет OTP-код, хранимый в БД, без привязки к пользователю и операции.
+     * Вычисляемые коды так не проверяются — для них нужен {@link #validate(long, String, String)}.
+     *
+     * @return true, если код действителен; false, если недействителен или истёк
+     */
+    public CompletableFuture<Boolean> validate(String code) {
+        return validation(call(RpcProtocol.OP_VALIDATE, RpcPayload.strings(code)));
+    }
+
+    /**
+     * Проверяет OTP-код, выданный пользователю для операции (как POST /otp/validate с userId и operationId).
+     *
+     * @return true, если код действителен; false, если недействителен или истёк
+     */
+    public CompletableFuture<Boolean> validate(long userId, String operationId, String code) {
+        byte[] payload = new RpcPayload.Writer().writeLong(userId).strings(operationId, code).toBytes();
+        return validation(call(RpcProtocol.OP_VALIDATE_SCOPED, payload));
+    }
+
+    /**
+     * Ответ 400 на проверку — это «код не принят», а не ошибка вызова.
+     */
+    private static CompletableFuture<Boolean> validation(CompletableFuture<RpcFrame> response) {
+        return response
+                .handle((frame, error) -> {
+                    if (error == null) {
+                        return true;
+                    }
+                    Throwable cause = error instanceof java.util.concurrent.CompletionException ? error.getCause() : error;
+                    if (cause instanceof RpcException
+                            && ((RpcException) cause).getStatus() == RpcProtocol.STATUS_BAD_REQUEST) {
+                        return false;
+                    }
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                });
+    }
+
+    /**
+     * Проверка доступности сервера.
+     */
+    public CompletableFuture<Void> ping() {
+        return call(RpcProtocol.OP_PING, RpcFrame.EMPTY).thenApply(frame -> null);
+    }
+
+    /**
+     * Отправляет запрос и возвращает будущий ответ; ответ с ошибкой завершает его RpcException.
+     */
+    private CompletableFuture<RpcFrame> call(short op, byte[] payload) {
+        CompletableFuture<RpcFrame> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IOException("Соединение закрыто"));
+            return future;
+        }
+        int id = nextRequestId.incrementAndGet();
+        pending.put(id, future);
+        pendingWrites.incrementAndGet();
+        try {
+            synchronized (out) {
+                int remaining;
+                try {
+                    new RpcFrame(id, op, payload).write(out);
+                } finally {
+                    remaining = pendingWrites.decrementAndGet();
+                }
+                if (remaining == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+            close();
+        }
+        return future;
+    }
+
+    private void readLoop() {
+        IOException failure = new IOException("Соединение закрыто");
+        try {
+            RpcFrame frame;
+            while ((frame = RpcFrame.read(in, MAX_FRAME_BYTES)) != null) {
+                CompletableFuture<RpcFrame> future = pending.remove(frame.getRequestId());
+                if (future == null) {
+                    continue;
+                }
+                if (RpcProtocol.isSuccess(frame.getCode())) {
+                    future.complete(frame);
+                } else {
+                    String message;
+                    try {
+                        message = new RpcPayload.Reader(frame.getPayload()).readString();
+                    } catch (IOException e) {
+                        message = "Статус " + frame.getCode();
+                    }
+                    future.completeExceptionally(new RpcException(frame.getCode(), message));
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            closed = true;
+            for (Integer id : pending.keySet()) {
+                CompletableFuture<RpcFrame> future = pending.remove(id);
+                if (future != null) {
+                    future.completeExceptionally(failure);
+                }
+            }
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // соединение уже закрыто
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package otp.rpc;
+
+import otp.model.User;
+import otp.model.UserRole;
+import otp.service.CodeSpaceExhaustedException;
+import otp.service.OtpService;
+import otp.service.PasswordHashingBusyException;
+import otp.service.UserService;
+import otp.service.notification.NotificationChannel;
+import otp.util.DeadlineExceededException;
+import otp.util.JwtUtils;
+import otp.util.RateLimiter;
+import otp.util.RateLimiters;
+import otp.util.RevocationList;
+import otp.util.VerifiedToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обработчик бинарного протокола, вызывающий OtpService и UserService напрямую,
+ * без HttpExchange. Коды ответов совпадают с HTTP-контроллерами.
+ * GENERATE и VALIDATE* расходуют те же лимиты пользователя, что и /otp/generate
+ * и /otp/validate (ratelimit.otp.*.user.*); LOGIN ограничен по логину (ratelimit.rpc.login.user.*).
+ */
+public class OtpRpcHandler implements RpcHandler {
+    private static final Logger logger = LoggerFactory.getLogger(OtpRpcHandler.class);
+
+    private final UserService userService;
+    private final OtpService otpService;
+    private final long sessionTtlMillis;
+    private final RateLimiter loginLimiter = RateLimiters.get("rpc.login", "user");
+    private final RateLimiter generateLimiter = RateLimiters.get("otp.generate", "user");
+    private final RateLimiter validateLimiter = RateLimiters.get("otp.validate", "user");
+
+    /**
+     * @param userService      сервис пользователей (LOGIN)
+     * @param otpService       сервис OTP-кодов (GENERATE, VALIDATE, VALIDATE_SCOPED)
+     * @param sessionTtlMillis сколько действует аутентификация соединения (не дольше срока токена)
+     */
+    public OtpRpcHandler(UserService userService, OtpService otpService, long sessionTtlMillis) {
+        this.userService = userService;
+        this.otpService = otpService;
+        this.sessionTtlMillis = sessionTtlMillis;
+    }
+
+    @Override
+    public RpcFrame handle(RpcSession session, RpcFrame request) {
+        int id = request.getRequestId();
+        try {
+            RpcPayload.Reader in = new RpcPayload.Reader(request.getPayload());
+            switch (request.getCode()) {
+                case RpcProtocol.OP_PING:
+                    return new RpcFrame(id, RpcProtocol.STATUS_OK, null);
+                case RpcProtocol.OP_LOGIN:
+                    return login(session, id, in.readString(), in.readString());
+                case RpcProtocol.OP_AUTH:
+                    return authenticate(session, id, in.readString());
+                case RpcProtocol.OP_GENERATE:
+                    return generate(session, id, in);
+                case RpcProtocol.OP_VALIDATE:
+                case RpcProtocol.OP_VALIDATE_SCOPED:
+                    return validate(session, id, request.getCode(), in);
+                default:
+                    return error(id, RpcProtocol.STATUS_UNKNOWN_OP, "Неизвестная операция: " + request.getCode());
+            }
+        } catch (DeadlineExceededException e) {
+            logger.warn("Истёк срок обработки запроса: {}", e.getMessage());
+            return error(id, RpcProtocol.STATUS_DEADLINE_EXCEEDED, "Истёк срок обработки запроса");
+        } catch (IOException e) {
+            return error(id, RpcProtocol.STATUS_BAD_REQUEST, "Некорректный payload");
+        } catch (IllegalArgumentException e) {
+            return error(id, RpcProtocol.STATUS_BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private RpcFrame login(RpcSession session, int id, String username, String password) {
+        if (username != null) {
+            RpcFrame limited = limit(loginLimiter, RateLimiters.stringKey(username), id, "логин " + username);
+            if (limited != null) {
+                return limited;
+            }
+        }
+        String token;
+        try {
+            token = userService.login(username, password);
+        } catch (PasswordHashingBusyException e) {
+            return error(id, RpcProtocol.STATUS_UNAVAILABLE, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return error(id, RpcProtocol.STATUS_UNAUTHORIZED, e.getMessage());
+        }
+        VerifiedToken verified = JwtUtils.verifyToken(token);
+        if (verified == null || !session.authenticate(verified, sessionTtlMillis)) {
+            return error(id, RpcProtocol.STATUS_UNAUTHORIZED, "Недействительный или просроченный токен");
+        }
+        logger.info("Соединение {} аутентифицировано пользователем {}", session.getRemoteAddress(), username);
+        return new RpcFrame(id, RpcProtocol.STATUS_OK, RpcPayload.strings(token));
+    }
+
+    private RpcFrame authenticate(RpcSession session, int id, String token) {
+        VerifiedToken verified = JwtUtils.verifyToken(token);
+        if (verified == null || RevocationList.shared().isRevoked(verified.getTokenId(),
+                verified.getUser().getId(), verified.getIssuedAtMillis())
+                || !session.authenticate(verified, sessionTtlMillis)) {
+            return error(id, RpcProtocol.STATUS_UNAUTHORIZED, "Недействительный или просроченный токен");
+        }
+        logger.info("Соединение {} аутентифицировано пользователем {}",
+                session.getRemoteAddress(), verified.getUser().getUsername());
+        return new RpcFrame(id, RpcProtocol.STATUS_OK, null);
+    }
+
+    private RpcFrame generate(RpcSession session, int id, RpcPayload.Reader in) throws IOException {
+        RpcFrame refused = refuse(session, generateLimiter, id);
+        if (refused != null) {
+            return refused;
+        }
+        long userId = in.readLong();
+        String operationId = in.readString();
+        String channel = in.readString();
+        try {
+            otpService.sendOtpToUser(userId, operationId, NotificationChannel.valueOf(channel));
+        } catch (CodeSpaceExhaustedException e) {
+            logger.warn("Ошибка генерации OTP: {}", e.getMessage());
+            return error(id, RpcProtocol.STATUS_UNAVAILABLE, "Нет свободных значений кода, повторите запрос позже");
+        }
+        return new RpcFrame(id, RpcProtocol.STATUS_ACCEPTED, null);
+    }
+
+    private RpcFrame validate(RpcSession session, int id, short op, RpcPayload.Reader in) throws IOException {
+        RpcFrame refused = refuse(session, validateLimiter, id);
+        if (refused != null) {
+            return refused;
+        }
+        if (op == RpcProtocol.OP_VALIDATE) {
+            return validated(id, otpService.validateOtp(in.readString()));
+        }
+        long userId = in.readLong();
+        String operationId = in.readString();
+        return validated(id, otpService.validateOtp(userId, operationId, in.readString()));
+    }
+
+    /**
+     * Проверяет доступ и лимит пользователя соединения.
+     *
+     * @return ответ с отказом или null, если запрос можно выполнять
+     */
+    private static RpcFrame refuse(RpcSession session, RateLimiter limiter, int id) {
+        if (!authorized(session)) {
+            return denied(session, id);
+        }
+        User user = session.getUser();
+        if (user == null) {
+            // Аутентификация истекла между проверками
+            return denied(session, id);
+        }
+        return limit(limiter, user.getId(), id, "пользователь " + user.getId());
+    }
+
+    /**
+     * @return ответ 429 или null, если лимит не превышен (или не настроен)
+     */
+    private static RpcFrame limit(RateLimiter limiter, long key, int id, String who) {
+        if (limiter == null) {
+            return null;
+        }
+        long waitNanos = limiter.tryAcquire(key);
+        if (waitNanos <= 0) {
+            return null;
+        }
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        logger.warn("Превышен лимит {}: {}, повтор через {} с", limiter.getName(), who, retryAfter);
+        return error(id, RpcProtocol.STATUS_TOO_MANY_REQUESTS,
+                "Слишком много запросов, повторите через " + retryAfter + " с");
+    }
+
+    private static RpcFrame validated(int id, boolean valid) {
+        if (valid) {
+            return new RpcFrame(id, RpcProtocol.STATUS_OK, null);
+        }
+        return error(id, RpcProtocol.STATUS_BAD_REQUEST, "Недействительный или просроченный код");
+    }
+
+    /**
+     * Та же проверка роли, что и в AuthFilter для маршрутов /otp/*. Токен соединения
+     * сверяется с RevocationList на каждом запросе: отозванный токен снимает аутентификацию.
+     */
+    private static boolean authorized(RpcSession session) {
+        User user = session.getUser();
+        if (user == null) {
+            return false;
+        }
+        if (RevocationList.shared().isRevoked(session.getTokenId(), user.getId(), session.getIssuedAtMillis())) {
+            logger.warn("Токен соединения {} пользователя {} отозван", session.getRemoteAddress(), user.getUsername());
+            session.invalidate();
+            return false;
+        }
+        return user.getRole().ordinal() >= UserRole.USER.ordinal();
+    }
+
+    private static RpcFrame denied(RpcSession session, int id) {
+        if (session.getUser() == null) {
+            return error(id, RpcProtocol.STATUS_UNAUTHORIZED, "Соединение не аутентифицировано или аутентификация истекла");
+        }
+        return error(id, RpcProtocol.STATUS_FORBIDDEN, "Доступ запрещен");
+    }
+
+    static RpcFrame error(int id, short status, String message) {
+        return new RpcFrame(id, status, RpcPayload.strings(message));
+    }
+}
@@ -0,0 +1,22 @@
+package otp.rpc;
+
+/**
+ * Ошибка, которую вернул сервер в ответ на запрос по бинарному протоколу.
+ */
+public class RpcException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final short status;
+
+    public RpcException(short status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return статус ответа (коды совпадают с HTTP)
+     */
+    public short getStatus() {
+        return status;
+    }
+}
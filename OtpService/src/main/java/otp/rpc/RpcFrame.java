@@ -0,0 +1,72 @@
+package otp.rpc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Кадр протокола: идентификатор запроса, код операции или статуса и payload.
+ */
+public final class RpcFrame {
+    static final byte[] EMPTY = new byte[0];
+
+    private final int requestId;
+    private final short code;
+    private final byte[] payload;
+
+    public RpcFrame(int requestId, short code, byte[] payload) {
+        this.requestId = requestId;
+        this.code = code;
+        this.payload = payload != null ? payload : EMPTY;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return код операции (в запросе) или статус (в ответе)
+     */
+    public short getCode() {
+        return code;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Читает кадр из потока.
+     *
+     * @param in            входной поток соединения
+     * @param maxFrameBytes максимальная длина кадра
+     * @return кадр или null, если соединение закрыто между кадрами
+     * @throws IOException при ошибке чтения или слишком длинном кадре
+     */
+    static RpcFrame read(DataInputStream in, int maxFrameBytes) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (java.io.EOFException e) {
+            return null;
+        }
+        if (length < RpcProtocol.HEADER_BYTES || length > maxFrameBytes) {
+            throw new IOException("Недопустимая длина кадра: " + length);
+        }
+        int requestId = in.readInt();
+        short code = in.readShort();
+        byte[] payload = new byte[length - RpcProtocol.HEADER_BYTES];
+        in.readFully(payload);
+        return new RpcFrame(requestId, code, payload);
+    }
+
+    /**
+     * Записывает кадр в поток (без flush).
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(RpcProtocol.HEADER_BYTES + payload.length);
+        out.writeInt(requestId);
+        out.writeShort(code);
+        out.write(payload);
+    }
+}
@@ -0,0 +1,17 @@
+package otp.rpc;
+
+/**
+ * Обработчик запросов бинарного протокола.
+ */
+@FunctionalInterface
+public interface RpcHandler {
+
+    /**
+     * Выполняет запрос и возвращает ответный кадр с тем же requestId.
+     *
+     * @param session состояние соединения
+     * @param request кадр запроса
+     * @return кадр ответа
+     */
+    RpcFrame handle(RpcSession session, RpcFrame request) throws Exception;
+}
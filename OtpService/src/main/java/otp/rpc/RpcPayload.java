@@ -0,0 +1,75 @@
+package otp.rpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Кодирование полей payload: строки в формате writeUTF и числа big-endian.
+ */
+final class RpcPayload {
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private RpcPayload() {}
+
+    /**
+     * Собирает payload из строк.
+     */
+    static byte[] strings(String... values) {
+        return new Writer().strings(values).toBytes();
+    }
+
+    /**
+     * Последовательная запись полей payload.
+     */
+    static final class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Writer writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Writer strings(String... values) {
+            try {
+                for (String value : values) {
+                    out.writeUTF(value != null ? value : "");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        byte[] toBytes() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Последовательное чтение полей payload.
+     */
+    static final class Reader {
+        private final DataInputStream in;
+
+        Reader(byte[] payload) {
+            this.in = new DataInputStream(new ByteArrayInputStream(payload));
+        }
+
+        long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        String readString() throws IOException {
+            return in.readUTF();
+        }
+    }
+}
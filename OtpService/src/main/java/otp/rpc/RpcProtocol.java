@@ -0,0 +1,56 @@
+package otp.rpc;
+
+/**
+ * Бинарный протокол внутреннего TCP-эндпоинта.
+ * <p>
+ * Каждый кадр: {@code [int length][int requestId][short code][payload]},
+ * где length — число байт после поля length (6 + длина payload), все числа big-endian.
+ * В запросе code — операция, в ответе — статус (коды совпадают с HTTP).
+ * Ответ несёт requestId запроса, поэтому по одному соединению может одновременно
+ * выполняться много запросов, а ответы приходят в порядке готовности.
+ * </p>
+ * Операции и их payload (строки — формат DataOutput.writeUTF):
+ * <ul>
+ *   <li>LOGIN    — username, password → token; заодно аутентифицирует соединение</li>
+ *   <li>AUTH     — token → пусто; аутентифицирует соединение существующим JWT</li>
+ *   <li>GENERATE — long userId, operationId, channel → пусто (202)</li>
+ *   <li>VALIDATE — code → пусто (200) или 400; ищет код среди хранимых в БД</li>
+ *   <li>VALIDATE_SCOPED — long userId, operationId, code → пусто (200) или 400;
+ *       код должен принадлежать пользователю и операции, в том числе вычисляемый</li>
+ *   <li>PING     — пусто → пусто</li>
+ * </ul>
+ * Ответ с ошибкой несёт в payload текст ошибки (writeUTF).
+ * LOGIN, GENERATE и VALIDATE* ограничены по частоте так же, как HTTP-маршруты (429).
+ */
+public final class RpcProtocol {
+    public static final short OP_LOGIN = 1;
+    public static final short OP_AUTH = 2;
+    public static final short OP_GENERATE = 3;
+    public static final short OP_VALIDATE = 4;
+    public static final short OP_PING = 5;
+    public static final short OP_VALIDATE_SCOPED = 6;
+
+    public static final short STATUS_OK = 200;
+    public static final short STATUS_ACCEPTED = 202;
+    public static final short STATUS_BAD_REQUEST = 400;
+    public static final short STATUS_UNAUTHORIZED = 401;
+    public static final short STATUS_FORBIDDEN = 403;
+    public static final short STATUS_UNKNOWN_OP = 404;
+    public static final short STATUS_TOO_MANY_REQUESTS = 429;
+    public static final short STATUS_INTERNAL_ERROR = 500;
+    public static final short STATUS_UNAVAILABLE = 503;
+    public static final short STATUS_DEADLINE_EXCEEDED = 504;
+
+    /** Размер заголовка кадра после поля length: requestId + code */
+    static final int HEADER_BYTES = 6;
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private RpcProtocol() {}
+
+    /**
+     * @return true для статусов успешного выполнения
+     */
+    public static boolean isSuccess(short status) {
+        return status >= 200 && status < 300;
+    }
+}
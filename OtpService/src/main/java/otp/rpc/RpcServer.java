@@ -0,0 +1,329 @@
+package otp.rpc;
+
+import otp.config.AppConfig;
+import otp.server.InstrumentedExecutor;
+import otp.server.RequestExecutors;
+import otp.util.Deadline;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TCP-сервер бинарного протокола (см. RpcProtocol) для внутренних сервисов.
+ * <p>
+ * Каждое соединение читается отдельным потоком; запросы выполняются в общем
+ * ограниченном пуле, поэтому по одному долгоживущему соединению одновременно
+ * идёт до rpc.max.inflight.per.connection запросов. Когда лимит исчерпан,
+ * чтение соединения приостанавливается (обратное давление через TCP).
+ * Каждый запрос получает крайний срок rpc.deadline.ms, отсчитанный от момента чтения кадра.
+ * </p>
+ * <p>
+ * Одновременно открыто не больше rpc.max.connections соединений: лишние закрываются
+ * сразу после приёма. Неаутентифицированное соединение, от которого rpc.auth.timeout.ms
+ * не приходит ни байта (или кадр не дочитан за это время), закрывается — иначе простаивающие
+ * сокеты занимали бы потоки чтения без ограничения.
+ * </p>
+ */
+public class RpcServer {
+    private static final Logger logger = LoggerFactory.getLogger(RpcServer.class);
+
+    private final int port;
+    private final RpcHandler handler;
+    private final InstrumentedExecutor executor;
+    private final int maxFrameBytes;
+    private final int maxInFlight;
+    private final long deadlineMs;
+    private final int maxConnections;
+    private final int authTimeoutMs;
+    private final ThreadFactory connectionThreads = RequestExecutors.namedThreadFactory("rpc-conn", Thread.NORM_PRIORITY);
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param port          порт для приёма соединений
+     * @param handler       обработчик запросов
+     * @param executor      исполнитель запросов
+     * @param maxFrameBytes максимальная длина кадра
+     * @param maxInFlight   сколько запросов одного соединения выполняется одновременно
+     * @param deadlineMs     крайний срок запроса, мс
+     * @param maxConnections сколько соединений может быть открыто одновременно
+     * @param authTimeoutMs  сколько неаутентифицированное соединение может молчать, мс
+     */
+    public RpcServer(int port, RpcHandler handler, InstrumentedExecutor executor,
+                     int maxFrameBytes, int maxInFlight, long deadlineMs, int maxConnections, int authTimeoutMs) {
+        this.port = port;
+        this.handler = handler;
+        this.executor = executor;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxInFlight = maxInFlight;
+        this.deadlineMs = deadlineMs;
+        this.maxConnections = maxConnections;
+        this.authTimeoutMs = authTimeoutMs;
+    }
+
+    /**
+     * Создаёт сервер по настройкам rpc.* из application.properties.
+     */
+    public static RpcServer fromConfig(RpcHandler handler) {
+        int threads = AppConfig.getInt("rpc.threads", 32);
+        int queue = AppConfig.getInt("rpc.queue.capacity", 1000);
+        InstrumentedExecutor executor = new InstrumentedExecutor("fixed",
+                RequestExecutors.newBoundedPool("rpc-worker", threads, queue));
+        return new RpcServer(
+                AppConfig.getInt("rpc.port", 9090),
+                handler,
+                executor,
+                AppConfig.getInt("rpc.max.frame.bytes", 65536),
+                AppConfig.getInt("rpc.max.inflight.per.connection", 256),
+                AppConfig.getLong("rpc.deadline.ms", 2000),
+                AppConfig.getInt("rpc.max.connections", 1024),
+                AppConfig.getInt("rpc.auth.timeout.ms", 10_000));
+    }
+
+    /**
+     * Открывает порт и начинает приём соединений.
+     * @throws IOException если не удалось открыть порт
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port), 1024);
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "rpc-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        MetricsRegistry.register("rpc", this::metrics);
+        logger.info("Бинарный TCP-эндпоинт запущен на порту {}", getPort());
+    }
+
+    /**
+     * @return фактический порт (полезно при rpc.port=0)
+     */
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    /**
+     * Закрывает порт и все соединения, дожидается выполняющихся запросов.
+     */
+    public void stop(long timeoutSeconds) {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+            // порт уже закрыт
+        }
+        for (Connection conn : connections) {
+            conn.close();
+        }
+        executor.shutdown(timeoutSeconds);
+        MetricsRegistry.unregister("rpc");
+        logger.info("Бинарный TCP-эндпоинт остановлен");
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (connections.size() >= maxConnections) {
+                    refused.increment();
+                    logger.warn("Соединение {} отклонено: открыто {} соединений", socket.getRemoteSocketAddress(),
+                            maxConnections);
+                    socket.close();
+                    continue;
+                }
+                socket.setTcpNoDelay(true);
+                accepted.increment();
+                Connection conn = new Connection(socket);
+                connections.add(conn);
+                connectionThreads.newThread(conn).start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Ошибка приёма соединения: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return снимок показателей для /admin/metrics
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("connections", connections.size());
+        m.put("accepted", accepted.sum());
+        m.put("refused", refused.sum());
+        m.put("timedOut", timedOut.sum());
+        m.put("requests", requests.sum());
+        m.put("rejected", rejected.sum());
+        m.put("failed", failed.sum());
+        m.put("executor", executor.metrics());
+        return m;
+    }
+
+    /**
+     * Одно клиентское соединение: поток чтения кадров и сериализованная запись ответов.
+     */
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final RpcSession session;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        /** Сколько ответов ждут записи: последний записавший делает flush */
+        private final AtomicInteger pendingWrites = new AtomicInteger();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.session = new RpcSession(socket.getRemoteSocketAddress());
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16384));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 16384));
+        }
+
+        @Override
+        public void run() {
+            logger.debug("Новое соединение: {}", session.getRemoteAddress());
+            try {
+                RpcFrame request;
+                while (awaitFrame() && (request = RpcFrame.read(in, maxFrameBytes)) != null) {
+                    inFlight.acquire();
+                    requests.increment();
+                    dispatch(request, Deadline.after(deadlineMs, TimeUnit.MILLISECONDS));
+                }
+            } catch (SocketTimeoutException e) {
+                timedOut.increment();
+                logger.debug("Соединение {} не дочитало кадр за {} мс", session.getRemoteAddress(), authTimeoutMs);
+            } catch (SocketException e) {
+                logger.debug("Соединение {} закрыто: {}", session.getRemoteAddress(), e.getMessage());
+            } catch (IOException e) {
+                logger.warn("Ошибка протокола в соединении {}: {}", session.getRemoteAddress(), e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Ждёт первый байт следующего кадра, не забирая его из потока. Пока соединение
+         * не аутентифицировано, ожидание ограничено authTimeoutMs; аутентифицированное
+         * соединение может простаивать сколько угодно.
+         *
+         * @return false, если соединение закрыто клиентом или по тайм-ауту
+         */
+        private boolean awaitFrame() throws IOException {
+            while (true) {
+                boolean authenticated = session.getUser() != null;
+                socket.setSoTimeout(authenticated ? 0 : authTimeoutMs);
+                try {
+                    in.mark(1);
+                    if (in.read() < 0) {
+                        return false;
+                    }
+                    in.reset();
+                    // Кадр дочитывается с тем же ограничением: медленная отправка не держит поток
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    // Аутентификация могла завершиться, пока шло ожидание: тогда ждём дальше
+                    if (session.getUser() == null) {
+                        timedOut.increment();
+                        logger.debug("Соединение {} не аутентифицировано за {} мс и закрыто",
+                                session.getRemoteAddress(), authTimeoutMs);
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void dispatch(RpcFrame request, Deadline deadline) {
+            try {
+                executor.execute(() -> {
+                    RpcFrame response;
+                    try {
+                        if (deadline.isExpired()) {
+                            response = OtpRpcHandler.error(request.getRequestId(),
+                                    RpcProtocol.STATUS_DEADLINE_EXCEEDED, "Истёк срок обработки запроса");
+                        } else {
+                            Deadline.setCurrent(deadline);
+                            response = handler.handle(session, request);
+                        }
+                    } catch (Exception e) {
+                        failed.increment();
+                        logger.error("Внутренняя ошибка при обработке запроса {}", request.getRequestId(), e);
+                        response = OtpRpcHandler.error(request.getRequestId(),
+                                RpcProtocol.STATUS_INTERNAL_ERROR, "Внутренняя ошибка сервера");
+                    } finally {
+                        Deadline.setCurrent(null);
+                    }
+                    send(response);
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                send(OtpRpcHandler.error(request.getRequestId(), RpcProtocol.STATUS_UNAVAILABLE, "Сервер перегружен"));
+            }
+        }
+
+        private void send(RpcFrame response) {
+            pendingWrites.incrementAndGet();
+            try {
+                synchronized (out) {
+                    int remaining;
+                    try {
+                        response.write(out);
+                    } finally {
+                        remaining = pendingWrites.decrementAndGet();
+                    }
+                    if (remaining == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Не удалось отправить ответ в {}: {}", session.getRemoteAddress(), e.getMessage());
+                close();
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        void close() {
+            if (connections.remove(this)) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // соединение уже закрыто
+                }
+            }
+        }
+    }
+}
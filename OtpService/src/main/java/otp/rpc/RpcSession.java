@@ -0,0 +1,81 @@
+package otp.rpc;
+
+import otp.model.User;
+import otp.util.VerifiedToken;
+
+import java.net.SocketAddress;
+
+/**
+ * Состояние соединения бинарного протокола: адрес клиента и пользователь,
+ * которым соединение аутентифицировано (LOGIN или AUTH).
+ * Аутентификация действует ограниченное время, но не дольше срока самого токена,
+ * после чего клиент должен повторить AUTH — как и JWT, она не бессрочна. Идентификатор и время
+ * выпуска токена хранятся, чтобы отзыв токена действовал и на уже открытое соединение.
+ */
+public final class RpcSession {
+    private final SocketAddress remoteAddress;
+    private volatile User user;
+    private volatile String tokenId;
+    private volatile long issuedAtMillis;
+    private volatile long authenticatedUntilNanos;
+
+    RpcSession(SocketAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * @return аутентифицированный пользователь или null, если соединение
+     *         не аутентифицировано или срок аутентификации истёк
+     */
+    public User getUser() {
+        User current = user;
+        if (current != null && System.nanoTime() - authenticatedUntilNanos > 0) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * @return идентификатор (jti) токена, которым аутентифицировано соединение
+     */
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    /**
+     * @return время выпуска токена, которым аутентифицировано соединение
+     */
+    public long getIssuedAtMillis() {
+        return issuedAtMillis;
+    }
+
+    /**
+     * Аутентифицирует соединение не дольше, чем действует сам токен.
+     *
+     * @param token     проверенный токен
+     * @param ttlMillis сколько миллисекунд действует аутентификация
+     * @return false, если токен уже истёк; соединение тогда не аутентифицируется
+     */
+    public boolean authenticate(VerifiedToken token, long ttlMillis) {
+        long remainingMillis = Math.min(ttlMillis, token.getExpiresAtMillis() - System.currentTimeMillis());
+        if (remainingMillis <= 0) {
+            return false;
+        }
+        this.tokenId = token.getTokenId();
+        this.issuedAtMillis = token.getIssuedAtMillis();
+        this.authenticatedUntilNanos = System.nanoTime() + remainingMillis * 1_000_000L;
+        this.user = token.getUser();
+        return true;
+    }
+
+    /**
+     * Снимает аутентификацию, например после отзыва токена.
+     */
+    public void invalidate() {
+        this.user = null;
+    }
+}
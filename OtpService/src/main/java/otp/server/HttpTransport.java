@@ -0,0 +1,45 @@
+package otp.server;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+
+/**
+ * HTTP-транспорт, на котором работают контроллеры приложения.
+ * <p>
+ * Контроллеры и фильтры написаны на API com.sun.net.httpserver
+ * (HttpHandler, Filter, HttpExchange), поэтому транспорт лишь принимает
+ * соединения и передаёт запросы в зарегистрированные контексты.
+ * Реализация выбирается настройкой server.transport (см. HttpTransports).
+ * </p>
+ */
+public interface HttpTransport {
+
+    /**
+     * Регистрирует обработчик для префикса пути.
+     * Фильтры добавляются через getFilters() возвращённого контекста.
+     *
+     * @param path    префикс пути, например "/otp/validate"
+     * @param handler обработчик запросов
+     * @return созданный контекст
+     */
+    HttpContext createContext(String path, HttpHandler handler);
+
+    /**
+     * Начинает приём соединений.
+     * @throws IOException если не удалось открыть порт
+     */
+    void start() throws IOException;
+
+    /**
+     * Останавливает приём соединений и закрывает транспорт.
+     * @param delaySeconds сколько секунд ждать завершения текущих запросов
+     */
+    void stop(int delaySeconds);
+
+    /**
+     * @return название транспорта для логов
+     */
+    String name();
+}
@@ -0,0 +1,56 @@
+package otp.server;
+
+import otp.config.AppConfig;
+import otp.server.nio.NioHttpTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Фабрика HTTP-транспортов.
+ * <p>
+ * Транспорт задаётся настройкой server.transport:
+ * <ul>
+ *   <li>jdk — com.sun.net.httpserver.HttpServer (по умолчанию),
+ *       при server.tls.enabled=true — HttpsServer</li>
+ *   <li>nio — неблокирующий сервер на нескольких селекторах
+ *       с пулом direct-буферов и HTTP/1.1 keep-alive/pipelining</li>
+ * </ul>
+ * </p>
+ */
+public final class HttpTransports {
+    private static final Logger logger = LoggerFactory.getLogger(HttpTransports.class);
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private HttpTransports() {}
+
+    /**
+     * Создаёт транспорт по настройкам из application.properties.
+     *
+     * @param port     порт для приёма соединений
+     * @param executor исполнитель, в котором выполняются запросы
+     * @throws IOException если не удалось открыть порт
+     */
+    public static HttpTransport fromConfig(int port, Executor executor) throws IOException {
+        String type = AppConfig.get("server.transport", "jdk").toLowerCase();
+        TlsSupport tls = TlsSupport.fromConfig();
+        HttpTransport transport;
+        switch (type) {
+            case "jdk":
+                transport = new JdkHttpTransport(port, executor, tls);
+                break;
+            case "nio":
+                if (tls != null) {
+                    throw new IllegalArgumentException("TLS (server.tls.enabled) поддерживается только транспортом jdk");
+                }
+                transport = new NioHttpTransport(port, executor);
+                break;
+            default:
+                throw new IllegalArgumentException("Неизвестный транспорт server.transport: " + type);
+        }
+        logger.info("HTTP-транспорт: {}", transport.name());
+        return transport;
+    }
+}
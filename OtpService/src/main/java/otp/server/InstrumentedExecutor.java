@@ -0,0 +1,149 @@
+package otp.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Обёртка над ExecutorService, которая считает метрики очереди:
+ * сколько задач принято, ожидает в очереди, выполняется, завершено и отклонено,
+ * а также суммарное и максимальное время ожидания в очереди.
+ */
+public class InstrumentedExecutor implements Executor {
+    /**
+     * Момент постановки в очередь задачи, которая сейчас выполняется в этом потоке.
+     * Если задачу поставили из другой задачи исполнителя (например, запрос передан
+     * из пула HTTP-сервера в пул маршрута), время ожидания суммируется.
+     */
+    private static final ThreadLocal<long[]> CURRENT_ENQUEUED_AT = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final String mode;
+    private final ExecutorService delegate;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * @param mode     режим исполнителя (virtual, fixed, single) — для метрик и логов
+     * @param delegate реальный исполнитель задач
+     */
+    public InstrumentedExecutor(String mode, ExecutorService delegate) {
+        this.mode = mode;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        long origin = enqueuedAt - currentQueueWaitNanos();
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> runTask(task, enqueuedAt, origin));
+            submitted.increment();
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    private void runTask(Runnable task, long enqueuedAt, long origin) {
+        long waited = System.nanoTime() - enqueuedAt;
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        queueWaitNanos.add(waited);
+        maxQueueWaitNanos.accumulateAndGet(waited, Math::max);
+        long[] enqueuedAtHolder = CURRENT_ENQUEUED_AT.get();
+        enqueuedAtHolder[0] = origin;
+        try {
+            task.run();
+        } finally {
+            enqueuedAtHolder[0] = 0;
+            running.decrementAndGet();
+            completed.increment();
+        }
+    }
+
+    /**
+     * Сколько времени прошло с момента, когда текущая задача впервые попала в очередь
+     * исполнителя (с учётом всех передач между исполнителями).
+     *
+     * @return время в наносекундах или 0, если поток не принадлежит исполнителю
+     */
+    public static long currentQueueWaitNanos() {
+        long enqueuedAt = CURRENT_ENQUEUED_AT.get()[0];
+        return enqueuedAt == 0 ? 0 : System.nanoTime() - enqueuedAt;
+    }
+
+    /**
+     * @return режим исполнителя
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * @return количество задач, ожидающих в очереди
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return количество задач, выполняющихся прямо сейчас
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return количество задач, отклонённых из-за переполнения очереди
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Снимок метрик для MetricsRegistry.
+     */
+    public Map<String, Object> metrics() {
+        long done = completed.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("mode", mode);
+        m.put("submitted", submitted.sum());
+        m.put("queued", queued.get());
+        m.put("running", running.get());
+        m.put("completed", done);
+        m.put("rejected", rejected.sum());
+        m.put("avgQueueWaitMs", done == 0 ? 0.0 : queueWaitNanos.sum() / 1_000_000.0 / done);
+        m.put("maxQueueWaitMs", maxQueueWaitNanos.get() / 1_000_000.0);
+        return m;
+    }
+
+    /**
+     * Останавливает исполнитель, давая текущим задачам завершиться.
+     * @param timeoutSeconds сколько секунд ждать завершения задач
+     */
+    public void shutdown(long timeoutSeconds) {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            delegate.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
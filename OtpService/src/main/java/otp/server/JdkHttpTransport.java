@@ -0,0 +1,79 @@
+package otp.server;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsServer;
+import otp.util.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * Транспорт на встроенном в JDK com.sun.net.httpserver.HttpServer
+ * или HttpsServer, если включён TLS (server.tls.enabled, см. TlsSupport).
+ */
+public class JdkHttpTransport implements HttpTransport {
+    private final HttpServer server;
+    private final TlsSupport tls;
+
+    /**
+     * @param port     порт для приёма соединений
+     * @param executor исполнитель, в котором выполняются запросы
+     * @throws IOException если не удалось открыть порт
+     */
+    public JdkHttpTransport(int port, Executor executor) throws IOException {
+        this(port, executor, null);
+    }
+
+    /**
+     * @param port     порт для приёма соединений
+     * @param executor исполнитель, в котором выполняются запросы
+     * @param tls      настройки TLS; null — обычный HTTP
+     * @throws IOException если не удалось открыть порт
+     */
+    public JdkHttpTransport(int port, Executor executor, TlsSupport tls) throws IOException {
+        this.tls = tls;
+        if (tls != null) {
+            HttpsServer https = HttpsServer.create(new InetSocketAddress(port), 0);
+            https.setHttpsConfigurator(tls.configurator());
+            this.server = https;
+            MetricsRegistry.register("tls", tls::metrics);
+        } else {
+            this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        }
+        this.server.setExecutor(executor);
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        HttpContext context = server.createContext(path, handler);
+        if (tls != null) {
+            context.getFilters().add(tls.sessionTrackingFilter());
+        }
+        return context;
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+    }
+
+    /**
+     * @return фактический порт (полезно при порте 0)
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public String name() {
+        return tls != null ? "jdk-https" : "jdk";
+    }
+}
@@ -0,0 +1,43 @@
+package otp.server;
+
+/**
+ * Приоритет полосы (lane) маршрута.
+ * <p>
+ * Определяет приоритет рабочих потоков маршрута и порог общей нагрузки,
+ * при котором маршрут начинает сбрасывать новые запросы, чтобы не мешать
+ * более приоритетным: LOW сбрасывает первым, CRITICAL — только при
+ * переполнении собственной очереди.
+ * </p>
+ */
+public enum LanePriority {
+    /** Критичный путь (например, /otp/validate на оплате) */
+    CRITICAL(Thread.MAX_PRIORITY - 1, Double.MAX_VALUE),
+    /** Вход и регистрация */
+    HIGH(Thread.NORM_PRIORITY + 2, 1.0),
+    /** Генерация кодов: зависит от медленных каналов уведомлений */
+    NORMAL(Thread.NORM_PRIORITY, 0.75),
+    /** Административные операции */
+    LOW(Thread.NORM_PRIORITY - 2, 0.5);
+
+    private final int threadPriority;
+    private final double pressureShedFraction;
+
+    LanePriority(int threadPriority, double pressureShedFraction) {
+        this.threadPriority = threadPriority;
+        this.pressureShedFraction = pressureShedFraction;
+    }
+
+    /**
+     * @return приоритет рабочих потоков полосы
+     */
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * @return доля общего порога очередей, после которой полоса сбрасывает новые запросы
+     */
+    public double getPressureShedFraction() {
+        return pressureShedFraction;
+    }
+}
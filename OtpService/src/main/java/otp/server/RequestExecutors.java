@@ -0,0 +1,124 @@
+package otp.server;
+
+import otp.config.AppConfig;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фабрика исполнителей HTTP-запросов.
+ * <p>
+ * Режим задаётся настройкой server.executor:
+ * <ul>
+ *   <li>virtual — отдельный виртуальный поток на каждый запрос (JDK 21+);
+ *       на JDK 17 автоматически заменяется режимом fixed</li>
+ *   <li>fixed   — ограниченный пул платформенных потоков
+ *       (server.executor.threads) с очередью (server.executor.queue.capacity)</li>
+ *   <li>single  — один рабочий поток с очередью, как раньше, но вне потока диспетчера</li>
+ * </ul>
+ * </p>
+ */
+public final class RequestExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(RequestExecutors.class);
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private RequestExecutors() {}
+
+    /**
+     * Создаёт исполнитель запросов по настройкам из application.properties
+     * и регистрирует его метрики под именем "server.executor".
+     */
+    public static InstrumentedExecutor fromConfig() {
+        String mode = AppConfig.get("server.executor", "virtual").toLowerCase();
+        int threads = AppConfig.getInt("server.executor.threads",
+                Math.max(8, Runtime.getRuntime().availableProcessors() * 4));
+        int queueCapacity = AppConfig.getInt("server.executor.queue.capacity", 1000);
+
+        InstrumentedExecutor executor;
+        switch (mode) {
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    executor = new InstrumentedExecutor("virtual", virtual);
+                } else {
+                    logger.warn("Виртуальные потоки недоступны на JDK {}, используется режим fixed",
+                            Runtime.version().feature());
+                    executor = new InstrumentedExecutor("fixed", newBoundedPool("otp-http", threads, queueCapacity));
+                }
+                break;
+            case "fixed":
+                executor = new InstrumentedExecutor("fixed", newBoundedPool("otp-http", threads, queueCapacity));
+                break;
+            case "single":
+                executor = new InstrumentedExecutor("single", newBoundedPool("otp-http", 1, queueCapacity));
+                break;
+            default:
+                throw new IllegalArgumentException("Неизвестный режим server.executor: " + mode);
+        }
+
+        MetricsRegistry.register("server.executor", executor::metrics);
+        logger.info("Исполнитель HTTP-запросов: режим={}, потоков={}, очередь={}",
+                executor.getMode(), "virtual".equals(executor.getMode()) ? "-" : threads, queueCapacity);
+        return executor;
+    }
+
+    /**
+     * Ограниченный пул платформенных потоков с очередью фиксированной ёмкости.
+     * При переполнении очереди задача отклоняется (RejectedExecutionException).
+     */
+    public static ThreadPoolExecutor newBoundedPool(String namePrefix, int threads, int queueCapacity) {
+        return newBoundedPool(namePrefix, threads, queueCapacity, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Ограниченный пул платформенных потоков с заданным приоритетом потоков.
+     */
+    public static ThreadPoolExecutor newBoundedPool(String namePrefix, int threads, int queueCapacity,
+                                                    int threadPriority) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                namedThreadFactory(namePrefix, threadPriority),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Фабрика потоков с понятными именами вида prefix-1, prefix-2...
+     */
+    public static ThreadFactory namedThreadFactory(String namePrefix, int threadPriority) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(threadPriority);
+            return t;
+        };
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() вызывается через reflection,
+     * чтобы проект продолжал собираться и запускаться на JDK 17.
+     *
+     * @return исполнитель на виртуальных потоках или null, если JDK их не поддерживает
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
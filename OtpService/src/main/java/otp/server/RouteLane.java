@@ -0,0 +1,87 @@
+package otp.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Полоса (bulkhead) маршрута: собственный пул потоков с ограниченной очередью.
+ * <p>
+ * У каждого маршрута свои потоки и своя очередь, поэтому насыщенный маршрут
+ * (например, /otp/generate, ждущий SMS-шлюза) не может занять ресурсы другого.
+ * Общий порог очередей (pressureThreshold) служит только для раннего сброса
+ * запросов низкоприоритетных полос, ресурсы между полосами не перераспределяются.
+ * </p>
+ */
+public class RouteLane {
+    private static final Map<String, RouteLane> LANES = new ConcurrentHashMap<>();
+
+    private final String route;
+    private final LanePriority priority;
+    private final int threads;
+    private final int queueCapacity;
+    private final int pressureThreshold;
+    private final InstrumentedExecutor executor;
+
+    /**
+     * @param route             имя маршрута
+     * @param priority          приоритет полосы
+     * @param threads           число рабочих потоков (максимум одновременных запросов)
+     * @param queueCapacity     ёмкость очереди полосы
+     * @param pressureThreshold общий порог ожидающих запросов во всех полосах (0 — отключён)
+     */
+    public RouteLane(String route, LanePriority priority, int threads, int queueCapacity, int pressureThreshold) {
+        this.route = route;
+        this.priority = priority;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.pressureThreshold = pressureThreshold;
+        this.executor = new InstrumentedExecutor("lane",
+                RequestExecutors.newBoundedPool("otp-lane-" + route, threads, queueCapacity,
+                        priority.getThreadPriority()));
+        LANES.put(route, this);
+    }
+
+    /**
+     * Ставит задачу в очередь полосы.
+     * @throws java.util.concurrent.RejectedExecutionException если очередь полосы заполнена
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Проверяет, нужно ли сбросить новый запрос из-за общей перегрузки сервера.
+     * Считается суммарное число ожидающих запросов во всех полосах.
+     */
+    public boolean shouldShedUnderPressure() {
+        if (pressureThreshold <= 0 || priority == LanePriority.CRITICAL) {
+            return false;
+        }
+        int totalQueued = 0;
+        for (RouteLane lane : LANES.values()) {
+            totalQueued += lane.executor.getQueued();
+        }
+        return totalQueued > pressureThreshold * priority.getPressureShedFraction();
+    }
+
+    /**
+     * Снимок метрик насыщенности полосы.
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = executor.metrics();
+        m.put("priority", priority.name());
+        m.put("threads", threads);
+        m.put("queueCapacity", queueCapacity);
+        m.put("saturation", threads == 0 ? 0.0 : (double) executor.getRunning() / threads);
+        m.put("queueFill", queueCapacity == 0 ? 0.0 : (double) executor.getQueued() / queueCapacity);
+        return m;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public LanePriority getPriority() {
+        return priority;
+    }
+}
@@ -0,0 +1,231 @@
+package otp.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+import otp.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Завершение TLS прямо в HttpsServer (вместо отдельного прокси).
+ * <p>
+ * SSLContext собирается из хранилища ключей server.tls.keystore; протоколы и наборы шифров
+ * ограничиваются настройками server.tls.protocols и server.tls.ciphers.
+ * Кэш сессий (server.tls.session.cache.size, server.tls.session.timeout.seconds) и
+ * stateless session tickets (server.tls.session.tickets) позволяют повторным клиентам
+ * возобновлять сессию без полного рукопожатия.
+ * </p>
+ * Метрики (tls): число TLS-соединений, полных рукопожатий (новых сессий)
+ * и доля возобновлённых соединений.
+ */
+public final class TlsSupport {
+    private static final Logger logger = LoggerFactory.getLogger(TlsSupport.class);
+
+    /** Сколько идентификаторов сессий помнить для подсчёта полных рукопожатий */
+    private static final int MAX_TRACKED_SESSIONS = 100_000;
+
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final Map<String, Boolean> seenSessions = new ConcurrentHashMap<>();
+    private final long resumptionMinAgeMillis;
+
+    private TlsSupport(SSLContext sslContext, String[] protocols, String[] cipherSuites, long resumptionMinAgeMillis) {
+        this.sslContext = sslContext;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.resumptionMinAgeMillis = resumptionMinAgeMillis;
+    }
+
+    /**
+     * Создаёт настройки TLS по application.properties.
+     *
+     * @return настройки TLS или null, если server.tls.enabled=false
+     */
+    public static TlsSupport fromConfig() {
+        if (!AppConfig.getBoolean("server.tls.enabled", false)) {
+            return null;
+        }
+        // Stateless session tickets (RFC 5077 / TLS 1.3 PSK): свойство читается JSSE при первом рукопожатии
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension",
+                    String.valueOf(AppConfig.getBoolean("server.tls.session.tickets", true)));
+        }
+        try {
+            String path = AppConfig.get("server.tls.keystore", null);
+            if (path == null) {
+                throw new IllegalStateException("Не задан server.tls.keystore");
+            }
+            char[] storePassword = AppConfig.get("server.tls.keystore.password", "").toCharArray();
+            char[] keyPassword = AppConfig.get("server.tls.key.password",
+                    new String(storePassword)).toCharArray();
+
+            KeyStore keyStore = KeyStore.getInstance(AppConfig.get("server.tls.keystore.type", "PKCS12"));
+            try (InputStream is = openKeystore(path)) {
+                keyStore.load(is, storePassword);
+            }
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, keyPassword);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(AppConfig.getInt("server.tls.session.cache.size", 20000));
+            sessions.setSessionTimeout(AppConfig.getInt("server.tls.session.timeout.seconds", 86400));
+
+            SSLParameters supported = context.getSupportedSSLParameters();
+            String[] protocols = filter(split(AppConfig.get("server.tls.protocols", "TLSv1.3,TLSv1.2")),
+                    supported.getProtocols(), "протокол");
+            String[] ciphers = split(AppConfig.get("server.tls.ciphers", ""));
+            ciphers = ciphers.length == 0 ? null : filter(ciphers, supported.getCipherSuites(), "набор шифров");
+
+            logger.info("TLS включён: протоколы {}, наборов шифров {}, кэш сессий {} на {} с",
+                    Arrays.toString(protocols), ciphers == null ? "по умолчанию" : ciphers.length,
+                    sessions.getSessionCacheSize(), sessions.getSessionTimeout());
+            return new TlsSupport(context, protocols, ciphers,
+                    AppConfig.getLong("server.tls.resumption.min.age.ms", 1000));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException("Не удалось инициализировать TLS", e);
+        }
+    }
+
+    /**
+     * Конфигуратор HttpsServer: вызывается для каждого нового TLS-соединения.
+     */
+    public HttpsConfigurator configurator() {
+        return new HttpsConfigurator(sslContext) {
+            @Override
+            public void configure(HttpsParameters params) {
+                connections.increment();
+                SSLParameters ssl = sslContext.getDefaultSSLParameters();
+                ssl.setProtocols(protocols);
+                if (cipherSuites != null) {
+                    ssl.setCipherSuites(cipherSuites);
+                }
+                ssl.setUseCipherSuitesOrder(true);
+                params.setSSLParameters(ssl);
+            }
+        };
+    }
+
+    /**
+     * Фильтр, который считает полные рукопожатия по сессии первого запроса соединения.
+     * <p>
+     * HttpsServer не сообщает, было ли рукопожатие возобновлением, поэтому оно определяется по сессии:
+     * <ul>
+     *   <li>TLS 1.2: при возобновлении клиент получает ту же сессию (тот же идентификатор);</li>
+     *   <li>TLS 1.3: возобновлённая по билету сессия получает новый идентификатор,
+     *       но сохраняет время создания исходной сессии.</li>
+     * </ul>
+     * Поэтому полным считается рукопожатие с новым идентификатором сессии, созданной не раньше
+     * чем server.tls.resumption.min.age.ms назад; остальные соединения — возобновлённые.
+     * </p>
+     */
+    public Filter sessionTrackingFilter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (exchange instanceof HttpsExchange) {
+                    track(((HttpsExchange) exchange).getSSLSession());
+                }
+                chain.doFilter(exchange);
+            }
+
+            @Override
+            public String description() {
+                return "Учёт TLS-сессий";
+            }
+        };
+    }
+
+    private void track(SSLSession session) {
+        if (session == null) {
+            return;
+        }
+        String id = Base64.getEncoder().encodeToString(session.getId());
+        if (seenSessions.putIfAbsent(id, Boolean.TRUE) != null) {
+            return;
+        }
+        if (System.currentTimeMillis() - session.getCreationTime() < resumptionMinAgeMillis) {
+            fullHandshakes.increment();
+        }
+        if (seenSessions.size() > MAX_TRACKED_SESSIONS) {
+            // Грубое ограничение памяти: старые сессии всё равно вытесняются из кэша JSSE
+            seenSessions.clear();
+        }
+    }
+
+    /**
+     * @return снимок показателей TLS для /admin/metrics
+     */
+    public Map<String, Object> metrics() {
+        long conns = connections.sum();
+        long full = Math.min(fullHandshakes.sum(), conns);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("connections", conns);
+        m.put("fullHandshakes", full);
+        m.put("resumedHandshakes", conns - full);
+        m.put("resumptionRatio", conns == 0 ? 0.0 : (double) (conns - full) / conns);
+        m.put("sessionCacheSize", sslContext.getServerSessionContext().getSessionCacheSize());
+        return m;
+    }
+
+    private static InputStream openKeystore(String path) throws IOException {
+        if (path.startsWith("classpath:")) {
+            InputStream is = TlsSupport.class.getClassLoader().getResourceAsStream(path.substring("classpath:".length()));
+            if (is == null) {
+                throw new IOException("Хранилище ключей не найдено: " + path);
+            }
+            return is;
+        }
+        return new FileInputStream(path);
+    }
+
+    private static String[] split(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private static String[] filter(String[] requested, String[] supported, String what) {
+        String[] result = Arrays.stream(requested)
+                .filter(r -> {
+                    boolean ok = Arrays.asList(supported).contains(r);
+                    if (!ok) {
+                        logger.warn("Неподдерживаемый {} пропущен: {}", what, r);
+                    }
+                    return ok;
+                })
+                .toArray(String[]::new);
+        if (result.length == 0) {
+            throw new IllegalStateException("Ни один " + what + " из настроек не поддерживается: "
+                    + Arrays.toString(requested));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,19 @@
+package otp.server.nio;
+
+/**
+ * Ошибка разбора HTTP-запроса; содержит статус, который нужно вернуть клиенту.
+ */
+class HttpParseException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    HttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,96 @@
+package otp.server.nio;
+
+import com.sun.net.httpserver.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Разбор HTTP/1.x запроса из накопленных байт соединения.
+ * <p>
+ * Поддерживаются тела с Content-Length; запросы с Transfer-Encoding
+ * отклоняются (501), как и слишком большие заголовки (431) и тела (413).
+ * </p>
+ */
+final class HttpRequestParser {
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+
+    HttpRequestParser(int maxHeaderBytes, int maxBodyBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * @return разобранный запрос или null, если данных пока недостаточно
+     * @throws HttpParseException если запрос некорректен
+     */
+    ParsedRequest parse(byte[] buf, int start, int end) throws HttpParseException {
+        int headerEnd = indexOfHeaderEnd(buf, start, end);
+        if (headerEnd < 0) {
+            if (end - start > maxHeaderBytes) {
+                throw new HttpParseException(431, "Слишком большие заголовки запроса");
+            }
+            return null;
+        }
+
+        String head = new String(buf, start, headerEnd - start, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new HttpParseException(400, "Некорректная строка запроса");
+        }
+
+        Headers headers = new Headers();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new HttpParseException(400, "Некорректный заголовок");
+            }
+            headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+
+        if (headers.containsKey("Transfer-Encoding")) {
+            throw new HttpParseException(501, "Transfer-Encoding в запросе не поддерживается");
+        }
+        int contentLength = 0;
+        String cl = headers.getFirst("Content-Length");
+        if (cl != null) {
+            try {
+                contentLength = Integer.parseInt(cl);
+            } catch (NumberFormatException e) {
+                throw new HttpParseException(400, "Некорректный Content-Length");
+            }
+            if (contentLength < 0) {
+                throw new HttpParseException(400, "Некорректный Content-Length");
+            }
+            if (contentLength > maxBodyBytes) {
+                throw new HttpParseException(413, "Слишком большое тело запроса");
+            }
+        }
+
+        int bodyStart = headerEnd + 4;
+        if (end - bodyStart < contentLength) {
+            return null;
+        }
+        byte[] body = Arrays.copyOfRange(buf, bodyStart, bodyStart + contentLength);
+
+        String protocol = requestLine[2];
+        String connection = headers.getFirst("Connection");
+        boolean keepAlive = "HTTP/1.1".equals(protocol)
+                ? !"close".equalsIgnoreCase(connection)
+                : "keep-alive".equalsIgnoreCase(connection);
+
+        return new ParsedRequest(requestLine[0], requestLine[1], protocol, headers, body,
+                keepAlive, bodyStart + contentLength - start);
+    }
+
+    private static int indexOfHeaderEnd(byte[] buf, int start, int end) {
+        for (int i = start; i + 3 < end; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
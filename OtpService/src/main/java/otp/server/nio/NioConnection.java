@@ -0,0 +1,168 @@
+package otp.server.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Состояние одного клиентского соединения NIO-транспорта.
+ * <p>
+ * Входной буфер и флаги разбора принадлежат потоку селектора. Ответ формируется
+ * в рабочем потоке и передаётся селектору через очередь записи; маркер END
+ * отмечает конец ответа. Запросы одного соединения обрабатываются строго
+ * по очереди, поэтому конвейерные (pipelined) запросы получают ответы в порядке поступления.
+ * </p>
+ */
+final class NioConnection {
+    /** Маркер конца ответа в очереди записи */
+    static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    final SocketChannel channel;
+    final SelectorLoop loop;
+    final InetSocketAddress remoteAddress;
+    final InetSocketAddress localAddress;
+    SelectionKey key;
+
+    // --- состояние потока селектора ---
+    byte[] in = new byte[4096];
+    int inStart;
+    int inEnd;
+    boolean inFlight;
+    long lastActivityNanos = System.nanoTime();
+
+    // --- общее состояние ---
+    volatile boolean closeAfterResponse;
+    volatile boolean closed;
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final Object writeLock = new Object();
+    private volatile boolean writerWaiting;
+
+    NioConnection(SocketChannel channel, SelectorLoop loop) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Дописывает прочитанные байты во входной буфер (поток селектора).
+     */
+    void append(ByteBuffer src) {
+        int n = src.remaining();
+        if (inEnd + n > in.length) {
+            int live = inEnd - inStart;
+            if (live + n <= in.length) {
+                System.arraycopy(in, inStart, in, 0, live);
+            } else {
+                byte[] grown = new byte[Math.max(in.length * 2, live + n)];
+                System.arraycopy(in, inStart, grown, 0, live);
+                in = grown;
+            }
+            inStart = 0;
+            inEnd = live;
+        }
+        src.get(in, inEnd, n);
+        inEnd += n;
+    }
+
+    /**
+     * Отмечает, что запрос занял consumed байт входного буфера (поток селектора).
+     */
+    void consume(int consumed) {
+        inStart += consumed;
+        if (inStart == inEnd) {
+            inStart = 0;
+            inEnd = 0;
+        }
+    }
+
+    int buffered() {
+        return inEnd - inStart;
+    }
+
+    /**
+     * Ставит данные ответа в очередь записи (любой поток).
+     * @throws IOException если соединение уже закрыто
+     */
+    void enqueue(ByteBuffer data) throws IOException {
+        if (closed) {
+            throw new IOException("Соединение закрыто");
+        }
+        pendingBytes.addAndGet(data.remaining());
+        writeQueue.add(data);
+        loop.requestWrite(this);
+    }
+
+    /**
+     * Отмечает конец текущего ответа (любой поток).
+     */
+    void endResponse() {
+        writeQueue.add(END);
+        loop.requestWrite(this);
+    }
+
+    /**
+     * Ждёт, пока объём неотправленных данных не опустится до maxPending —
+     * так медленный клиент не заставит держать весь потоковый ответ в памяти.
+     */
+    void awaitWritable(long maxPending) throws IOException {
+        if (pendingBytes.get() <= maxPending) {
+            return;
+        }
+        synchronized (writeLock) {
+            writerWaiting = true;
+            try {
+                while (!closed && pendingBytes.get() > maxPending) {
+                    writeLock.wait(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Ожидание записи прервано", e);
+            } finally {
+                writerWaiting = false;
+            }
+        }
+        if (closed) {
+            throw new IOException("Соединение закрыто");
+        }
+    }
+
+    ConcurrentLinkedQueue<ByteBuffer> writeQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * Учитывает отправленные байты и будит ожидающий рабочий поток (поток селектора).
+     */
+    void onWritten(long bytes) {
+        pendingBytes.addAndGet(-bytes);
+        if (writerWaiting) {
+            synchronized (writeLock) {
+                writeLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Закрывает соединение (поток селектора).
+     */
+    void close() {
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // соединение уже закрыто
+        }
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package otp.server.nio;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HttpExchange поверх NIO-соединения, чтобы существующие контроллеры и фильтры
+ * работали без изменений.
+ * <p>
+ * Семантика sendResponseHeaders совпадает с JDK: длина -1 — ответ без тела,
+ * 0 — потоковый ответ (chunked), больше 0 — тело фиксированной длины.
+ * Ответ считается завершённым при закрытии потока тела.
+ * </p>
+ */
+final class NioHttpExchange extends HttpExchange {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final NioConnection conn;
+    private final NioHttpContext context;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final long maxPendingWriteBytes;
+
+    private InputStream requestBody;
+    private final ResponseStream responseStream = new ResponseStream();
+    private OutputStream responseBody = responseStream;
+    private volatile int responseCode = -1;
+    private volatile boolean headersSent;
+
+    NioHttpExchange(NioConnection conn, NioHttpContext context, ParsedRequest request, long maxPendingWriteBytes) {
+        this.conn = conn;
+        this.context = context;
+        this.method = request.method;
+        this.uri = URI.create(request.target);
+        this.protocol = request.protocol;
+        this.requestHeaders = request.headers;
+        this.requestBody = new ByteArrayInputStream(request.body);
+        this.maxPendingWriteBytes = maxPendingWriteBytes;
+    }
+
+    /**
+     * Отправляет короткий ответ без тела прямо из потока селектора
+     * (ошибка разбора, неизвестный маршрут, переполненный исполнитель).
+     */
+    static void sendSimple(NioConnection conn, int status) throws IOException {
+        String head = "HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: " + (conn.closeAfterResponse ? "close" : "keep-alive") + "\r\n\r\n";
+        conn.enqueue(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+        conn.endResponse();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        if (!headersSent) {
+            // Ответ так и не начат: как и JDK HttpServer, просто закрываем соединение
+            abort();
+            return;
+        }
+        try {
+            responseBody.close();
+        } catch (IOException e) {
+            abort();
+        }
+    }
+
+    /**
+     * Прерывает обмен: соединение будет закрыто после уже поставленных в очередь данных.
+     */
+    void abort() {
+        conn.closeAfterResponse = true;
+        if (responseStream.markClosed()) {
+            conn.endResponse();
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (headersSent) {
+            throw new IOException("Заголовки ответа уже отправлены");
+        }
+        headersSent = true;
+        responseCode = rCode;
+
+        boolean noBody = responseLength < 0 || rCode == 204 || rCode == 304 || "HEAD".equals(method);
+        responseHeaders.remove("Content-Length");
+        responseHeaders.remove("Transfer-Encoding");
+        responseHeaders.remove("Connection");
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(rCode).append(' ').append(reasonPhrase(rCode)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (noBody) {
+            if (rCode != 204 && rCode != 304) {
+                head.append("Content-Length: 0\r\n");
+            }
+        } else if (responseLength > 0) {
+            head.append("Content-Length: ").append(responseLength).append("\r\n");
+        } else {
+            head.append("Transfer-Encoding: chunked\r\n");
+        }
+        head.append("Connection: ").append(conn.closeAfterResponse ? "close" : "keep-alive").append("\r\n\r\n");
+
+        responseStream.begin(head.toString().getBytes(StandardCharsets.ISO_8859_1),
+                !noBody && responseLength == 0, noBody ? 0 : responseLength);
+        if (noBody) {
+            responseStream.close();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return conn.remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return conn.localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            requestBody = i;
+        }
+        if (o != null) {
+            responseBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * Поток тела ответа: копит данные в буфере и передаёт их соединению
+     * блоками (с chunked-кодированием для потоковых ответов).
+     */
+    private final class ResponseStream extends OutputStream {
+        private final byte[] buf = new byte[8192];
+        private int count;
+        private byte[] head;
+        private boolean chunked;
+        private long remaining;
+        private boolean started;
+        private boolean closed;
+
+        void begin(byte[] head, boolean chunked, long length) {
+            this.head = head;
+            this.chunked = chunked;
+            this.remaining = length;
+            this.started = true;
+        }
+
+        /**
+         * @return true, если поток был открыт и теперь помечен закрытым
+         */
+        synchronized boolean markClosed() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Поток ответа закрыт");
+            }
+            if (!started) {
+                throw new IOException("Сначала нужно вызвать sendResponseHeaders");
+            }
+            if (!chunked) {
+                if (len > remaining) {
+                    throw new IOException("Тело ответа больше объявленного Content-Length");
+                }
+                remaining -= len;
+            }
+            while (len > 0) {
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buf.length) {
+                    send(false);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (!closed && started) {
+                send(false);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                send(true);
+                if (!chunked && remaining > 0) {
+                    // Тело короче объявленного: соединение нельзя переиспользовать
+                    conn.closeAfterResponse = true;
+                }
+            } finally {
+                conn.endResponse();
+            }
+        }
+
+        private void send(boolean last) throws IOException {
+            int headLen = head == null ? 0 : head.length;
+            boolean chunk = chunked && count > 0;
+            byte[] size = chunk ? (Integer.toHexString(count) + "\r\n").getBytes(StandardCharsets.US_ASCII) : null;
+            int total = headLen + count + (chunk ? size.length + CRLF.length : 0)
+                    + (chunked && last ? LAST_CHUNK.length : 0);
+            if (total == 0) {
+                return;
+            }
+            ByteBuffer out = ByteBuffer.allocate(total);
+            if (head != null) {
+                out.put(head);
+                head = null;
+            }
+            if (chunk) {
+                out.put(size);
+            }
+            out.put(buf, 0, count);
+            if (chunk) {
+                out.put(CRLF);
+            }
+            if (chunked && last) {
+                out.put(LAST_CHUNK);
+            }
+            out.flip();
+            count = 0;
+            conn.enqueue(out);
+            if (!last) {
+                conn.awaitWritable(maxPendingWriteBytes);
+            }
+        }
+    }
+
+    static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "Status " + status;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package otp.server.nio;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import otp.config.AppConfig;
+import otp.server.HttpTransport;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Неблокирующий HTTP/1.1 транспорт на java.nio.
+ * <p>
+ * Поток приёма соединений раздаёт их по кругу между несколькими потоками-селекторами.
+ * Селектор читает данные в direct-буферы из общего пула, разбирает запросы
+ * и передаёт их в исполнитель запросов; ответы отправляются селектором
+ * без блокировки рабочего потока. Поддерживаются keep-alive и конвейерные запросы.
+ * Тела запросов с Transfer-Encoding: chunked не поддерживаются (501).
+ * </p>
+ * Настройки (application.properties):
+ * <ul>
+ *   <li>server.nio.selectors — число потоков-селекторов (по умолчанию число ядер)</li>
+ *   <li>server.nio.buffer.size — размер буфера чтения</li>
+ *   <li>server.nio.buffer.pool.max — сколько буферов держать в пуле</li>
+ *   <li>server.nio.max.request.bytes / server.nio.max.header.bytes — ограничения размера запроса</li>
+ *   <li>server.nio.idle.timeout.ms — закрытие простаивающих соединений</li>
+ *   <li>server.nio.max.pending.write.bytes — сколько неотправленных байт ответа допускается</li>
+ *   <li>server.nio.max.pipelined.bytes — сколько конвейерных байт читать вперёд</li>
+ * </ul>
+ */
+public class NioHttpTransport implements HttpTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NioHttpTransport.class);
+
+    private final int port;
+    private final Executor executor;
+    private final List<NioHttpContext> contexts = new CopyOnWriteArrayList<>();
+    private final BufferPool bufferPool;
+    private final HttpRequestParser parser;
+    private final SelectorLoop[] loops;
+    private final Thread[] loopThreads;
+    private final long idleTimeoutMillis;
+    private final long maxPendingWriteBytes;
+    private final int maxPipelinedBytes;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /**
+     * @param port     порт для приёма соединений
+     * @param executor исполнитель, в котором выполняются запросы
+     */
+    public NioHttpTransport(int port, Executor executor) {
+        this.port = port;
+        this.executor = executor;
+        int selectors = AppConfig.getInt("server.nio.selectors", Runtime.getRuntime().availableProcessors());
+        int bufferSize = AppConfig.getInt("server.nio.buffer.size", 16384);
+        int poolMax = AppConfig.getInt("server.nio.buffer.pool.max", selectors * 4);
+        int maxRequestBytes = AppConfig.getInt("server.nio.max.request.bytes", 1048576);
+        int maxHeaderBytes = AppConfig.getInt("server.nio.max.header.bytes", 16384);
+        this.idleTimeoutMillis = AppConfig.getLong("server.nio.idle.timeout.ms", 60000);
+        this.maxPendingWriteBytes = AppConfig.getLong("server.nio.max.pending.write.bytes", 262144);
+        this.maxPipelinedBytes = AppConfig.getInt("server.nio.max.pipelined.bytes", maxRequestBytes);
+
+        this.bufferPool = new BufferPool(bufferSize, poolMax);
+        this.parser = new HttpRequestParser(maxHeaderBytes, maxRequestBytes);
+        this.loops = new SelectorLoop[Math.max(1, selectors)];
+        this.loopThreads = new Thread[loops.length];
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        NioHttpContext context = new NioHttpContext(path, handler);
+        contexts.add(context);
+        return context;
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(this, bufferPool, parser, idleTimeoutMillis);
+            loopThreads[i] = new Thread(loops[i], "nio-selector-" + i);
+            loopThreads[i].setDaemon(true);
+            loopThreads[i].start();
+        }
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        MetricsRegistry.register("server.nio", this::metrics);
+        logger.info("NIO-транспорт запущен на порту {}: селекторов {}", port, loops.length);
+    }
+
+    /**
+     * Принимает соединения (блокирующий accept) и раздаёт их селекторам по кругу.
+     */
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                accepted.incrementAndGet();
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Ошибка приёма соединения: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+            // канал уже закрыт
+        }
+        long deadline = System.nanoTime() + delaySeconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline && requests.get() > 0) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+        MetricsRegistry.unregister("server.nio");
+        logger.info("NIO-транспорт остановлен");
+    }
+
+    @Override
+    public String name() {
+        return "nio";
+    }
+
+    /**
+     * Ищет контекст с самым длинным префиксом, совпадающим с путём запроса.
+     */
+    NioHttpContext findContext(String target) {
+        int query = target.indexOf('?');
+        String path = query < 0 ? target : target.substring(0, query);
+        NioHttpContext best = null;
+        for (NioHttpContext context : contexts) {
+            String prefix = context.getPath();
+            if (path.startsWith(prefix) && (best == null || prefix.length() > best.getPath().length())) {
+                best = context;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Выполняет цепочку фильтров и обработчик контекста (рабочий поток).
+     */
+    void handle(NioHttpExchange exchange) {
+        NioHttpContext context = (NioHttpContext) exchange.getHttpContext();
+        try {
+            new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("Необработанная ошибка при обработке запроса {}", exchange.getRequestURI(), e);
+            exchange.abort();
+        }
+    }
+
+    /**
+     * Вызывается селектором, когда запрос разобран и начата его обработка.
+     */
+    void onRequestStarted() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Вызывается селектором после отправки ответа целиком.
+     */
+    void onRequestCompleted() {
+        requests.decrementAndGet();
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    long getMaxPendingWriteBytes() {
+        return maxPendingWriteBytes;
+    }
+
+    int getMaxPipelinedBytes() {
+        return maxPipelinedBytes;
+    }
+
+    /**
+     * @return снимок показателей транспорта для /admin/metrics
+     */
+    public Map<String, Object> metrics() {
+        int connections = 0;
+        for (SelectorLoop loop : loops) {
+            if (loop != null) {
+                connections += loop.connectionCount();
+            }
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("selectors", loops.length);
+        m.put("connections", connections);
+        m.put("accepted", accepted.get());
+        m.put("inFlight", requests.get());
+        m.put("failed", failed.get());
+        m.put("buffersPooled", bufferPool.getPooled());
+        m.put("buffersAllocated", bufferPool.getAllocated());
+        return m;
+    }
+}
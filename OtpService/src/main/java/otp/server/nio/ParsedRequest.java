@@ -0,0 +1,28 @@
+package otp.server.nio;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Полностью прочитанный HTTP/1.x запрос.
+ */
+final class ParsedRequest {
+    final String method;
+    final String target;
+    final String protocol;
+    final Headers headers;
+    final byte[] body;
+    final boolean keepAlive;
+    /** Сколько байт входного буфера занял запрос */
+    final int consumed;
+
+    ParsedRequest(String method, String target, String protocol, Headers headers,
+                  byte[] body, boolean keepAlive, int consumed) {
+        this.method = method;
+        this.target = target;
+        this.protocol = protocol;
+        this.headers = headers;
+        this.body = body;
+        this.keepAlive = keepAlive;
+        this.consumed = consumed;
+    }
+}
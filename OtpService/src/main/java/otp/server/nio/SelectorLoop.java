@@ -0,0 +1,279 @@
+package otp.server.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поток селектора NIO-транспорта: читает запросы своих соединений,
+ * передаёт их в рабочий исполнитель и отправляет готовые ответы.
+ */
+final class SelectorLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SelectorLoop.class);
+
+    private final NioHttpTransport transport;
+    private final Selector selector;
+    private final BufferPool bufferPool;
+    private final HttpRequestParser parser;
+    private final long idleTimeoutNanos;
+    private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<NioConnection> writeRequests = new ConcurrentLinkedQueue<>();
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    SelectorLoop(NioHttpTransport transport, BufferPool bufferPool, HttpRequestParser parser,
+                 long idleTimeoutMillis) throws IOException {
+        this.transport = transport;
+        this.selector = Selector.open();
+        this.bufferPool = bufferPool;
+        this.parser = parser;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /**
+     * Передаёт новое соединение этому селектору (поток приёма соединений).
+     */
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Просит селектор отправить данные из очереди записи соединения (любой поток).
+     */
+    void requestWrite(NioConnection conn) {
+        writeRequests.add(conn);
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    int connectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(1000);
+                registerNewChannels();
+                processWriteRequests();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            onReadable(conn);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(conn);
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Ошибка ввода-вывода соединения {}: {}", conn.remoteAddress, e.getMessage());
+                        close(conn);
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastSweep > TimeUnit.SECONDS.toNanos(1)) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.error("Поток селектора NIO-транспорта завершился с ошибкой", e);
+            }
+        } finally {
+            for (NioConnection conn : new ArrayList<>(connections)) {
+                close(conn);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // селектор уже закрыт
+            }
+        }
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                NioConnection conn = new NioConnection(channel, this);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                connections.add(conn);
+            } catch (IOException e) {
+                logger.debug("Не удалось зарегистрировать соединение: {}", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // соединение уже закрыто
+                }
+            }
+        }
+    }
+
+    private void processWriteRequests() {
+        NioConnection conn;
+        while ((conn = writeRequests.poll()) != null) {
+            if (conn.closed) {
+                continue;
+            }
+            try {
+                flush(conn);
+            } catch (IOException e) {
+                close(conn);
+            }
+        }
+    }
+
+    private void onReadable(NioConnection conn) throws IOException {
+        ByteBuffer buf = bufferPool.acquire();
+        try {
+            int n = conn.channel.read(buf);
+            if (n < 0) {
+                close(conn);
+                return;
+            }
+            buf.flip();
+            conn.append(buf);
+            conn.lastActivityNanos = System.nanoTime();
+        } finally {
+            bufferPool.release(buf);
+        }
+        if (!conn.inFlight) {
+            dispatchNext(conn);
+        } else if (conn.buffered() > transport.getMaxPipelinedBytes()) {
+            // Клиент шлёт конвейерные запросы быстрее, чем мы отвечаем: перестаём читать
+            conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Разбирает следующий запрос из входного буфера и передаёт его в исполнитель.
+     */
+    private void dispatchNext(NioConnection conn) throws IOException {
+        if (conn.closed || conn.buffered() == 0) {
+            return;
+        }
+        ParsedRequest request;
+        try {
+            request = parser.parse(conn.in, conn.inStart, conn.inEnd);
+        } catch (HttpParseException e) {
+            logger.debug("Некорректный запрос от {}: {}", conn.remoteAddress, e.getMessage());
+            conn.inFlight = true;
+            conn.closeAfterResponse = true;
+            transport.onRequestStarted();
+            NioHttpExchange.sendSimple(conn, e.getStatus());
+            return;
+        }
+        if (request == null) {
+            return;
+        }
+        conn.consume(request.consumed);
+        conn.inFlight = true;
+        conn.closeAfterResponse = !request.keepAlive;
+        transport.onRequestStarted();
+
+        NioHttpContext context = transport.findContext(request.target);
+        if (context == null) {
+            NioHttpExchange.sendSimple(conn, 404);
+            return;
+        }
+        NioHttpExchange exchange;
+        try {
+            exchange = new NioHttpExchange(conn, context, request, transport.getMaxPendingWriteBytes());
+        } catch (IllegalArgumentException e) {
+            conn.closeAfterResponse = true;
+            NioHttpExchange.sendSimple(conn, 400);
+            return;
+        }
+        try {
+            transport.getExecutor().execute(() -> transport.handle(exchange));
+        } catch (RejectedExecutionException e) {
+            NioHttpExchange.sendSimple(conn, 503);
+        }
+    }
+
+    /**
+     * Отправляет данные из очереди записи соединения.
+     */
+    private void flush(NioConnection conn) throws IOException {
+        ConcurrentLinkedQueue<ByteBuffer> queue = conn.writeQueue();
+        ByteBuffer buf;
+        while ((buf = queue.peek()) != null) {
+            if (buf == NioConnection.END) {
+                queue.poll();
+                onResponseComplete(conn);
+                if (conn.closed) {
+                    return;
+                }
+                continue;
+            }
+            int written = conn.channel.write(buf);
+            conn.onWritten(written);
+            if (buf.hasRemaining()) {
+                conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            queue.poll();
+        }
+        if (conn.key.isValid()) {
+            conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void onResponseComplete(NioConnection conn) throws IOException {
+        conn.inFlight = false;
+        transport.onRequestCompleted();
+        if (conn.closeAfterResponse) {
+            close(conn);
+            return;
+        }
+        conn.lastActivityNanos = System.nanoTime();
+        conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_READ);
+        dispatchNext(conn);
+    }
+
+    private void closeIdle(long now) {
+        for (NioConnection conn : new ArrayList<>(connections)) {
+            if (!conn.inFlight && now - conn.lastActivityNanos > idleTimeoutNanos) {
+                close(conn);
+            }
+        }
+    }
+
+    private void close(NioConnection conn) {
+        if (connections.remove(conn)) {
+            if (conn.inFlight) {
+                // Ответ уже не будет отправлен: запрос больше не считается выполняющимся
+                conn.inFlight = false;
+                transport.onRequestCompleted();
+            }
+            conn.close();
+        }
+    }
+}
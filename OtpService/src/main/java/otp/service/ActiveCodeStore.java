@@ -0,0 +1,404 @@
+package otp.service;
+
+import otp.config.AppConfig;
+import otp.config.InvalidationEvent;
+import otp.config.InvalidationListener;
+import otp.dao.OtpCodeDao;
+import otp.dao.impl.OtpCodeDaoImpl;
+import otp.model.OtpCode;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Хранилище активных OTP-кодов в памяти процесса перед OtpCodeDao.
+ * <p>
+ * Почти каждый код проверяется в первую минуту после генерации, поэтому
+ * сгенерированный код сразу кладётся сюда, и проверка находит его без чтения из БД.
+ * Источник истины — по-прежнему БД: погашение пишется в неё условным UPDATE
+ * (только если код ещё ACTIVE), так что код, погашенный другим экземпляром,
+ * второй раз не пройдёт. Промах означает лишь «не знаю» (код мог создать другой
+ * экземпляр или он был вытеснен) — тогда проверка идёт в БД как раньше.
+ * </p>
+ * <p>
+ * Данные разбиты на сегменты по хешу значения кода, у каждого сегмента своя блокировка.
+ * Память ограничена otp.active.store.max.size: при заполнении сегмента вытесняется
+ * самый старый код. Истёкшие коды удаляются фоновой задачей. При старте и после
+ * переподключения шины инвалидации хранилище заполняется активными кодами из БД.
+ * </p>
+ */
+public class ActiveCodeStore implements InvalidationListener {
+    private static final Logger logger = LoggerFactory.getLogger(ActiveCodeStore.class);
+
+    private static volatile ActiveCodeStore shared;
+
+    private final OtpCodeDao codeDao;
+    private final Shard[] shards;
+    private final int shardCapacity;
+    private final int maxSize;
+    private ScheduledExecutorService sweeper;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expiredHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param codeDao DAO, из которого хранилище заполняется
+     * @param maxSize максимальное число кодов в памяти
+     * @param shards  число сегментов (округляется вверх до степени двойки)
+     */
+    public ActiveCodeStore(OtpCodeDao codeDao, int maxSize, int shards) {
+        if (maxSize <= 0 || shards <= 0) {
+            throw new IllegalArgumentException("Параметры хранилища активных кодов должны быть положительными");
+        }
+        int n = 1;
+        while (n < shards) {
+            n <<= 1;
+        }
+        this.codeDao = codeDao;
+        this.maxSize = maxSize;
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.shardCapacity = Math.max(1, maxSize / n);
+    }
+
+    /**
+     * @return общее хранилище процесса, настроенное из application.properties
+     */
+    public static ActiveCodeStore shared() {
+        ActiveCodeStore store = shared;
+        if (store == null) {
+            synchronized (ActiveCodeStore.class) {
+                store = shared;
+                if (store == null) {
+                    store = new ActiveCodeStore(new OtpCodeDaoImpl(),
+                            AppConfig.getInt("otp.active.store.max.size", 100_000),
+                            AppConfig.getInt("otp.active.store.shards", 16));
+                    MetricsRegistry.register("otp.active.store", store::metrics);
+                    shared = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Добавляет только что сохранённый активный код.
+     *
+     * @param code код с id и expiresAt
+     */
+    public void put(OtpCode code) {
+        if (code.getId() == null || code.getExpiresAt() == null) {
+            return;
+        }
+        Entry entry = new Entry(code.getId(), code.getUserId(), code.getOperationId(),
+                code.getCode(), toMillis(code.getExpiresAt()));
+        if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+            return;
+        }
+        Shard shard = shardFor(entry.code);
+        synchronized (shard) {
+            if (shard.byId.size() >= shardCapacity) {
+                Iterator<Entry> it = shard.byId.values().iterator();
+                Entry oldest = it.next();
+                it.remove();
+                shard.unlink(oldest);
+                evictions.increment();
+            }
+            Entry previous = shard.byId.put(entry.id, entry);
+            if (previous != null) {
+                shard.unlink(previous);
+            }
+            entry.next = shard.byCode.get(entry.code);
+            shard.byCode.put(entry.code, entry);
+        }
+    }
+
+    /**
+     * Извлекает код пользователя для операции. Извлечённый код из хранилища удаляется,
+     * поэтому из одновременных проверок одного кода его получит только одна.
+     *
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции или null
+     * @param code        значение кода
+     * @return найденный код (возможно, уже истёкший) или null, если его нет в памяти
+     */
+    public ActiveCode take(long userId, String operationId, String code) {
+        return take(code, e -> e.userId == userId && Objects.equals(e.operationId, operationId));
+    }
+
+    /**
+     * Извлекает любой код с указанным значением (проверка без пользователя и операции).
+     *
+     * @param code значение кода
+     * @return найденный код (возможно, уже истёкший) или null
+     */
+    public ActiveCode takeAny(String code) {
+        return take(code, e -> true);
+    }
+
+    /**
+     * Удаляет код (погашен или истёк на другом экземпляре).
+     *
+     * @param id идентификатор кода
+     */
+    public void remove(long id) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                Entry entry = shard.byId.remove(id);
+                if (entry != null) {
+                    shard.unlink(entry);
+                    invalidations.increment();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Удаляет все коды пользователя (при его удалении).
+     *
+     * @param userId идентификатор пользователя
+     */
+    public void removeUser(long userId) {
+        removeIf(e -> e.userId == userId, invalidations);
+    }
+
+    /**
+     * Удаляет коды, срок которых истёк.
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        removeIf(e -> e.expiresAtMillis <= now, expirations);
+    }
+
+    /**
+     * Очищает хранилище и заполняет его активными кодами из БД (самыми новыми, до max.size).
+     */
+    public void warm() {
+        List<OtpCode> active = codeDao.findActive(LocalDateTime.now(), maxSize);
+        clear();
+        // Коды приходят от новых к старым: кладём в обратном порядке, чтобы вытеснялись старые
+        for (int i = active.size() - 1; i >= 0; i--) {
+            put(active.get(i));
+        }
+        logger.info("Хранилище активных OTP-кодов заполнено из БД: {} кодов", active.size());
+    }
+
+    /**
+     * Запускает фоновое удаление истёкших кодов.
+     *
+     * @param sweepSeconds период в секундах
+     */
+    public synchronized void startSweeper(long sweepSeconds) {
+        if (sweeper != null || sweepSeconds <= 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "active-code-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictExpired, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        switch (event.getType()) {
+            case OTP_CODE:
+                remove(event.getId());
+                break;
+            case USER:
+                removeUser(event.getId());
+                break;
+            case OTP_CODES_EXPIRED:
+                evictExpired();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onResync() {
+        warm();
+    }
+
+    /**
+     * @return текущие значения метрик хранилища
+     */
+    public Map<String, Object> metrics() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.byId.size();
+            }
+        }
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("size", size);
+        metrics.put("maxSize", maxSize);
+        metrics.put("shards", shards.length);
+        metrics.put("hits", h);
+        metrics.put("misses", m);
+        metrics.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        metrics.put("expiredHits", expiredHits.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("expirations", expirations.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private ActiveCode take(String code, Predicate<Entry> match) {
+        if (code == null) {
+            return null;
+        }
+        Shard shard = shardFor(code);
+        Entry found = null;
+        synchronized (shard) {
+            for (Entry e = shard.byCode.get(code); e != null; e = e.next) {
+                if (match.test(e)) {
+                    found = e;
+                    break;
+                }
+            }
+            if (found != null) {
+                shard.byId.remove(found.id);
+                shard.unlink(found);
+            }
+        }
+        if (found == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        boolean expired = found.expiresAtMillis <= System.currentTimeMillis();
+        if (expired) {
+            expiredHits.increment();
+        }
+        return new ActiveCode(found.id, expired);
+    }
+
+    private void removeIf(Predicate<Entry> condition, LongAdder counter) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                Iterator<Entry> it = shard.byId.values().iterator();
+                while (it.hasNext()) {
+                    Entry e = it.next();
+                    if (condition.test(e)) {
+                        it.remove();
+                        shard.unlink(e);
+                        counter.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    private void clear() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.byId.clear();
+                shard.byCode.clear();
+            }
+        }
+    }
+
+    private Shard shardFor(String code) {
+        int h = code.hashCode();
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Код, извлечённый из хранилища.
+     */
+    public static final class ActiveCode {
+        private final long id;
+        private final boolean expired;
+
+        ActiveCode(long id, boolean expired) {
+            this.id = id;
+            this.expired = expired;
+        }
+
+        /**
+         * @return идентификатор кода в БД
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return true, если срок кода уже истёк
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+
+    /** Код в памяти; коды с одинаковым значением связаны в цепочку через next */
+    private static final class Entry {
+        final long id;
+        final long userId;
+        final String operationId;
+        final String code;
+        final long expiresAtMillis;
+        Entry next;
+
+        Entry(long id, long userId, String operationId, String code, long expiresAtMillis) {
+            this.id = id;
+            this.userId = userId;
+            this.operationId = operationId;
+            this.code = code;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /** Сегмент: коды по id в порядке добавления (для вытеснения) и цепочки по значению кода */
+    private static final class Shard {
+        final LinkedHashMap<Long, Entry> byId = new LinkedHashMap<>();
+        final HashMap<String, Entry> byCode = new HashMap<>();
+
+        void unlink(Entry entry) {
+            Entry head = byCode.get(entry.code);
+            if (head == entry) {
+                if (entry.next != null) {
+                    byCode.put(entry.code, entry.next);
+                } else {
+                    byCode.remove(entry.code);
+                }
+                return;
+            }
+            for (Entry e = head; e != null; e = e.next) {
+                if (e.next == entry) {
+                    e.next = entry.next;
+                    return;
+                }
+            }
+        }
+    }
+}
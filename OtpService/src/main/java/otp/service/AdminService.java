@@ -1,13 +1,20 @@
 package otp.service;
 
+import otp.config.AppConfig;
+import otp.config.InvalidationBus;
+import otp.config.InvalidationEvent;
 import otp.dao.OtpConfigDao;
 import otp.dao.OtpCodeDao;
 import otp.dao.UserDao;
 import otp.model.OtpConfig;
 import otp.model.User;
+import otp.model.UserRole;
+import otp.model.UserSummary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public class AdminService {
@@ -15,11 +22,20 @@ public class AdminService {
     private final OtpConfigDao configDao;
     private final UserDao userDao;
     private final OtpCodeDao codeDao;
+    private final TokenRevocationService revocationService;
+    private final InvalidationBus invalidationBus = InvalidationBus.shared();
+    private final int maxPageSize = AppConfig.getInt("admin.users.page.max.size", 1000);
 
     public AdminService(OtpConfigDao configDao, UserDao userDao, OtpCodeDao codeDao) {
+        this(configDao, userDao, codeDao, TokenRevocationService.shared());
+    }
+
+    public AdminService(OtpConfigDao configDao, UserDao userDao, OtpCodeDao codeDao,
+                        TokenRevocationService revocationService) {
         this.configDao = configDao;
         this.userDao = userDao;
         this.codeDao = codeDao;
+        this.revocationService = revocationService;
     }
 
     /**
@@ -54,21 +70,56 @@ public class AdminService {
         config.setLength(length);
         config.setTtlSeconds(ttlSeconds);
         configDao.updateConfig(config);
+        invalidationBus.publish(InvalidationEvent.otpConfig());
 
         logger.info("Конфигурация OTP обновлена: длина={}, ttlSeconds={}", length, ttlSeconds);
     }
 
     /**
-     * Возвращает список всех пользователей без администраторов
+     * Возвращает страницу пользователей после курсора.
+     * Выбирается на одну строку больше лимита: по ней видно, есть ли следующая страница.
+     *
+     * @param afterId        курсор (id последнего пользователя предыдущей страницы, 0 — с начала)
+     * @param limit          размер страницы, от 1 до admin.users.page.max.size
+     * @param usernamePrefix фильтр по началу логина или null
+     * @param role           фильтр по роли или null (все, кроме администраторов)
+     * @throws IllegalArgumentException если параметры некорректны
+     */
+    public UserPage getUsersPage(long afterId, int limit, String usernamePrefix, UserRole role) {
+        if (afterId < 0) {
+            throw new IllegalArgumentException("Курсор after не может быть отрицательным");
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            throw new IllegalArgumentException("Размер страницы limit должен быть от 1 до " + maxPageSize);
+        }
+        List<UserSummary> users = userDao.findUsersPage(afterId, limit + 1, usernamePrefix, role);
+        Long nextCursor = null;
+        if (users.size() > limit) {
+            users = users.subList(0, limit);
+            nextCursor = users.get(limit - 1).getId();
+        }
+        logger.info("Получена страница пользователей после id {}: {} записей, следующий курсор {}",
+                afterId, users.size(), nextCursor);
+        return new UserPage(users, nextCursor);
+    }
+
+    /**
+     * Потоково выгружает OTP-коды, созданные в интервале [from, to).
+     *
+     * @param from    начало интервала или null
+     * @param to      конец интервала или null
+     * @param handler получатель строк
+     * @return количество выгруженных строк
+     * @throws IOException если получатель не смог записать строку
      */
-    public List<User> getAllUsersWithoutAdmins() {
-        List<User> users = userDao.findAllUsersWithoutAdmins();
-        logger.info("Получен список пользователей без администраторов, количество: {}", users.size());
-        return users;
+    public long exportOtpCodes(LocalDateTime from, LocalDateTime to, OtpCodeDao.RowHandler handler)
+            throws IOException {
+        return codeDao.exportByCreatedAt(from, to, handler);
     }
 
     /**
-     * Удаляет пользователя и связанные с ним OTP-коды
+     * Удаляет пользователя и связанные с ним OTP-коды.
+     * Уже выданные пользователю JWT-токены отзываются.
      *
      * @param userId ID пользователя для удаления
      * @throws IllegalArgumentException если пользователь не найден
@@ -84,6 +135,10 @@ public class AdminService {
         codeDao.deleteAllByUserId(userId);
         // Затем удаляем пользователя
         userDao.delete(userId);
+        // Токены ещё действительны до exp: отзываем их, иначе удалённый пользователь сохранит доступ
+        revocationService.revokeUser(userId);
+        ActiveCodeStore.shared().removeUser(userId);
+        invalidationBus.publish(InvalidationEvent.user(userId));
 
         logger.info("Удален пользователь {} и его OTP-коды", userId);
     }
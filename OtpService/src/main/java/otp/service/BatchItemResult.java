@@ -0,0 +1,27 @@
+package otp.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Результат обработки одного элемента пакетного запроса.
+ * Статусы совпадают с HTTP-статусами соответствующего одиночного запроса
+ * (202 — код отправлен, 200 — код подтверждён, 400 — ошибка в элементе и т.д.).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+    public final int status;
+    public final String error;
+
+    private BatchItemResult(int status, String error) {
+        this.status = status;
+        this.error = error;
+    }
+
+    public static BatchItemResult ok(int status) {
+        return new BatchItemResult(status, null);
+    }
+
+    public static BatchItemResult failed(int status, String error) {
+        return new BatchItemResult(status, error);
+    }
+}
@@ -0,0 +1,495 @@
+package otp.service;
+
+import otp.config.AppConfig;
+import otp.config.InvalidationBus;
+import otp.config.InvalidationEvent;
+import otp.config.InvalidationListener;
+import otp.dao.OtpCodeDao;
+import otp.dao.impl.OtpCodeDaoImpl;
+import otp.util.LongHashSet;
+import otp.util.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Выдаёт значения OTP-кодов без совпадений с активными кодами.
+ * <p>
+ * Занятые значения текущей длины хранятся в примитивной структуре без объектов на код:
+ * если 10^length не больше otp.code.allocator.max.bits — в битовом множестве на все
+ * значения, иначе (длинные коды) — в хеш-множестве long с открытой адресацией.
+ * Новое значение выбирается равномерно среди свободных: случайная проба с отказом
+ * в среднем занимает O(1) шагов, пока занята не большая часть пространства; при плотном
+ * заполнении битового множества выбирается k-е свободное значение по счётчикам блоков.
+ * </p>
+ * <p>
+ * Значение освобождается при погашении кода и при его истечении (UPDATE возвращает
+ * значения помеченных кодов). Каждое выданное значение рассылается другим экземплярам
+ * через шину инвалидации, и они помечают его занятым. Доставка асинхронна: значение,
+ * выданное двумя экземплярами в пределах задержки шины (или пока шина недоступна),
+ * может совпасть — гарантия без совпадений строгая только в пределах экземпляра.
+ * </p>
+ * <p>
+ * Множество периодически перестраивается по активным кодам из БД: так подхватываются
+ * коды, чьи события потерялись, а значения кодов, погашенных, удалённых или истёкших
+ * на других экземплярах, освобождаются. Коды, выданные или полученные во время чтения
+ * из БД, переносятся в новое множество, поэтому перестроение их не теряет.
+ * </p>
+ */
+public class CodeAllocator implements InvalidationListener {
+    private static final Logger logger = LoggerFactory.getLogger(CodeAllocator.class);
+
+    /** Число случайных проб до перехода к выбору по счётчикам блоков */
+    private static final int RANDOM_PROBES = 16;
+
+    private static volatile CodeAllocator shared;
+
+    private final OtpCodeDao codeDao;
+    private final InvalidationBus invalidationBus;
+    private final long maxBits;
+    private final SecureRandom random = new SecureRandom();
+    private ScheduledExecutorService rebuilder;
+
+    /** Занятые значения текущей длины; доступ под блокировкой this */
+    private Domain domain;
+    /** Значения, выданные во время перестроения (null вне перестроения) */
+    private long[] pending;
+    private int pendingSize;
+
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder reservedByPeers = new LongAdder();
+    private final LongAdder fallbackSelects = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    /**
+     * @param codeDao         DAO, из которого множество перестраивается
+     * @param invalidationBus шина, через которую выданные значения рассылаются другим экземплярам
+     * @param maxBits         максимальный размер битового множества; для большего пространства значений — хеш-множество
+     */
+    public CodeAllocator(OtpCodeDao codeDao, InvalidationBus invalidationBus, long maxBits) {
+        if (maxBits <= 0 || maxBits > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Некорректный размер битового множества OTP-кодов: " + maxBits);
+        }
+        this.codeDao = codeDao;
+        this.invalidationBus = invalidationBus;
+        this.maxBits = maxBits;
+    }
+
+    /**
+     * @return общий распределитель процесса, настроенный из application.properties
+     */
+    public static CodeAllocator shared() {
+        CodeAllocator allocator = shared;
+        if (allocator == null) {
+            synchronized (CodeAllocator.class) {
+                allocator = shared;
+                if (allocator == null) {
+                    allocator = new CodeAllocator(new OtpCodeDaoImpl(), InvalidationBus.shared(),
+                            AppConfig.getLong("otp.code.allocator.max.bits", 100_000_000L));
+                    MetricsRegistry.register("otp.code.allocator", allocator::metrics);
+                    shared = allocator;
+                }
+            }
+        }
+        return allocator;
+    }
+
+    /**
+     * Выдаёт свободное значение кода и помечает его занятым.
+     * При смене длины в конфигурации множество начинается заново для новой длины.
+     *
+     * @param length длина кода в цифрах
+     * @return код из length цифр (с ведущими нулями)
+     * @throws CodeSpaceExhaustedException если все значения этой длины заняты
+     */
+    public synchronized String allocate(int length) {
+        Domain d = domainFor(length);
+        long value = d.allocate(random);
+        if (value < 0) {
+            throw new CodeSpaceExhaustedException("Нет свободных значений OTP-кода длины " + length);
+        }
+        remember(value);
+        allocated.increment();
+        invalidationBus.publish(InvalidationEvent.otpCodeAllocated(d.capacity + value));
+        return format(value, length);
+    }
+
+    /**
+     * Помечает занятым значение, выданное другим экземпляром.
+     */
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() != InvalidationEvent.Type.OTP_CODE_ALLOCATED) {
+            return;
+        }
+        // id = 10^length + значение: длина — число цифр id без старшей единицы
+        long id = event.getId();
+        int length = Long.toString(id).length() - 1;
+        synchronized (this) {
+            if (domain == null || domain.length != length || id < domain.capacity) {
+                return;
+            }
+            long value = id - domain.capacity;
+            domain.add(value);
+            remember(value);
+            reservedByPeers.increment();
+        }
+    }
+
+    /**
+     * События, пропущенные без соединения, восстанавливаются внеочередным перестроением по БД.
+     */
+    @Override
+    public synchronized void onResync() {
+        if (rebuilder != null) {
+            rebuilder.execute(this::rebuildLogged);
+        }
+    }
+
+    /**
+     * Освобождает значение погашенного или истёкшего кода.
+     *
+     * @param code значение кода
+     */
+    public synchronized void release(String code) {
+        long value = parse(code);
+        if (domain != null && value >= 0 && code.length() == domain.length && domain.remove(value)) {
+            released.increment();
+        }
+    }
+
+    /**
+     * Освобождает значения пачки кодов.
+     *
+     * @param codes значения кодов
+     */
+    public synchronized void releaseAll(List<String> codes) {
+        for (String code : codes) {
+            release(code);
+        }
+    }
+
+    /** Значение, занятое во время перестроения, переносится в новое множество */
+    private void remember(long value) {
+        if (pending != null) {
+            if (pendingSize == pending.length) {
+                pending = Arrays.copyOf(pending, pendingSize * 2);
+            }
+            pending[pendingSize++] = value;
+        }
+    }
+
+    /**
+     * Перестраивает множество по активным кодам текущей длины из БД.
+     */
+    public void rebuild() {
+        int length;
+        synchronized (this) {
+            if (domain == null || pending != null) {
+                return;
+            }
+            length = domain.length;
+            pending = new long[16];
+            pendingSize = 0;
+        }
+        List<String> active;
+        try {
+            active = codeDao.findActiveCodes(LocalDateTime.now());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            long[] issued = pending;
+            int issuedSize = pendingSize;
+            pending = null;
+            if (domain.length != length) {
+                // Длина сменилась во время чтения: прочитанное относится к старому множеству
+                return;
+            }
+            Domain rebuilt = newDomain(length);
+            for (String code : active) {
+                long value = parse(code);
+                if (value >= 0 && code.length() == length) {
+                    rebuilt.add(value);
+                }
+            }
+            for (int i = 0; i < issuedSize; i++) {
+                rebuilt.add(issued[i]);
+            }
+            logger.debug("Множество OTP-кодов длины {} перестроено: занято {} (было {})",
+                    length, rebuilt.size(), domain.size());
+            domain = rebuilt;
+            rebuilds.increment();
+        }
+    }
+
+    /**
+     * Запускает периодическое перестроение по БД.
+     *
+     * @param periodSeconds период в секундах (0 — не перестраивать)
+     */
+    public synchronized void startRebuild(long periodSeconds) {
+        if (rebuilder != null || periodSeconds <= 0) {
+            return;
+        }
+        rebuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "otp-code-allocator");
+            t.setDaemon(true);
+            return t;
+        });
+        rebuilder.scheduleWithFixedDelay(this::rebuildLogged, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private void rebuildLogged() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            logger.error("Ошибка перестроения множества OTP-кодов: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Создаёт множество для указанной длины и сразу заполняет его активными кодами из БД.
+     *
+     * @param length текущая длина кода
+     */
+    public void warm(int length) {
+        synchronized (this) {
+            domainFor(length);
+        }
+        rebuild();
+        logger.info("Множество активных OTP-кодов длины {} заполнено из БД", length);
+    }
+
+    /**
+     * @return текущие значения метрик распределителя
+     */
+    public synchronized Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("length", domain != null ? domain.length : 0);
+        metrics.put("structure", domain instanceof BitDomain ? "bitset" : domain != null ? "hash" : "none");
+        metrics.put("used", domain != null ? domain.size() : 0);
+        metrics.put("allocated", allocated.sum());
+        metrics.put("released", released.sum());
+        metrics.put("reservedByPeers", reservedByPeers.sum());
+        metrics.put("fallbackSelects", fallbackSelects.sum());
+        metrics.put("rebuilds", rebuilds.sum());
+        return metrics;
+    }
+
+    private Domain domainFor(int length) {
+        if (domain == null || domain.length != length) {
+            if (domain != null) {
+                logger.info("Длина OTP-кода сменилась с {} на {}: множество занятых значений начато заново",
+                        domain.length, length);
+            }
+            domain = newDomain(length);
+        }
+        return domain;
+    }
+
+    private Domain newDomain(int length) {
+        if (length <= 0 || length > 18) {
+            throw new IllegalArgumentException("Недопустимая длина OTP-кода: " + length);
+        }
+        long capacity = 1;
+        for (int i = 0; i < length; i++) {
+            capacity *= 10;
+        }
+        return capacity <= maxBits ? new BitDomain(length, (int) capacity) : new HashDomain(length, capacity);
+    }
+
+    private static String format(long value, int length) {
+        String digits = Long.toString(value);
+        if (digits.length() == length) {
+            return digits;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = digits.length(); i < length; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    /** @return числовое значение кода или -1, если это не код из 1..18 цифр */
+    private static long parse(String code) {
+        if (code == null || code.isEmpty() || code.length() > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /** Множество занятых значений в пространстве [0, capacity) */
+    private abstract static class Domain {
+        final int length;
+        final long capacity;
+
+        Domain(int length, long capacity) {
+            this.length = length;
+            this.capacity = capacity;
+        }
+
+        /** @return занятое теперь значение или -1, если свободных нет */
+        abstract long allocate(SecureRandom random);
+
+        abstract void add(long value);
+
+        abstract boolean remove(long value);
+
+        abstract long size();
+    }
+
+    /** Битовое множество на все значения и число занятых битов в каждом блоке из 64 слов */
+    private final class BitDomain extends Domain {
+        private static final int BLOCK_WORDS_SHIFT = 6;
+
+        final long[] words;
+        final int[] blockUsed;
+        int used;
+
+        BitDomain(int length, int capacity) {
+            super(length, capacity);
+            this.words = new long[(capacity + 63) >>> 6];
+            this.blockUsed = new int[(words.length + (1 << BLOCK_WORDS_SHIFT) - 1) >>> BLOCK_WORDS_SHIFT];
+        }
+
+        @Override
+        long allocate(SecureRandom random) {
+            if (used >= capacity) {
+                return -1;
+            }
+            for (int i = 0; i < RANDOM_PROBES; i++) {
+                int value = random.nextInt((int) capacity);
+                if ((words[value >>> 6] & (1L << value)) == 0) {
+                    add(value);
+                    return value;
+                }
+            }
+            // Пространство почти заполнено: равномерно выбираем k-е свободное значение
+            fallbackSelects.increment();
+            long value = selectFree(random.nextInt((int) (capacity - used)));
+            add(value);
+            return value;
+        }
+
+        private long selectFree(int k) {
+            int blockBits = 64 << BLOCK_WORDS_SHIFT;
+            int block = 0;
+            while (true) {
+                int blockFree = (int) Math.min(blockBits, capacity - (long) block * blockBits) - blockUsed[block];
+                if (k < blockFree) {
+                    break;
+                }
+                k -= blockFree;
+                block++;
+            }
+            for (int w = block << BLOCK_WORDS_SHIFT; ; w++) {
+                long free = ~words[w];
+                if (w == words.length - 1 && capacity % 64 != 0) {
+                    free &= (1L << (capacity % 64)) - 1;
+                }
+                int count = Long.bitCount(free);
+                if (k < count) {
+                    for (int i = 0; i < k; i++) {
+                        free &= free - 1;
+                    }
+                    return ((long) w << 6) + Long.numberOfTrailingZeros(free);
+                }
+                k -= count;
+            }
+        }
+
+        @Override
+        void add(long value) {
+            int v = (int) value;
+            long bit = 1L << v;
+            if ((words[v >>> 6] & bit) == 0) {
+                words[v >>> 6] |= bit;
+                blockUsed[v >>> (6 + BLOCK_WORDS_SHIFT)]++;
+                used++;
+            }
+        }
+
+        @Override
+        boolean remove(long value) {
+            if (value >= capacity) {
+                return false;
+            }
+            int v = (int) value;
+            long bit = 1L << v;
+            if ((words[v >>> 6] & bit) == 0) {
+                return false;
+            }
+            words[v >>> 6] &= ~bit;
+            blockUsed[v >>> (6 + BLOCK_WORDS_SHIFT)]--;
+            used--;
+            return true;
+        }
+
+        @Override
+        long size() {
+            return used;
+        }
+    }
+
+    /**
+     * Хеш-множество значений для пространств больше битового предела.
+     * Активных кодов несравнимо меньше, чем значений, поэтому случайная проба почти всегда свободна.
+     */
+    private static final class HashDomain extends Domain {
+        final LongHashSet values = new LongHashSet(1024);
+
+        HashDomain(int length, long capacity) {
+            super(length, capacity);
+        }
+
+        @Override
+        long allocate(SecureRandom random) {
+            // Доля занятых значений ничтожна, но при пробах подряд всё же ограничиваемся разумным числом
+            for (int i = 0; i < RANDOM_PROBES * 4; i++) {
+                long value = random.nextLong(capacity);
+                if (values.add(value)) {
+                    return value;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void add(long value) {
+            values.add(value);
+        }
+
+        @Override
+        boolean remove(long value) {
+            return values.remove(value);
+        }
+
+        @Override
+        long size() {
+            return values.size();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package otp.service;
+
+/**
+ * Выбрасывается, когда все значения OTP-кода текущей длины заняты активными кодами:
+ * генерацию нужно повторить позже, когда коды погасят или они истекут (HTTP 503).
+ */
+public class CodeSpaceExhaustedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CodeSpaceExhaustedException(String message) {
+        super(message);
+    }
+}
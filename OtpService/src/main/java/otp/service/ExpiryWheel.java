@@ -0,0 +1,244 @@
+package otp.service;
+
+import otp.config.AppConfig;
+import otp.util.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Иерархическое колесо таймеров для истечения OTP-кодов.
+ * <p>
+ * Каждый сгенерированный код регистрируется с точным моментом истечения. Время делится
+ * на тики по tickMillis; четыре уровня по 64 слота покрывают 64, 64², 64³ и 64⁴ тиков.
+ * Код кладётся на самый мелкий уровень, в диапазон которого попадает его срок, и по мере
+ * движения времени спускается на нижние уровни; с нулевого уровня он переходит в очередь
+ * готовых. Добавление и продвижение на тик — O(1), независимо от числа кодов.
+ * </p>
+ * <p>
+ * Погашенные коды из колеса не удаляются: UPDATE истечения меняет только ACTIVE-коды,
+ * так что лишний id в пачке безвреден. Размер ограничен max.size: коды сверх него
+ * не отслеживаются, и их подберёт страховочный проход по индексу expires_at.
+ * </p>
+ */
+public class ExpiryWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private static volatile ExpiryWheel shared;
+
+    private final long tickMillis;
+    private final int maxSize;
+    private final Bucket[][] wheel = new Bucket[LEVELS][SLOTS];
+    /** Коды со сроком дальше диапазона верхнего уровня */
+    private final Bucket overflow = new Bucket();
+    /** Коды, чей срок наступил */
+    private final Bucket ready = new Bucket();
+    /** Последний обработанный тик */
+    private long currentTick;
+    private int size;
+
+    private long scheduled;
+    private long rejected;
+
+    /**
+     * @param tickMillis длительность тика (точность истечения)
+     * @param maxSize    максимальное число отслеживаемых кодов
+     */
+    public ExpiryWheel(long tickMillis, int maxSize) {
+        if (tickMillis <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("Параметры колеса истечения должны быть положительными");
+        }
+        this.tickMillis = tickMillis;
+        this.maxSize = maxSize;
+        for (int l = 0; l < LEVELS; l++) {
+            for (int s = 0; s < SLOTS; s++) {
+                wheel[l][s] = new Bucket();
+            }
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * @return общее колесо процесса, настроенное из application.properties
+     */
+    public static ExpiryWheel shared() {
+        ExpiryWheel w = shared;
+        if (w == null) {
+            synchronized (ExpiryWheel.class) {
+                w = shared;
+                if (w == null) {
+                    w = new ExpiryWheel(
+                            AppConfig.getLong("otp.expiry.tick.ms", 250),
+                            AppConfig.getInt("otp.expiry.wheel.max.size", 1_000_000));
+                    MetricsRegistry.register("otp.expiry.wheel", w::metrics);
+                    shared = w;
+                }
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Регистрирует код.
+     *
+     * @param id              идентификатор кода
+     * @param expiresAtMillis момент истечения
+     * @return false, если колесо заполнено и код не отслеживается
+     */
+    public synchronized boolean schedule(long id, long expiresAtMillis) {
+        if (size >= maxSize) {
+            rejected++;
+            return false;
+        }
+        size++;
+        scheduled++;
+        // Срок округляется вверх до тика: код не истечёт раньше своего момента
+        place(id, (expiresAtMillis + tickMillis - 1) / tickMillis);
+        return true;
+    }
+
+    /**
+     * Продвигает колесо до текущего момента и забирает до max кодов, чей срок наступил.
+     *
+     * @param nowMillis текущее время
+     * @param max       максимальный размер пачки
+     * @return id истёкших кодов (не больше max)
+     */
+    public synchronized List<Long> pollDue(long nowMillis, int max) {
+        advance(nowMillis / tickMillis);
+        int n = Math.min(max, ready.size);
+        List<Long> due = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            due.add(ready.ids[--ready.size]);
+        }
+        size -= n;
+        return due;
+    }
+
+    /**
+     * @return true, если есть истёкшие коды, ещё не забранные pollDue
+     */
+    public synchronized boolean hasDue() {
+        return ready.size > 0;
+    }
+
+    /**
+     * Оценивает, когда наступит ближайший срок: точно в пределах нулевого уровня,
+     * иначе — момент следующего спуска с первого уровня.
+     *
+     * @param nowMillis текущее время
+     * @return момент в миллисекундах (не раньше nowMillis)
+     */
+    public synchronized long nextDeadlineMillis(long nowMillis) {
+        if (ready.size > 0) {
+            return nowMillis;
+        }
+        for (long t = currentTick + 1; t <= currentTick + SLOTS; t++) {
+            if (wheel[0][(int) (t & SLOT_MASK)].size > 0) {
+                return Math.max(nowMillis, t * tickMillis);
+            }
+        }
+        long nextCascade = ((currentTick >> SLOT_BITS) + 1) << SLOT_BITS;
+        return Math.max(nowMillis, nextCascade * tickMillis);
+    }
+
+    /**
+     * @return текущие значения метрик колеса
+     */
+    public synchronized Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("size", size);
+        metrics.put("maxSize", maxSize);
+        metrics.put("ready", ready.size);
+        metrics.put("overflow", overflow.size);
+        metrics.put("scheduled", scheduled);
+        metrics.put("rejected", rejected);
+        metrics.put("tickMillis", tickMillis);
+        return metrics;
+    }
+
+    private void advance(long nowTick) {
+        if (size == ready.size) {
+            // В колесе только готовые коды: проходить пустые тики незачем
+            currentTick = Math.max(currentTick, nowTick);
+            return;
+        }
+        while (currentTick < nowTick) {
+            long tick = ++currentTick;
+            // Сначала спускаем верхние уровни, чьи слоты начинаются на этом тике
+            for (int l = LEVELS - 1; l >= 1; l--) {
+                if ((tick & ((1L << (SLOT_BITS * l)) - 1)) == 0) {
+                    cascade(wheel[l][(int) ((tick >> (SLOT_BITS * l)) & SLOT_MASK)]);
+                    if (l == LEVELS - 1) {
+                        cascade(overflow);
+                    }
+                }
+            }
+            Bucket slot = wheel[0][(int) (tick & SLOT_MASK)];
+            for (int i = 0; i < slot.size; i++) {
+                ready.add(slot.ids[i], slot.ticks[i]);
+            }
+            slot.clear();
+        }
+    }
+
+    private void cascade(Bucket bucket) {
+        if (bucket.size == 0) {
+            return;
+        }
+        long[] ids = bucket.ids.clone();
+        long[] ticks = bucket.ticks.clone();
+        int n = bucket.size;
+        bucket.clear();
+        for (int i = 0; i < n; i++) {
+            place(ids[i], ticks[i]);
+        }
+    }
+
+    private void place(long id, long tick) {
+        long delta = tick - currentTick;
+        if (delta <= 0) {
+            ready.add(id, tick);
+            return;
+        }
+        for (int l = 0; l < LEVELS; l++) {
+            if (delta < (1L << (SLOT_BITS * (l + 1)))) {
+                wheel[l][(int) ((tick >> (SLOT_BITS * l)) & SLOT_MASK)].add(id, tick);
+                return;
+            }
+        }
+        overflow.add(id, tick);
+    }
+
+    /** Слот колеса: id кодов и их тики истечения в растущих массивах без упаковки в объекты */
+    private static final class Bucket {
+        long[] ids = new long[4];
+        long[] ticks = new long[4];
+        int size;
+
+        void add(long id, long tick) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                ticks = Arrays.copyOf(ticks, size * 2);
+            }
+            ids[size] = id;
+            ticks[size] = tick;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+            if (ids.length > 64) {
+                // Освобождаем память после всплеска генерации
+                ids = new long[4];
+                ticks = new long[4];
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package otp.service;
+
+import otp.service.notification.NotificationChannel;
+
+/**
+ * Элемент пакетной генерации OTP: кому, для какой операции и каким каналом отправить код.
+ */
+public class GenerateItem {
+    private final Long userId;
+    private final String operationId;
+    private final NotificationChannel channel;
+
+    /**
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции (может быть null)
+     * @param channel     канал отправки или null, если канал в запросе неизвестен
+     */
+    public GenerateItem(Long userId, String operationId, NotificationChannel channel) {
+        this.userId = userId;
+        this.operationId = operationId;
+        this.channel = channel;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getOperationId() {
+        return operationId;
+    }
+
+    public NotificationChannel getChannel() {
+        return channel;
+    }
+}
@@ -1,52 +1,126 @@
 package otp.service;
 
+import otp.config.AppConfig;
+import otp.util.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Планировщик, который по расписанию помечает просроченные OTP-коды как EXPIRED.
+ * Планировщик, который помечает просроченные OTP-коды как EXPIRED.
+ * <p>
+ * Коды, сгенерированные этим экземпляром, отслеживаются {@link ExpiryWheel} с точным
+ * моментом истечения: на каждом шаге планировщик забирает из колеса небольшую пачку
+ * наступивших сроков и помечает её одним UPDATE по первичному ключу. Интервал адаптивный:
+ * пока колесо отдаёт полные пачки (накопился хвост), следующий шаг идёт через
+ * backlog.delay.ms, иначе — к ближайшему сроку, но не позже max.delay.ms.
+ * </p>
+ * <p>
+ * Коды, которых нет в колесе (созданы другим экземпляром, до перезапуска или не влезли
+ * в колесо), подбирает редкий страховочный проход по частичному индексу expires_at —
+ * тоже пачками не больше batch.size.
+ * </p>
  */
 public class OtpExpirationScheduler {
     private static final Logger logger = LoggerFactory.getLogger(OtpExpirationScheduler.class);
 
     private final OtpService otpService;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExpiryWheel wheel;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "otp-expiry");
+        t.setDaemon(true);
+        return t;
+    });
 
-    /** Интервал в минутах между запусками */
-    private final long intervalMinutes;
+    /** Максимум кодов в одном UPDATE */
+    private final int batchSize;
+    /** Пауза между шагами, пока есть хвост истёкших кодов */
+    private final long backlogDelayMillis;
+    /** Максимальная пауза между шагами */
+    private final long maxDelayMillis;
+    /** Интервал страховочного прохода по индексу */
+    private final long sweepIntervalMillis;
 
-    public OtpExpirationScheduler(OtpService otpService, long intervalMinutes) {
+    /** Когда начинать следующий страховочный проход; доступ только из потока планировщика */
+    private long nextSweepAt;
+    private volatile long lastDelayMillis;
+
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder sweptExpired = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder backlogSteps = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param otpService          сервис, через который коды помечаются EXPIRED
+     * @param wheel               колесо истечения, куда сервис регистрирует новые коды
+     * @param batchSize           максимум кодов в одном UPDATE
+     * @param backlogDelayMillis  пауза между шагами при накопившемся хвосте
+     * @param maxDelayMillis      максимальная пауза между шагами
+     * @param sweepIntervalMillis интервал страховочного прохода по индексу
+     */
+    public OtpExpirationScheduler(OtpService otpService, ExpiryWheel wheel, int batchSize,
+                                  long backlogDelayMillis, long maxDelayMillis, long sweepIntervalMillis) {
+        if (batchSize <= 0 || backlogDelayMillis < 0 || maxDelayMillis <= 0 || sweepIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры планировщика истечения OTP");
+        }
         this.otpService = otpService;
-        this.intervalMinutes = intervalMinutes;
+        this.wheel = wheel;
+        this.batchSize = batchSize;
+        this.backlogDelayMillis = backlogDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    /**
+     * Создаёт планировщик с общим колесом и параметрами otp.expiry.* из application.properties.
+     *
+     * @param otpService сервис, через который коды помечаются EXPIRED
+     * @return настроенный планировщик
+     */
+    public static OtpExpirationScheduler fromConfig(OtpService otpService) {
+        OtpExpirationScheduler scheduler = new OtpExpirationScheduler(otpService, ExpiryWheel.shared(),
+                AppConfig.getInt("otp.expiry.batch.size", 500),
+                AppConfig.getLong("otp.expiry.backlog.delay.ms", 20),
+                AppConfig.getLong("otp.expiry.max.delay.ms", 1000),
+                AppConfig.getLong("otp.expiry.sweep.seconds", 300) * 1000);
+        MetricsRegistry.register("otp.expiry", scheduler::metrics);
+        return scheduler;
     }
 
     /**
-     * Запускает планировщик.
-     * По расписанию будет вызываться метод run().
+     * Запускает планировщик. Первый шаг выполняется сразу и начинается
+     * со страховочного прохода, чтобы разобрать коды, истёкшие до запуска.
      */
     public void start() {
-        logger.info("Запуск планировщика истечения OTP, интервал={} мин", intervalMinutes);
-        scheduler.scheduleAtFixedRate(
-                this::run,           // явно вызываем наш метод run()
-                0,                   // запускаем сразу, без начальной задержки
-                intervalMinutes,     // период
-                TimeUnit.MINUTES
-        );
+        logger.info("Запуск планировщика истечения OTP: пачка {}, пауза до {} мс, страховочный проход раз в {} с",
+                batchSize, maxDelayMillis, sweepIntervalMillis / 1000);
+        scheduler.execute(this::run);
     }
 
     /**
-     * Однократный прогон: помечает все просроченные OTP как EXPIRED.
+     * Один шаг: пачка из колеса, при необходимости — пачка страховочного прохода,
+     * затем планирование следующего шага с адаптивной паузой.
      */
     public void run() {
+        long delay;
         try {
-            otpService.markExpiredOtps();
-            logger.debug("OtpExpirationScheduler run(): просроченные коды обработаны");
+            delay = step();
         } catch (Exception e) {
+            failures.increment();
             logger.error("Ошибка в задаче проверки истечения OTP", e);
+            delay = maxDelayMillis;
+        }
+        lastDelayMillis = delay;
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::run, delay, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -55,4 +129,60 @@ public class OtpExpirationScheduler {
         logger.info("Остановка планировщика истечения OTP");
         scheduler.shutdownNow();
     }
+
+    /**
+     * @return текущие значения метрик планировщика
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("expired", expired.sum());
+        metrics.put("sweptExpired", sweptExpired.sum());
+        metrics.put("batches", batches.sum());
+        metrics.put("backlogSteps", backlogSteps.sum());
+        metrics.put("failures", failures.sum());
+        metrics.put("lastDelayMillis", lastDelayMillis);
+        return metrics;
+    }
+
+    /**
+     * @return пауза до следующего шага в миллисекундах
+     */
+    private long step() {
+        long now = System.currentTimeMillis();
+        boolean backlog = false;
+
+        List<Long> due = wheel.pollDue(now, batchSize);
+        if (!due.isEmpty()) {
+            try {
+                expired.add(otpService.expireCodes(due));
+                batches.increment();
+            } catch (RuntimeException e) {
+                // Возвращаем пачку в колесо, чтобы повторить её на следующем шаге
+                for (Long id : due) {
+                    wheel.schedule(id, now);
+                }
+                throw e;
+            }
+            backlog = due.size() == batchSize;
+        }
+
+        if (now >= nextSweepAt) {
+            int swept = otpService.expireOverdue(batchSize);
+            sweptExpired.add(swept);
+            if (swept < batchSize) {
+                nextSweepAt = now + sweepIntervalMillis;
+            } else {
+                // Хвост не разобран: продолжаем проход на следующем шаге
+                backlog = true;
+            }
+        }
+
+        if (backlog) {
+            backlogSteps.increment();
+            return backlogDelayMillis;
+        }
+        long after = System.currentTimeMillis();
+        long untilDeadline = wheel.nextDeadlineMillis(after) - after;
+        return Math.max(1, Math.min(maxDelayMillis, untilDeadline));
+    }
 }
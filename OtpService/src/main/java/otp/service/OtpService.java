@@ -1,5 +1,7 @@
 package otp.service;
 
+import otp.config.InvalidationBus;
+import otp.config.InvalidationEvent;
 import otp.dao.OtpCodeDao;
 import otp.dao.OtpConfigDao;
 import otp.dao.UserDao;
@@ -10,57 +12,87 @@ import otp.model.User;
 import otp.service.notification.NotificationChannel;
 import otp.service.notification.NotificationService;
 import otp.service.notification.NotificationServiceFactory;
+import otp.util.Deadline;
+import otp.util.DeadlineExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.SecureRandom;
-import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class OtpService {
     private static final Logger logger = LoggerFactory.getLogger(OtpService.class);
-    private static final SecureRandom random = new SecureRandom();
 
     private final OtpCodeDao otpCodeDao;
     private final OtpConfigDao otpConfigDao;
     private final UserDao userDao;
     private final NotificationServiceFactory notificationFactory;
+    private final ActiveCodeStore activeCodes;
+    private final InvalidationBus invalidationBus = InvalidationBus.shared();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final CodeAllocator codeAllocator = CodeAllocator.shared();
+    private final StatelessOtp statelessOtp = StatelessOtp.shared();
 
     public OtpService(OtpCodeDao otpCodeDao,
                       OtpConfigDao otpConfigDao,
                       UserDao userDao,
                       NotificationServiceFactory notificationFactory) {
+        this(otpCodeDao, otpConfigDao, userDao, notificationFactory, ActiveCodeStore.shared());
+    }
+
+    public OtpService(OtpCodeDao otpCodeDao,
+                      OtpConfigDao otpConfigDao,
+                      UserDao userDao,
+                      NotificationServiceFactory notificationFactory,
+                      ActiveCodeStore activeCodes) {
         this.otpCodeDao = otpCodeDao;
         this.otpConfigDao = otpConfigDao;
         this.userDao = userDao;
         this.notificationFactory = notificationFactory;
+        this.activeCodes = activeCodes;
     }
 
     /**
      * Генерирует новый OTP-код, сохраняет его в БД и возвращает строку.
+     * Значение выдаёт {@link CodeAllocator}: оно не совпадает с активными кодами этого экземпляра,
+     * а с кодами других экземпляров — с точностью до задержки шины инвалидации.
+     * Для типов операций из otp.stateless.operations код вычисляется {@link StatelessOtp} и в БД не пишется.
      */
     public String generateOtp(Long userId, String operationId) {
         OtpConfig config = otpConfigDao.getConfig();
-        int length = config.getLength();
-
-        // Генерация случайного цифрового кода нужной длины
-        StringBuilder sb = new StringBuilder(length);
-        for (int i = 0; i < length; i++) {
-            sb.append(random.nextInt(10));
+        if (statelessOtp.appliesTo(userId, operationId)) {
+            String code = statelessOtp.generate(userId, operationId, config.getLength(), System.currentTimeMillis());
+            logger.info("Вычислен OTP для userId={}, operationId={}", userId, operationId);
+            return code;
         }
-        String code = sb.toString();
+        String code = codeAllocator.allocate(config.getLength());
 
         // Сохраняем в БД
+        LocalDateTime now = LocalDateTime.now();
         OtpCode otp = new OtpCode(
                 null,
                 userId,
                 operationId,
                 code,
                 OtpStatus.ACTIVE,
-                LocalDateTime.now()
+                now
         );
-        otpCodeDao.save(otp);
+        otp.setExpiresAt(now.plusSeconds(config.getTtlSeconds()));
+        try {
+            otpCodeDao.save(otp);
+        } catch (RuntimeException e) {
+            codeAllocator.release(code);
+            throw e;
+        }
+        activeCodes.put(otp);
+        expiryWheel.schedule(otp.getId(), toMillis(otp.getExpiresAt()));
         logger.info("Сгенерирован OTP {} для userId={}, operationId={}", code, userId, operationId);
         return code;
     }
@@ -74,9 +106,13 @@ public class OtpService {
 
     /**
      * Сгенерировать и отправить код указанным каналом.
+     * Каждый этап начинается, только если крайний срок запроса ещё не истёк,
+     * а каналу уведомлений передаётся оставшийся бюджет времени.
      */
     public void sendOtpToUser(Long userId, String operationId, NotificationChannel channel) {
+        Deadline.checkCurrent("генерация OTP");
         String code = generateOtp(userId, operationId);
+        Deadline.checkCurrent("поиск пользователя");
         User user = userDao.findById(userId);
         if (user == null) {
             logger.error("sendOtpToUser: пользователь не найден, id={}", userId);
@@ -86,14 +122,63 @@ public class OtpService {
         // Для простоты используем username как адресат (email, sms, chatId)
         String recipient = user.getUsername();
         NotificationService svc = notificationFactory.getService(channel);
-        svc.sendCode(recipient, code);
+        Deadline.checkCurrent("отправка OTP");
+        svc.sendCode(recipient, code, Deadline.current());
         logger.info("Отправлен OTP-код для userId={} через {}", userId, channel);
     }
 
+    /**
+     * Проверяет код пользователя для операции и погашает его одним запросом к БД.
+     * Код, сгенерированный этим экземпляром, находится в ActiveCodeStore без чтения из БД
+     * и погашается условным UPDATE по id. Иначе код ищется по (user_id, operation_id, code)
+     * среди активных и неистёкших и в том же UPDATE переключается на USED.
+     * Конфигурация не читается — срок жизни записан в код при генерации (expires_at).
+     *
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции (null — код без операции)
+     * @param inputCode   введённый код
+     * @return true, если код подтверждён этим вызовом
+     */
+    public boolean validateOtp(long userId, String operationId, String inputCode) {
+        Deadline.checkCurrent("валидация OTP");
+        if (inputCode == null) {
+            return false;
+        }
+        if (statelessOtp.appliesTo(userId, operationId)) {
+            OtpConfig config = otpConfigDao.getConfig();
+            boolean valid = statelessOtp.verify(userId, operationId, inputCode,
+                    config.getLength(), config.getTtlSeconds(), System.currentTimeMillis());
+            logger.info("validateOtp: вычисляемый код для userId={}, operationId={} {}",
+                    userId, operationId, valid ? "подтвержден" : "отклонен");
+            return valid;
+        }
+        ActiveCodeStore.ActiveCode cached = activeCodes.take(userId, operationId, inputCode);
+        if (cached != null) {
+            return confirmCached(cached, inputCode);
+        }
+        Long id = otpCodeDao.consume(userId, operationId, inputCode, LocalDateTime.now());
+        if (id == null) {
+            logger.warn("validateOtp: нет активного кода для userId={}, operationId={}", userId, operationId);
+            return false;
+        }
+        codeAllocator.release(inputCode);
+        invalidationBus.publish(InvalidationEvent.otpCode(id));
+        logger.info("validateOtp: код подтвержден для userId={}, operationId={}", userId, operationId);
+        return true;
+    }
+
     /**
      * Проверяет введённый код: активность и срок жизни, и переключает статус на USED.
+     * Код ищется среди кодов всех пользователей; для запросов, где известны пользователь
+     * и операция, используйте {@link #validateOtp(long, String, String)}.
+     * Вычисляемые коды в БД не хранятся и этим методом не подтверждаются.
      */
     public boolean validateOtp(String inputCode) {
+        Deadline.checkCurrent("валидация OTP");
+        ActiveCodeStore.ActiveCode cached = activeCodes.takeAny(inputCode);
+        if (cached != null) {
+            return confirmCached(cached, inputCode);
+        }
         OtpCode otp = otpCodeDao.findByCode(inputCode);
         if (otp == null) {
             logger.warn("validateOtp: код не найден {}", inputCode);
@@ -104,28 +189,237 @@ public class OtpService {
             logger.warn("validateOtp: код {} не активен (статус={})", inputCode, otp.getStatus());
             return false;
         }
-        // Проверка истечения по времени
-        OtpConfig config = otpConfigDao.getConfig();
-        LocalDateTime expiry = otp.getCreatedAt().plusSeconds(config.getTtlSeconds());
-        if (LocalDateTime.now().isAfter(expiry)) {
-            otpCodeDao.markAsExpiredOlderThan(Duration.ofSeconds(config.getTtlSeconds()));
-            logger.warn("validateOtp: код {} истек {}", inputCode, expiry);
+        // Проверка истечения по времени; статус EXPIRED в БД проставит OtpExpirationScheduler
+        if (!LocalDateTime.now().isBefore(otp.getExpiresAt())) {
+            logger.warn("validateOtp: код {} истек {}", inputCode, otp.getExpiresAt());
             return false;
         }
 
-        // Всё ок — помечаем как USED
-        otpCodeDao.markAsUsed(otp.getId());
+        // Всё ок — помечаем как USED; запись условная: код мог погасить параллельный запрос
+        if (otpCodeDao.markAllAsUsed(List.of(otp.getId())).isEmpty()) {
+            logger.warn("validateOtp: код {} уже не активен в БД", inputCode);
+            return false;
+        }
+        codeAllocator.release(inputCode);
+        invalidationBus.publish(InvalidationEvent.otpCode(otp.getId()));
         logger.info("validateOtp: код {} подтвержден и помечен как USED", inputCode);
         return true;
     }
 
     /**
-     * Меняет статус всех просроченных кодов на EXPIRED.
+     * Погашает код, найденный в памяти. Чтение из БД не нужно, но запись условная:
+     * если код уже погасил другой экземпляр, UPDATE ничего не изменит.
+     */
+    private boolean confirmCached(ActiveCodeStore.ActiveCode cached, String inputCode) {
+        if (cached.isExpired()) {
+            // Статус EXPIRED в БД проставит OtpExpirationScheduler
+            logger.warn("validateOtp: код id={} истек", cached.getId());
+            return false;
+        }
+        if (otpCodeDao.markAllAsUsed(List.of(cached.getId())).isEmpty()) {
+            logger.warn("validateOtp: код id={} уже не активен в БД", cached.getId());
+            return false;
+        }
+        codeAllocator.release(inputCode);
+        invalidationBus.publish(InvalidationEvent.otpCode(cached.getId()));
+        logger.info("validateOtp: код id={} подтвержден и помечен как USED", cached.getId());
+        return true;
+    }
+
+    /**
+     * Пакетная генерация и отправка кодов.
+     * <p>
+     * Пользователи загружаются одним запросом, все коды сохраняются одним
+     * многострочным INSERT (вычисляемые коды не сохраняются), затем каждый код
+     * отправляется своим каналом.
+     * Ошибка в одном элементе (неизвестный пользователь или канал, сбой отправки)
+     * не влияет на остальные.
+     * </p>
+     *
+     * @param items элементы пакета
+     * @return результаты в порядке элементов: 202 — код отправлен, иначе статус ошибки
      */
-    public void markExpiredOtps() {
+    public List<BatchItemResult> sendOtpBatch(List<GenerateItem> items) {
+        Deadline.checkCurrent("пакетная генерация OTP");
+        BatchItemResult[] results = new BatchItemResult[items.size()];
+
+        Set<Long> userIds = new HashSet<>();
+        for (GenerateItem item : items) {
+            if (item.getUserId() != null) {
+                userIds.add(item.getUserId());
+            }
+        }
+        Map<Long, User> users = userDao.findByIds(userIds);
+        OtpConfig config = otpConfigDao.getConfig();
+        LocalDateTime now = LocalDateTime.now();
+
+        // Вычисляемые коды только отправляются, сохраняемые — ещё и пишутся одним INSERT
+        List<OtpCode> toSend = new ArrayList<>();
+        List<Integer> sendIndexes = new ArrayList<>();
+        List<OtpCode> toSave = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            GenerateItem item = items.get(i);
+            if (item.getChannel() == null) {
+                results[i] = BatchItemResult.failed(400, "Неизвестный канал отправки");
+            } else if (item.getUserId() == null || !users.containsKey(item.getUserId())) {
+                results[i] = BatchItemResult.failed(400, "Пользователь не найден");
+            } else if (statelessOtp.appliesTo(item.getUserId(), item.getOperationId())) {
+                OtpCode otp = new OtpCode(null, item.getUserId(), item.getOperationId(),
+                        statelessOtp.generate(item.getUserId(), item.getOperationId(), config.getLength(),
+                                System.currentTimeMillis()),
+                        OtpStatus.ACTIVE, now);
+                toSend.add(otp);
+                sendIndexes.add(i);
+            } else {
+                String code;
+                try {
+                    code = codeAllocator.allocate(config.getLength());
+                } catch (CodeSpaceExhaustedException e) {
+                    results[i] = BatchItemResult.failed(503, "Нет свободных значений кода");
+                    continue;
+                }
+                OtpCode otp = new OtpCode(null, item.getUserId(), item.getOperationId(),
+                        code, OtpStatus.ACTIVE, now);
+                otp.setExpiresAt(now.plusSeconds(config.getTtlSeconds()));
+                toSave.add(otp);
+                toSend.add(otp);
+                sendIndexes.add(i);
+            }
+        }
+
+        Deadline.checkCurrent("сохранение пачки OTP");
+        try {
+            otpCodeDao.saveAll(toSave);
+        } catch (RuntimeException e) {
+            for (OtpCode otp : toSave) {
+                codeAllocator.release(otp.getCode());
+            }
+            throw e;
+        }
+        for (OtpCode otp : toSave) {
+            activeCodes.put(otp);
+            expiryWheel.schedule(otp.getId(), toMillis(otp.getExpiresAt()));
+        }
+
+        for (int k = 0; k < toSend.size(); k++) {
+            int i = sendIndexes.get(k);
+            GenerateItem item = items.get(i);
+            Deadline deadline = Deadline.current();
+            if (deadline != null && deadline.isExpired()) {
+                results[i] = BatchItemResult.failed(504, "Истёк срок обработки запроса");
+                continue;
+            }
+            try {
+                String recipient = users.get(item.getUserId()).getUsername();
+                notificationFactory.getService(item.getChannel()).sendCode(recipient, toSend.get(k).getCode(), deadline);
+                results[i] = BatchItemResult.ok(202);
+            } catch (DeadlineExceededException e) {
+                results[i] = BatchItemResult.failed(504, "Истёк срок обработки запроса");
+            } catch (RuntimeException e) {
+                logger.error("Ошибка отправки OTP для userId={} через {}", item.getUserId(), item.getChannel(), e);
+                results[i] = BatchItemResult.failed(500, "Ошибка отправки кода");
+            }
+        }
+        logger.info("Пакетная генерация OTP: элементов {}, сохранено кодов {}, вычислено {}",
+                items.size(), toSave.size(), toSend.size() - toSave.size());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Пакетная проверка кодов.
+     * <p>
+     * Как и {@link #validateOtp(long, String, String)}, каждый элемент проверяется только
+     * среди кодов своего пользователя и своей операции, поэтому пакет не позволяет
+     * перебирать чужие коды. Все сохранённые коды пакета погашаются одним условным UPDATE
+     * (параллельная проверка того же кода не подтвердит его дважды); повтор одного кода
+     * в пакете подтверждается один раз. Вычисляемые коды проверяются без обращения к БД.
+     * </p>
+     *
+     * @param items элементы пакета
+     * @return результаты в порядке элементов: 200 — код подтверждён, 400 — недействителен или истёк
+     */
+    public List<BatchItemResult> validateOtpBatch(List<ValidateItem> items) {
+        Deadline.checkCurrent("пакетная валидация OTP");
+        BatchItemResult[] results = new BatchItemResult[items.size()];
         OtpConfig config = otpConfigDao.getConfig();
-        Duration ttl = Duration.ofSeconds(config.getTtlSeconds());
-        otpCodeDao.markAsExpiredOlderThan(ttl);
-        logger.info("markExpiredOtps: просроченные коды старше {} секунд помечены", config.getTtlSeconds());
+        long nowMillis = System.currentTimeMillis();
+
+        List<Integer> storedIndexes = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            ValidateItem item = items.get(i);
+            if (item == null || item.getUserId() == null || item.getOperationId() == null || item.getCode() == null) {
+                results[i] = BatchItemResult.failed(400, "Не указаны пользователь, операция или код");
+            } else if (statelessOtp.appliesTo(item.getUserId(), item.getOperationId())) {
+                boolean valid = statelessOtp.verify(item.getUserId(), item.getOperationId(), item.getCode(),
+                        config.getLength(), config.getTtlSeconds(), nowMillis);
+                results[i] = valid ? BatchItemResult.ok(200)
+                        : BatchItemResult.failed(400, "Недействительный или просроченный код");
+            } else {
+                storedIndexes.add(i);
+            }
+        }
+
+        long[] userIds = new long[storedIndexes.size()];
+        String[] operationIds = new String[storedIndexes.size()];
+        String[] codes = new String[storedIndexes.size()];
+        for (int k = 0; k < storedIndexes.size(); k++) {
+            ValidateItem item = items.get(storedIndexes.get(k));
+            userIds[k] = item.getUserId();
+            operationIds[k] = item.getOperationId();
+            codes[k] = item.getCode();
+        }
+
+        Deadline.checkCurrent("подтверждение пачки OTP");
+        Map<Integer, Long> consumed = otpCodeDao.consumeAll(userIds, operationIds, codes, LocalDateTime.now());
+        int confirmed = 0;
+        for (int k = 0; k < storedIndexes.size(); k++) {
+            Long id = consumed.get(k);
+            if (id == null) {
+                results[storedIndexes.get(k)] = BatchItemResult.failed(400, "Недействительный или просроченный код");
+                continue;
+            }
+            results[storedIndexes.get(k)] = BatchItemResult.ok(200);
+            confirmed++;
+            codeAllocator.release(codes[k]);
+            activeCodes.remove(id);
+            invalidationBus.publish(InvalidationEvent.otpCode(id));
+        }
+        logger.info("Пакетная валидация OTP: элементов {}, погашено сохранённых кодов {}", items.size(), confirmed);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Помечает EXPIRED пачку кодов, чей срок наступил по колесу истечения.
+     * Уже погашенные и ещё не истёкшие коды UPDATE не трогает.
+     *
+     * @param ids идентификаторы кодов
+     * @return сколько кодов помечено
+     */
+    public int expireCodes(List<Long> ids) {
+        List<String> expired = otpCodeDao.markExpired(ids, LocalDateTime.now());
+        codeAllocator.releaseAll(expired);
+        return expired.size();
+    }
+
+    /**
+     * Страховочный проход: помечает EXPIRED до limit истёкших кодов, которых нет в колесе
+     * (созданы другим экземпляром или до перезапуска). Коды выбираются по частичному
+     * индексу expires_at среди ACTIVE, поэтому проход не сканирует таблицу.
+     *
+     * @param limit максимальный размер пачки
+     * @return сколько кодов помечено
+     */
+    public int expireOverdue(int limit) {
+        List<String> expired = otpCodeDao.markExpiredDue(LocalDateTime.now(), limit);
+        if (!expired.isEmpty()) {
+            codeAllocator.releaseAll(expired);
+            activeCodes.evictExpired();
+            invalidationBus.publish(InvalidationEvent.otpCodesExpired());
+        }
+        return expired.size();
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
@@ -0,0 +1,166 @@
+package otp.service;
+
+import otp.config.AppConfig;
+import otp.server.InstrumentedExecutor;
+import otp.util.Deadline;
+import otp.util.DeadlineExceededException;
+import otp.util.MetricsRegistry;
+import otp.util.PasswordEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выполняет хеширование и проверку паролей в отдельном ограниченном пуле.
+ * <p>
+ * PBKDF2 намеренно дорог, и поток от входов не должен занимать все потоки запросов:
+ * одновременно считается не больше password.hashing.threads хешей, ещё
+ * password.hashing.queue ждут в очереди, остальные сразу отклоняются
+ * с PasswordHashingBusyException. Поток запроса ждёт результат не дольше
+ * своего крайнего срока (или password.hashing.max.wait.ms без него).
+ * </p>
+ */
+public class PasswordHasher {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private static volatile PasswordHasher shared;
+
+    private final InstrumentedExecutor executor;
+    private final long maxWaitMillis;
+
+    /**
+     * @param threads       число потоков пула
+     * @param queueCapacity ёмкость очереди ожидающих задач
+     * @param maxWaitMillis сколько ждать результат, если у запроса нет крайнего срока
+     */
+    public PasswordHasher(int threads, int queueCapacity, long maxWaitMillis) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor = new InstrumentedExecutor("fixed", pool);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return общий пул приложения, настроенный из application.properties
+     */
+    public static PasswordHasher shared() {
+        PasswordHasher hasher = shared;
+        if (hasher == null) {
+            synchronized (PasswordHasher.class) {
+                hasher = shared;
+                if (hasher == null) {
+                    int threads = AppConfig.getInt("password.hashing.threads",
+                            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+                    hasher = new PasswordHasher(threads,
+                            AppConfig.getInt("password.hashing.queue", 64),
+                            AppConfig.getLong("password.hashing.max.wait.ms", 5000));
+                    MetricsRegistry.register("password.hashing", hasher.executor::metrics);
+                    logger.info("Создан пул хеширования паролей: {} потоков", threads);
+                    shared = hasher;
+                }
+            }
+        }
+        return hasher;
+    }
+
+    /**
+     * Хеширует новый пароль.
+     *
+     * @throws PasswordHashingBusyException если пул перегружен
+     * @throws DeadlineExceededException    если результат не получен до крайнего срока
+     */
+    public String hash(String rawPassword) {
+        return submit(() -> PasswordEncoder.hash(rawPassword));
+    }
+
+    /**
+     * Проверяет пароль и, если сохранённый хеш устарел, в той же задаче считает новый.
+     *
+     * @param rawPassword введённый пароль
+     * @param storedHash  сохранённый хеш
+     * @return результат проверки
+     * @throws PasswordHashingBusyException если пул перегружен
+     * @throws DeadlineExceededException    если результат не получен до крайнего срока
+     */
+    public Verification verify(String rawPassword, String storedHash) {
+        return submit(() -> {
+            if (!PasswordEncoder.matches(rawPassword, storedHash)) {
+                return Verification.MISMATCH;
+            }
+            return new Verification(true,
+                    PasswordEncoder.needsRehash(storedHash) ? PasswordEncoder.hash(rawPassword) : null);
+        });
+    }
+
+    private <T> T submit(Callable<T> task) {
+        Deadline.checkCurrent("хеширование пароля");
+        FutureTask<T> future = new FutureTask<>(task);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Пул хеширования паролей перегружен, запрос отклонён");
+            throw new PasswordHashingBusyException("Сервер перегружен, повторите попытку позже");
+        }
+        Deadline deadline = Deadline.current();
+        long waitMillis = deadline != null ? deadline.remainingMillis() : maxWaitMillis;
+        try {
+            return future.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new DeadlineExceededException("Истёк срок ожидания хеширования пароля");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException("Ожидание хеширования пароля прервано", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Ошибка хеширования пароля", cause);
+        }
+    }
+
+    /**
+     * Результат проверки пароля.
+     */
+    public static final class Verification {
+        static final Verification MISMATCH = new Verification(false, null);
+
+        private final boolean matches;
+        private final String upgradedHash;
+
+        Verification(boolean matches, String upgradedHash) {
+            this.matches = matches;
+            this.upgradedHash = upgradedHash;
+        }
+
+        /**
+         * @return true, если пароль верный
+         */
+        public boolean matches() {
+            return matches;
+        }
+
+        /**
+         * @return новый хеш, если сохранённый устарел и его нужно заменить, иначе null
+         */
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package otp.service;
+
+/**
+ * Выбрасывается, когда пул хеширования паролей занят и его очередь заполнена:
+ * запрос на вход или регистрацию нужно повторить позже (HTTP 503).
+ */
+public class PasswordHashingBusyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public PasswordHashingBusyException(String message) {
+        super(message);
+    }
+}
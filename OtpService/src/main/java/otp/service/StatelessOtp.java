@@ -0,0 +1,307 @@
+package otp.service;
+
+import otp.config.AppConfig;
+import otp.config.InvalidationBus;
+import otp.config.InvalidationEvent;
+import otp.config.InvalidationListener;
+import otp.util.MetricsRegistry;
+import otp.util.RateLimiter;
+import otp.util.RateLimiters;
+import otp.util.ReplayGuard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Вычисляемые OTP-коды без записи в БД (в духе HOTP/TOTP, RFC 4226/6238).
+ * <p>
+ * Код — усечённый HMAC-SHA256 от идентификатора операции и номера временного шага
+ * на ключе пользователя; ключ пользователя сам выводится HMAC из общего секрета
+ * otp.stateless.secret, поэтому хранить ключи не нужно. Генерация ничего не пишет,
+ * проверка — чистое вычисление: принимаются только коды текущего шага и соседних
+ * (±1 на расхождение часов и шаг, сменившийся после отправки), и не позже конца
+ * шага кода плюс TTL. Так одной попытке подбора соответствуют не больше трёх верных кодов.
+ * </p>
+ * <p>
+ * Каждый отклонённый код расходует токен лимита проверок пользователя, которому код
+ * выдан (ratelimit.otp.validate.user.*), а при исчерпанном лимите код не проверяется:
+ * перебор ограничен по владельцу кода, даже если попытки идут от разных клиентов.
+ * </p>
+ * <p>
+ * Повторное использование принятого кода отсекает {@link ReplayGuard} в памяти:
+ * отпечаток (пользователь, операция, шаг) хранится, пока код мог бы быть принят.
+ * Отпечаток рассылается другим экземплярам через шину инвалидации; доставка
+ * асинхронна, поэтому режим предназначен для операций с низким риском.
+ * Повторная генерация в том же шаге даёт тот же код, а после его приёма новый код
+ * для той же операции появится только в следующем шаге.
+ * </p>
+ * <p>
+ * Режим включается для типов операций из otp.stateless.operations. Тип — часть
+ * operationId до первого '-' или ':' («login-42» → «login»).
+ * </p>
+ */
+public class StatelessOtp implements InvalidationListener {
+    private static final Logger logger = LoggerFactory.getLogger(StatelessOtp.class);
+    private static final String HMAC = "HmacSHA256";
+
+    private static volatile StatelessOtp shared;
+
+    private final Set<String> operationTypes;
+    private final long stepMillis;
+    private final ReplayGuard replayGuard;
+    private final InvalidationBus invalidationBus;
+    private final RateLimiter failureLimiter;
+    private final ThreadLocal<Mac> masterMac;
+    private final ThreadLocal<Mac> codeMac;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * @param secret          общий секрет, из которого выводятся ключи пользователей (пустой — режим выключен)
+     * @param stepSeconds     длительность временного шага
+     * @param operationTypes  типы операций, для которых коды вычисляются
+     * @param invalidationBus шина, через которую рассылаются отпечатки принятых кодов
+     * @param failureLimiter  лимит проверок, который расходуют отклонённые коды пользователя (null — без лимита)
+     */
+    public StatelessOtp(String secret, long stepSeconds, Set<String> operationTypes, InvalidationBus invalidationBus,
+                        RateLimiter failureLimiter) {
+        if (stepSeconds <= 0) {
+            throw new IllegalArgumentException("Шаг вычисляемых OTP-кодов должен быть положительным");
+        }
+        boolean enabled = secret != null && !secret.isEmpty();
+        if (!enabled && !operationTypes.isEmpty()) {
+            logger.warn("otp.stateless.secret не задан: вычисляемые OTP-коды отключены для {}", operationTypes);
+        }
+        this.operationTypes = enabled ? Set.copyOf(operationTypes) : Collections.emptySet();
+        this.stepMillis = stepSeconds * 1000;
+        this.replayGuard = new ReplayGuard(stepMillis);
+        this.invalidationBus = invalidationBus;
+        this.failureLimiter = failureLimiter;
+        byte[] key = enabled ? secret.getBytes(StandardCharsets.UTF_8) : new byte[]{0};
+        this.masterMac = ThreadLocal.withInitial(() -> newMac(key));
+        this.codeMac = ThreadLocal.withInitial(() -> newMac(key));
+    }
+
+    /**
+     * @return общий экземпляр процесса, настроенный из application.properties
+     */
+    public static StatelessOtp shared() {
+        StatelessOtp s = shared;
+        if (s == null) {
+            synchronized (StatelessOtp.class) {
+                s = shared;
+                if (s == null) {
+                    Set<String> types = new HashSet<>();
+                    for (String type : AppConfig.get("otp.stateless.operations", "").split(",")) {
+                        if (!type.isBlank()) {
+                            types.add(type.trim());
+                        }
+                    }
+                    s = new StatelessOtp(AppConfig.get("otp.stateless.secret", ""),
+                            AppConfig.getLong("otp.stateless.step.seconds", 30), types, InvalidationBus.shared(),
+                            RateLimiters.get("otp.validate", "user"));
+                    MetricsRegistry.register("otp.stateless", s::metrics);
+                    shared = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @param userId      идентификатор пользователя или null
+     * @param operationId идентификатор операции или null
+     * @return true, если код для этой операции вычисляется, а не хранится в БД
+     */
+    public boolean appliesTo(Long userId, String operationId) {
+        return userId != null && operationId != null && !operationTypes.isEmpty()
+                && operationTypes.contains(typeOf(operationId));
+    }
+
+    /**
+     * Вычисляет код текущего шага.
+     *
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции
+     * @param length      длина кода
+     * @param nowMillis   текущее время
+     * @return код из length цифр
+     */
+    public String generate(long userId, String operationId, int length, long nowMillis) {
+        generated.increment();
+        return format(truncate(digest(userKey(userId), operationId, nowMillis / stepMillis), length), length);
+    }
+
+    /**
+     * Проверяет код и отмечает его использованным.
+     *
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции
+     * @param code        введённый код
+     * @param length      текущая длина кода
+     * @param ttlSeconds  время жизни кода
+     * @param nowMillis   текущее время
+     * @return true, если код верен, не истёк и принят впервые; false также при исчерпанном лимите проверок
+     */
+    public boolean verify(long userId, String operationId, String code, int length, int ttlSeconds, long nowMillis) {
+        if (failureLimiter != null && failureLimiter.waitNanos(userId) > 0) {
+            throttled.increment();
+            logger.warn("Проверка вычисляемого OTP userId={} отклонена: исчерпан лимит попыток", userId);
+            return false;
+        }
+        if (code == null || code.length() != length) {
+            return reject(userId);
+        }
+        long ttlMillis = ttlSeconds * 1000L;
+        byte[] expected = code.getBytes(StandardCharsets.US_ASCII);
+        byte[] key = userKey(userId);
+        long current = nowMillis / stepMillis;
+        for (long step = current + 1; step >= current - 1; step--) {
+            long expiresAtMillis = expiresAt(step, ttlMillis);
+            if (expiresAtMillis <= nowMillis) {
+                continue;
+            }
+            byte[] digest = digest(key, operationId, step);
+            String candidate = format(truncate(digest, length), length);
+            if (MessageDigest.isEqual(expected, candidate.getBytes(StandardCharsets.US_ASCII))) {
+                long fingerprint = ByteBuffer.wrap(digest, 24, 8).getLong();
+                if (!replayGuard.markUsed(fingerprint, expiresAtMillis)) {
+                    replays.increment();
+                    logger.warn("Повторное использование вычисляемого OTP userId={}, operationId={}",
+                            userId, operationId);
+                    return false;
+                }
+                invalidationBus.publish(InvalidationEvent.otpStatelessUsed(fingerprint));
+                verified.increment();
+                return true;
+            }
+        }
+        return reject(userId);
+    }
+
+    /**
+     * Код шага s принимается, пока текущий шаг не ушёл дальше s + 1, и не дольше конца шага s плюс TTL.
+     */
+    private long expiresAt(long step, long ttlMillis) {
+        return Math.min((step + 2) * stepMillis, (step + 1) * stepMillis + ttlMillis);
+    }
+
+    private boolean reject(long userId) {
+        rejected.increment();
+        if (failureLimiter != null) {
+            failureLimiter.tryAcquire(userId);
+        }
+        return false;
+    }
+
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.OTP_STATELESS_USED) {
+            // Код принимается не дольше трёх шагов (шаг вперёд на другом экземпляре + два своих)
+            replayGuard.markUsed(event.getId(), System.currentTimeMillis() + 3 * stepMillis);
+        }
+    }
+
+    @Override
+    public void onResync() {
+        // Пропущенные отпечатки восстановить неоткуда; защита этого экземпляра остаётся как есть
+    }
+
+    /**
+     * @return текущие значения метрик вычисляемых кодов
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("operations", operationTypes);
+        metrics.put("stepSeconds", stepMillis / 1000);
+        metrics.put("generated", generated.sum());
+        metrics.put("verified", verified.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("replays", replays.sum());
+        metrics.put("throttled", throttled.sum());
+        metrics.put("replayGuard", replayGuard.metrics());
+        return metrics;
+    }
+
+    /**
+     * @return тип операции: часть operationId до первого '-' или ':'
+     */
+    static String typeOf(String operationId) {
+        for (int i = 0; i < operationId.length(); i++) {
+            char c = operationId.charAt(i);
+            if (c == '-' || c == ':') {
+                return operationId.substring(0, i);
+            }
+        }
+        return operationId;
+    }
+
+    private byte[] userKey(long userId) {
+        Mac mac = masterMac.get();
+        mac.update("otp-user:".getBytes(StandardCharsets.US_ASCII));
+        return mac.doFinal(Long.toString(userId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private byte[] digest(byte[] userKey, String operationId, long step) {
+        Mac mac = codeMac.get();
+        try {
+            mac.init(new SecretKeySpec(userKey, HMAC));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось инициализировать HMAC", e);
+        }
+        mac.update(operationId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(ByteBuffer.allocate(Long.BYTES).putLong(step).array());
+    }
+
+    /**
+     * Динамическое усечение по RFC 4226, но до 63 бит: 31 бита не хватает на 10 цифр.
+     */
+    private static long truncate(byte[] digest, int length) {
+        int offset = digest[digest.length - 1] & 0x0f;
+        long bits = ByteBuffer.wrap(digest, offset, Long.BYTES).getLong() & Long.MAX_VALUE;
+        long modulus = 1;
+        for (int i = 0; i < length; i++) {
+            modulus *= 10;
+        }
+        return bits % modulus;
+    }
+
+    private static String format(long value, int length) {
+        String digits = Long.toString(value);
+        if (digits.length() == length) {
+            return digits;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = digits.length(); i < length; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static Mac newMac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(key, HMAC));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 недоступен", e);
+        }
+    }
+}
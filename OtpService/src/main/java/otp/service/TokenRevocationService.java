@@ -0,0 +1,166 @@
+package otp.service;
+
+import otp.config.InvalidationEvent;
+import otp.config.InvalidationListener;
+import otp.dao.RevokedTokenDao;
+import otp.dao.impl.RevokedTokenDaoImpl;
+import otp.model.RevokedToken;
+import otp.util.JwtUtils;
+import otp.util.MetricsRegistry;
+import otp.util.RevocationList;
+import otp.util.VerifiedToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отзыв JWT-токенов: запись в таблицу revoked_tokens и в список отзыва в памяти.
+ * <p>
+ * Проверка токена в AuthFilter смотрит только в RevocationList и в БД не ходит.
+ * Таблица — источник истины между перезапусками и между экземплярами сервиса:
+ * фоновая задача раз в auth.revocation.refresh.seconds перечитывает действующие
+ * отзывы, перестраивает фильтр (истёкшие записи при этом выбывают) и удаляет
+ * из таблицы строки об уже истёкших токенах. Удаление пользователя на другом
+ * экземпляре приходит через шину инвалидации и перечитывает список сразу.
+ * </p>
+ */
+public class TokenRevocationService implements InvalidationListener {
+    private static final Logger logger = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    private static volatile TokenRevocationService shared;
+
+    private final RevokedTokenDao dao;
+    private final RevocationList revocationList;
+    private final long tokenLifetimeMillis;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param dao                 DAO таблицы отзывов
+     * @param revocationList      список отзыва в памяти
+     * @param tokenLifetimeMillis время жизни выдаваемых токенов
+     */
+    public TokenRevocationService(RevokedTokenDao dao, RevocationList revocationList, long tokenLifetimeMillis) {
+        this.dao = dao;
+        this.revocationList = revocationList;
+        this.tokenLifetimeMillis = tokenLifetimeMillis;
+    }
+
+    /**
+     * @return общий сервис отзыва процесса
+     */
+    public static TokenRevocationService shared() {
+        TokenRevocationService service = shared;
+        if (service == null) {
+            synchronized (TokenRevocationService.class) {
+                service = shared;
+                if (service == null) {
+                    service = new TokenRevocationService(new RevokedTokenDaoImpl(),
+                            RevocationList.shared(), JwtUtils.getTokenExpirationMs());
+                    MetricsRegistry.register("auth.revocation", RevocationList.shared()::metrics);
+                    shared = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Отзывает один токен (например, при выходе).
+     *
+     * @param token проверенный токен
+     * @throws IllegalArgumentException если у токена нет jti (выдан до появления отзыва)
+     */
+    public void revokeToken(VerifiedToken token) {
+        if (token.getTokenId() == null) {
+            throw new IllegalArgumentException("Токен без идентификатора нельзя отозвать");
+        }
+        long userId = token.getUser().getId();
+        dao.revokeToken(token.getTokenId(), userId, token.getExpiresAtMillis());
+        revocationList.revokeToken(token.getTokenId(), token.getExpiresAtMillis());
+        logger.info("Отозван токен пользователя {}", token.getUser().getUsername());
+    }
+
+    /**
+     * Отзывает все уже выданные токены пользователя (например, при его удалении).
+     *
+     * @param userId идентификатор пользователя
+     */
+    public void revokeUser(long userId) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + tokenLifetimeMillis;
+        dao.revokeUser(userId, now, expiresAt);
+        revocationList.revokeUser(userId, now, expiresAt);
+        JwtUtils.invalidateCachedTokens(userId);
+        logger.info("Отозваны все токены пользователя {}", userId);
+    }
+
+    /**
+     * Перечитывает действующие отзывы из БД, перестраивает список в памяти
+     * и удаляет из таблицы истёкшие записи.
+     */
+    public void refresh() {
+        Map<String, Long> tokens = new HashMap<>();
+        Map<Long, long[]> users = new HashMap<>();
+        for (RevokedToken r : dao.findActive()) {
+            if (r.getTokenId() != null) {
+                tokens.merge(r.getTokenId(), r.getExpiresAtMillis(), Math::max);
+            } else {
+                users.merge(r.getUserId(), new long[]{r.getRevokedAtMillis(), r.getExpiresAtMillis()},
+                        (a, b) -> new long[]{Math.max(a[0], b[0]), Math.max(a[1], b[1])});
+            }
+        }
+        revocationList.replaceAll(tokens, users);
+        dao.deleteExpired();
+        logger.debug("Список отзыва обновлён: {} токенов, {} пользователей", tokens.size(), users.size());
+    }
+
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.USER) {
+            JwtUtils.invalidateCachedTokens(event.getId());
+            refresh();
+        }
+    }
+
+    @Override
+    public void onResync() {
+        refresh();
+    }
+
+    /**
+     * Загружает список отзыва и запускает его периодическое обновление.
+     *
+     * @param periodSeconds период обновления в секундах
+     */
+    public synchronized void start(long periodSeconds) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "token-revocation-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                logger.error("Ошибка обновления списка отзыва токенов", e);
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+        logger.info("Запущено обновление списка отзыва токенов, период={} с", periodSeconds);
+    }
+
+    /** Останавливает периодическое обновление */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
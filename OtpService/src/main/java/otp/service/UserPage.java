@@ -0,0 +1,36 @@
+package otp.service;
+
+import otp.model.UserSummary;
+
+import java.util.List;
+
+/**
+ * Страница списка пользователей при постраничной выборке по ключу (keyset).
+ */
+public class UserPage {
+    private final List<UserSummary> items;
+    private final Long nextCursor;
+
+    /**
+     * @param items      пользователи страницы в порядке возрастания id
+     * @param nextCursor курсор следующей страницы или null, если страница последняя
+     */
+    public UserPage(List<UserSummary> items, Long nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return пользователи страницы в порядке возрастания id
+     */
+    public List<UserSummary> getItems() {
+        return items;
+    }
+
+    /**
+     * @return значение параметра after для следующей страницы или null на последней странице
+     */
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
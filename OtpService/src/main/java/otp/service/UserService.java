@@ -3,24 +3,39 @@ package otp.service;
 import otp.dao.UserDao;
 import otp.model.User;
 import otp.model.UserRole;
-import otp.util.PasswordEncoder;
 import otp.util.JwtUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.util.UUID;
 
 public class UserService {
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
     private final UserDao userDao;
+    private final PasswordHasher passwordHasher;
+    /**
+     * Хеш, с которым сверяется пароль несуществующего пользователя, чтобы ответ занимал
+     * столько же времени, сколько неверный пароль. Считается при первой надобности
+     * с текущим числом итераций PBKDF2.
+     */
+    private volatile String dummyPasswordHash;
 
     public UserService(UserDao userDao) {
+        this(userDao, PasswordHasher.shared());
+    }
+
+    public UserService(UserDao userDao, PasswordHasher passwordHasher) {
         this.userDao = userDao;
+        this.passwordHasher = passwordHasher;
     }
 
     /**
      * Регистрирует нового пользователя.
-     * @throws IllegalArgumentException если логин уже занят или если пытаются создать второго администратора.
+     * Занятость логина и единственность администратора проверяет сама вставка (UserDao.register),
+     * так что регистрация — одно обращение к БД без гонки между проверкой и созданием.
+     * @throws IllegalArgumentException если логин уже занят.
+     * @throws IllegalStateException если пытаются создать второго администратора.
+     * @throws PasswordHashingBusyException если пул хеширования паролей перегружен.
      */
     public void register(String username, String password, UserRole role) {
         if (username == null || username.trim().isEmpty() || password == null || password.length() < 6) {
@@ -28,57 +43,75 @@ public class UserService {
             throw new IllegalArgumentException("Имя пользователя и пароль обязательны. Пароль должен содержать минимум 6 символов.");
         }
 
-        if (userDao.findByUsername(username) != null) {
-            logger.warn("Регистрация не выполнена: Имя пользователя {} уже существует", username);
-            throw new IllegalArgumentException("Имя пользователя уже существует");
-        }
-
-        if (role == UserRole.ADMIN && userDao.adminExists()) {
-            logger.warn("Регистрация не выполнена: Попытка зарегистрировать второго администратора: {}", username);
-            throw new IllegalStateException("Администратор уже существует");
-        }
-
-        String hashed = PasswordEncoder.hash(password);
+        String hashed = passwordHasher.hash(password);
         User user = new User(null, username, hashed, role);
-        userDao.create(user);
+        switch (userDao.register(user)) {
+            case USERNAME_TAKEN:
+                logger.warn("Регистрация не выполнена: Имя пользователя {} уже существует", username);
+                throw new IllegalArgumentException("Имя пользователя уже существует");
+            case ADMIN_EXISTS:
+                logger.warn("Регистрация не выполнена: Попытка зарегистрировать второго администратора: {}", username);
+                throw new IllegalStateException("Администратор уже существует");
+            default:
+                break;
+        }
         logger.info("Зарегистрирован новый пользователь: {} с ролью {}", username, role);
     }
 
-    /**
-     * Проверяет, существует ли уже администратор.
-     * @return true, если администратор существует, иначе false
-     */
-    public boolean adminExists() {
-        return userDao.adminExists();
-    }
-
     /**
      * Аутентифицирует пользователя и возвращает JWT-токен.
+     * Пароль проверяется в пуле хеширования; хеш в устаревшем формате
+     * (SHA-256 или меньше итераций PBKDF2, чем в настройках) заменяется новым.
+     * Для несуществующего пользователя пароль всё равно проверяется по фиктивному хешу,
+     * чтобы по времени ответа нельзя было узнать, занят ли логин.
      * @throws IllegalArgumentException если пользователь не найден или пароль неверен.
+     * @throws PasswordHashingBusyException если пул хеширования паролей перегружен.
      */
     public String login(String username, String password) {
         User user = userDao.findByUsername(username);
         if (user == null) {
+            passwordHasher.verify(password, dummyPasswordHash());
             logger.warn("Вход не выполнен: Пользователь не найден {}", username);
             throw new IllegalArgumentException("Неверное имя пользователя или пароль");
         }
 
-        if (!PasswordEncoder.matches(password, user.getPasswordHash())) {
+        PasswordHasher.Verification verification = passwordHasher.verify(password, user.getPasswordHash());
+        if (!verification.matches()) {
             logger.warn("Вход не выполнен: Неверный пароль для {}", username);
             throw new IllegalArgumentException("Неверное имя пользователя или пароль");
         }
+        if (verification.getUpgradedHash() != null) {
+            upgradePasswordHash(user, verification.getUpgradedHash());
+        }
 
         String token = JwtUtils.generateToken(user);
         logger.info("Пользователь {} успешно вошел в систему, сгенерирован JWT-токен", username);
         return token;
     }
 
-    public User findById(Long id) {
-        return userDao.findById(id);
+    private String dummyPasswordHash() {
+        String hash = dummyPasswordHash;
+        if (hash == null) {
+            // Гонка безобидна: в худшем случае хеш посчитают несколько раз
+            hash = passwordHasher.hash(UUID.randomUUID().toString());
+            dummyPasswordHash = hash;
+        }
+        return hash;
     }
 
-    public List<User> findAllWithoutAdmins() {
-        return userDao.findAllUsersWithoutAdmins();
+    private void upgradePasswordHash(User user, String newHash) {
+        try {
+            userDao.updatePasswordHash(user.getId(), newHash);
+            user.setPasswordHash(newHash);
+            logger.info("Хеш пароля пользователя {} обновлён до текущих настроек", user.getUsername());
+        } catch (RuntimeException e) {
+            // Вход уже подтверждён; хеш обновится при следующем входе
+            logger.warn("Не удалось обновить хеш пароля пользователя {}: {}", user.getUsername(), e.getMessage());
+        }
+    }
+
+    public User findById(Long id) {
+        return userDao.findById(id);
     }
 
     public void deleteUser(Long id) {
@@ -0,0 +1,33 @@
+package otp.service;
+
+/**
+ * Элемент пакетной проверки OTP: чей код, для какой операции и само значение.
+ */
+public class ValidateItem {
+    private final Long userId;
+    private final String operationId;
+    private final String code;
+
+    /**
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции
+     * @param code        введённый код
+     */
+    public ValidateItem(Long userId, String operationId, String code) {
+        this.userId = userId;
+        this.operationId = operationId;
+        this.code = code;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getOperationId() {
+        return operationId;
+    }
+
+    public String getCode() {
+        return code;
+    }
+}
@@ -1,5 +1,6 @@
 package otp.service.notification;
 
+import otp.util.Deadline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +17,8 @@ import java.util.Properties;
 public class EmailNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(EmailNotificationService.class);
 
+    private final Properties props;
+    private final Authenticator authenticator;
     private final Session session;
     private final String fromAddress;
 
@@ -24,8 +27,9 @@ public class EmailNotificationService implements NotificationService {
      */
     public EmailNotificationService() {
         Properties props = loadConfig();
+        this.props = props;
         this.fromAddress = props.getProperty("email.from");
-        this.session = Session.getInstance(props, new Authenticator() {
+        this.authenticator = new Authenticator() {
             @Override
             protected PasswordAuthentication getPasswordAuthentication() {
                 return new PasswordAuthentication(
@@ -33,7 +37,8 @@ public class EmailNotificationService implements NotificationService {
                         props.getProperty("email.password")
                 );
             }
-        });
+        };
+        this.session = Session.getInstance(props, authenticator);
     }
 
     /**
@@ -63,6 +68,29 @@ public class EmailNotificationService implements NotificationService {
      */
     @Override
     public void sendCode(String recipientEmail, String code) {
+        send(session, recipientEmail, code);
+    }
+
+    /**
+     * Отправляет письмо, ограничивая таймауты SMTP оставшимся бюджетом запроса.
+     */
+    @Override
+    public void sendCode(String recipientEmail, String code, Deadline deadline) {
+        if (deadline == null) {
+            send(session, recipientEmail, code);
+            return;
+        }
+        Deadline.checkCurrent("отправка email");
+        String timeout = String.valueOf(Math.max(1, deadline.remainingMillis()));
+        Properties timed = new Properties();
+        timed.putAll(props);
+        timed.setProperty("mail.smtp.connectiontimeout", timeout);
+        timed.setProperty("mail.smtp.timeout", timeout);
+        timed.setProperty("mail.smtp.writetimeout", timeout);
+        send(Session.getInstance(timed, authenticator), recipientEmail, code);
+    }
+
+    private void send(Session session, String recipientEmail, String code) {
         try {
             Message message = new MimeMessage(session);
             message.setFrom(new InternetAddress(fromAddress));
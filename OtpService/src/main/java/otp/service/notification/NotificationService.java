@@ -1,5 +1,7 @@
 package otp.service.notification;
 
+import otp.util.Deadline;
+
 /**
  * Интерфейс для отправки OTP-кодов.
  * Реализации данного интерфейса отвечают за отправку кода
@@ -17,4 +19,17 @@ public interface NotificationService {
      * @param code      строковое представление OTP-кода.
      */
     void sendCode(String recipient, String code);
+
+    /**
+     * Отправляет одноразовый код, укладываясь в крайний срок запроса.
+     * Реализации, обращающиеся к внешним системам, ограничивают свои
+     * таймауты оставшимся временем; по умолчанию срок не учитывается.
+     *
+     * @param recipient адрес или идентификатор получателя
+     * @param code      строковое представление OTP-кода
+     * @param deadline  крайний срок запроса или null, если он не задан
+     */
+    default void sendCode(String recipient, String code, Deadline deadline) {
+        sendCode(recipient, code);
+    }
 }
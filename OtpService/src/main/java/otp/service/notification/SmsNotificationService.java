@@ -13,6 +13,8 @@ import org.jsmpp.session.BindParameter;
 import org.jsmpp.session.SMPPSession;
 import org.jsmpp.util.AbsoluteTimeFormatter;
 import org.jsmpp.util.TimeFormatter;
+import otp.util.Deadline;
+import otp.util.DeadlineExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,26 +62,40 @@ public class SmsNotificationService implements NotificationService {
 
     @Override
     public void sendCode(String recipientPhone, String code) {
+        sendCode(recipientPhone, code, null);
+    }
+
+    /**
+     * Отправляет SMS, ограничивая время подключения и ответа SMSC оставшимся бюджетом запроса.
+     */
+    @Override
+    public void sendCode(String recipientPhone, String code, Deadline deadline) {
         SMPPSession session = null;
         try {
+            Deadline.checkCurrent("отправка SMS");
+
             // Создаем сессию SMPP
             session = new SMPPSession();
 
-            // Подключаемся к SMPP серверу
-            session.connectAndBind(
-                host,
-                port,
-                new BindParameter(
-                    BindType.BIND_TX,
-                    systemId,
-                    password,
-                    systemType,
-                    TypeOfNumber.UNKNOWN,
-                    NumberingPlanIndicator.UNKNOWN,
-                    null
-                )
+            BindParameter bindParameter = new BindParameter(
+                BindType.BIND_TX,
+                systemId,
+                password,
+                systemType,
+                TypeOfNumber.UNKNOWN,
+                NumberingPlanIndicator.UNKNOWN,
+                null
             );
 
+            // Подключаемся к SMPP серверу
+            if (deadline != null) {
+                long timeout = Math.max(1, deadline.remainingMillis());
+                session.setTransactionTimer(timeout);
+                session.connectAndBind(host, port, bindParameter, timeout);
+            } else {
+                session.connectAndBind(host, port, bindParameter);
+            }
+
             // Формируем сообщение
             String message = "Ваш OTP-код: " + code;
 
@@ -105,6 +121,9 @@ public class SmsNotificationService implements NotificationService {
             );
 
             logger.info("OTP-код отправлен по SMS на {}", recipientPhone);
+        } catch (DeadlineExceededException e) {
+            logger.warn("Отправка SMS на {} отменена: {}", recipientPhone, e.getMessage());
+            throw e;
         } catch (Exception e) {
             logger.error("Ошибка при отправке SMS на {}", recipientPhone, e);
             throw new RuntimeException("Ошибка отправки SMS", e);
@@ -1,10 +1,13 @@
 package otp.service.notification;
 
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import otp.util.Deadline;
+import otp.util.DeadlineExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +55,14 @@ public class TelegramNotificationService implements NotificationService {
      */
     @Override
     public void sendCode(String recipientChatId, String code) {
+        sendCode(recipientChatId, code, null);
+    }
+
+    /**
+     * Отправляет сообщение, ограничивая таймауты HTTP-клиента оставшимся бюджетом запроса.
+     */
+    @Override
+    public void sendCode(String recipientChatId, String code, Deadline deadline) {
         String chatId = (recipientChatId == null || recipientChatId.isBlank())
                 ? defaultChatId
                 : recipientChatId;
@@ -65,6 +76,15 @@ public class TelegramNotificationService implements NotificationService {
                     .build();
 
             HttpGet request = new HttpGet(uri);
+            if (deadline != null) {
+                Deadline.checkCurrent("отправка Telegram");
+                int timeout = (int) Math.min(Integer.MAX_VALUE, Math.max(1, deadline.remainingMillis()));
+                request.setConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeout)
+                        .setConnectionRequestTimeout(timeout)
+                        .setSocketTimeout(timeout)
+                        .build());
+            }
             try (CloseableHttpResponse response = httpClient.execute(request)) {
                 int status = response.getStatusLine().getStatusCode();
                 if (status != 200) {
@@ -76,6 +96,9 @@ public class TelegramNotificationService implements NotificationService {
         } catch (URISyntaxException e) {
             logger.error("Неверный URI для Telegram API", e);
             throw new RuntimeException("Неверный Telegram API URI", e);
+        } catch (DeadlineExceededException e) {
+            logger.warn("Отправка в Telegram chatId {} отменена: {}", chatId, e.getMessage());
+            throw e;
         } catch (Exception e) {
             logger.error("Не удалось отправить сообщение Telegram на {}", chatId, e);
             throw new RuntimeException("Ошибка отправки Telegram", e);
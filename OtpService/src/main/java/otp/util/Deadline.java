@@ -0,0 +1,83 @@
+package otp.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Крайний срок (deadline) обработки запроса.
+ * <p>
+ * Задаётся на входе запроса (DeadlineFilter) и хранится в ThreadLocal потока,
+ * который обрабатывает запрос. Сервисы и DAO берут его через {@link #current()}
+ * и ограничивают им таймауты JDBC и каналов уведомлений, а уже истёкшую
+ * работу не начинают вовсе.
+ * </p>
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * Создаёт крайний срок через указанное время от текущего момента.
+     */
+    public static Deadline after(long amount, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(amount));
+    }
+
+    /**
+     * @return крайний срок текущего запроса или null, если он не задан
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Устанавливает крайний срок для текущего потока (null — снять).
+     */
+    public static void setCurrent(Deadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * Проверяет крайний срок текущего запроса перед началом очередного этапа работы.
+     *
+     * @param stage название этапа (для сообщения об ошибке)
+     * @throws DeadlineExceededException если срок уже истёк
+     */
+    public static void checkCurrent(String stage) {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException("Истёк срок обработки запроса перед этапом: " + stage);
+        }
+    }
+
+    /**
+     * @return true, если крайний срок уже наступил
+     */
+    public boolean isExpired() {
+        return System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    /**
+     * @return оставшееся время в миллисекундах (0, если срок истёк)
+     */
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    /**
+     * Оставшееся время в целых секундах с округлением вверх — для JDBC-таймаутов,
+     * которые задаются в секундах. Минимум 1, так как 0 в JDBC означает «без ограничения».
+     */
+    public int remainingSecondsCeil() {
+        long millis = remainingMillis();
+        return (int) Math.max(1, (millis + 999) / 1000);
+    }
+}
@@ -0,0 +1,17 @@
+package otp.util;
+
+/**
+ * Выбрасывается, когда крайний срок обработки запроса истёк
+ * и дальнейшая работа бессмысленна: клиент уже не ждёт ответа.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
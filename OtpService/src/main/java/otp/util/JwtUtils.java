@@ -5,6 +5,7 @@ import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import otp.config.AppConfig;
 import otp.model.User;
 import otp.model.UserRole;
 import org.slf4j.Logger;
@@ -13,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.Properties;
+import java.util.UUID;
 
 /**
  * Утилитный класс для работы с JWT-токенами.
@@ -39,8 +41,24 @@ public class JwtUtils {
     private static final Algorithm ALGORITHM = Algorithm.HMAC256(SECRET_KEY);
     private static final JWTVerifier VERIFIER = JWT.require(ALGORITHM).build();
 
+    /** Кэш проверенных токенов; null, если отключён (auth.token.cache.enabled=false) */
+    private static final VerifiedTokenCache TOKEN_CACHE = createTokenCache();
+
+    private static VerifiedTokenCache createTokenCache() {
+        if (!AppConfig.getBoolean("auth.token.cache.enabled", true)) {
+            logger.info("Кэш проверенных JWT-токенов отключён");
+            return null;
+        }
+        VerifiedTokenCache cache = new VerifiedTokenCache(
+                AppConfig.getInt("auth.token.cache.max.size", 100_000),
+                AppConfig.getInt("auth.token.cache.sweep.seconds", 60));
+        MetricsRegistry.register("auth.token.cache", cache::metrics);
+        return cache;
+    }
+
     /**
      * Генерирует JWT-токен для пользователя.
+     * Каждый токен получает уникальный идентификатор (jti), по которому его можно отозвать.
      * @param user Пользователь, для которого генерируется токен
      * @return JWT-токен в виде строки
      */
@@ -49,6 +67,7 @@ public class JwtUtils {
         Date expiryDate = new Date(now.getTime() + TOKEN_EXPIRATION_MS);
 
         String token = JWT.create()
+                .withJWTId(UUID.randomUUID().toString())
                 .withSubject(user.getId().toString())
                 .withClaim("username", user.getUsername())
                 .withClaim("role", user.getRole().name())
@@ -60,12 +79,46 @@ public class JwtUtils {
         return token;
     }
 
+    /**
+     * @return время жизни выдаваемых токенов в миллисекундах
+     */
+    public static long getTokenExpirationMs() {
+        return TOKEN_EXPIRATION_MS;
+    }
+
     /**
      * Проверяет JWT-токен и возвращает связанного пользователя.
+     * Токен, проверенный ранее и ещё не истёкший, берётся из кэша без проверки подписи;
+     * возвращаемый в этом случае объект User общий, изменять его нельзя.
+     * Отозванный токен (см. RevocationList) считается недействительным.
      * @param token JWT-токен для проверки
      * @return Объект User, извлеченный из токена, или null, если токен недействителен
      */
     public static User validateTokenAndGetUser(String token) {
+        VerifiedToken verified = verifyToken(token);
+        if (verified == null) {
+            return null;
+        }
+        User user = verified.getUser();
+        if (RevocationList.shared().isRevoked(verified.getTokenId(), user.getId(), verified.getIssuedAtMillis())) {
+            logger.warn("Отклонён отозванный JWT-токен пользователя {}", user.getUsername());
+            return null;
+        }
+        return user;
+    }
+
+    /**
+     * Проверяет подпись и срок действия токена (через кэш проверенных токенов), не проверяя отзыв.
+     * @param token JWT-токен для проверки
+     * @return сведения из токена или null, если токен недействителен
+     */
+    public static VerifiedToken verifyToken(String token) {
+        if (TOKEN_CACHE != null) {
+            VerifiedToken cached = TOKEN_CACHE.get(token);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try {
             DecodedJWT jwt = VERIFIER.verify(token);
 
@@ -78,7 +131,15 @@ public class JwtUtils {
             user.setUsername(username);
             user.setRole(UserRole.valueOf(roleStr));
 
-            return user;
+            Date issuedAt = jwt.getIssuedAt();
+            Date expiresAt = jwt.getExpiresAt();
+            VerifiedToken verified = new VerifiedToken(user, jwt.getId(),
+                    issuedAt != null ? issuedAt.getTime() : 0,
+                    expiresAt != null ? expiresAt.getTime() : Long.MAX_VALUE);
+            if (TOKEN_CACHE != null && expiresAt != null) {
+                TOKEN_CACHE.put(token, verified);
+            }
+            return verified;
         } catch (JWTVerificationException e) {
             logger.warn("Ошибка валидации JWT: {}", e.getMessage());
             return null;
@@ -87,4 +148,24 @@ public class JwtUtils {
             return null;
         }
     }
+
+    /**
+     * Удаляет из кэша проверенные токены пользователя: после удаления пользователя
+     * или смены роли его токены снова проходят полную проверку.
+     * @param userId идентификатор пользователя
+     */
+    public static void invalidateCachedTokens(long userId) {
+        if (TOKEN_CACHE != null) {
+            TOKEN_CACHE.invalidateUser(userId);
+        }
+    }
+
+    /**
+     * Очищает кэш проверенных токенов целиком.
+     */
+    public static void invalidateAllCachedTokens() {
+        if (TOKEN_CACHE != null) {
+            TOKEN_CACHE.invalidateAll();
+        }
+    }
 }
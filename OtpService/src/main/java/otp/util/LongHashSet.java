@@ -0,0 +1,129 @@
+package otp.util;
+
+import java.util.Arrays;
+
+/**
+ * Множество неотрицательных long с открытой адресацией: один массив long без объектов
+ * на элемент. Отрицательные значения зарезервированы под пустые и удалённые ячейки.
+ * Не потокобезопасно.
+ */
+public final class LongHashSet {
+    private static final long EMPTY = -1;
+    private static final long REMOVED = -2;
+
+    private long[] table;
+    private int size;
+    /** Занятые ячейки, включая удалённые */
+    private int filled;
+
+    /**
+     * @param expectedSize ожидаемое число элементов
+     */
+    public LongHashSet(int expectedSize) {
+        int length = 16;
+        while (length < expectedSize * 2) {
+            length <<= 1;
+        }
+        this.table = newTable(length);
+    }
+
+    /**
+     * @param value неотрицательное значение
+     * @return true, если значение есть в множестве
+     */
+    public boolean contains(long value) {
+        int mask = table.length - 1;
+        for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+            long t = table[i];
+            if (t == value) {
+                return true;
+            }
+            if (t == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @param value неотрицательное значение
+     * @return true, если значения не было и оно добавлено
+     */
+    public boolean add(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Отрицательное значение: " + value);
+        }
+        if ((filled + 1) * 2 > table.length) {
+            // Мало живых элементов — достаточно вычистить удалённые без роста таблицы
+            rehash(size * 4 > table.length ? table.length * 2 : table.length);
+        }
+        int mask = table.length - 1;
+        int tombstone = -1;
+        for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+            long t = table[i];
+            if (t == value) {
+                return false;
+            }
+            if (t == REMOVED && tombstone < 0) {
+                tombstone = i;
+            } else if (t == EMPTY) {
+                if (tombstone >= 0) {
+                    table[tombstone] = value;
+                } else {
+                    table[i] = value;
+                    filled++;
+                }
+                size++;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param value неотрицательное значение
+     * @return true, если значение было и удалено
+     */
+    public boolean remove(long value) {
+        int mask = table.length - 1;
+        for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+            long t = table[i];
+            if (t == value) {
+                table[i] = REMOVED;
+                size--;
+                return true;
+            }
+            if (t == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return число элементов
+     */
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int newLength) {
+        long[] old = table;
+        table = newTable(newLength);
+        size = 0;
+        filled = 0;
+        for (long t : old) {
+            if (t >= 0) {
+                add(t);
+            }
+        }
+    }
+
+    private static long[] newTable(int length) {
+        long[] t = new long[length];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+
+    private static int slot(long value, int mask) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        return (int) (z ^ (z >>> 32)) & mask;
+    }
+}
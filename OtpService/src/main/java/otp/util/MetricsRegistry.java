@@ -0,0 +1,44 @@
+package otp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Реестр метрик приложения.
+ * Компоненты регистрируют источник метрик под своим именем,
+ * а GET /admin/metrics отдаёт снимок всех источников.
+ */
+public final class MetricsRegistry {
+    private static final Map<String, Supplier<Map<String, Object>>> SOURCES = new ConcurrentSkipListMap<>();
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private MetricsRegistry() {}
+
+    /**
+     * Регистрирует (или заменяет) источник метрик.
+     * @param name   имя источника, например "server.executor"
+     * @param source поставщик текущих значений метрик
+     */
+    public static void register(String name, Supplier<Map<String, Object>> source) {
+        SOURCES.put(name, source);
+    }
+
+    /**
+     * Удаляет источник метрик.
+     * @param name имя источника
+     */
+    public static void unregister(String name) {
+        SOURCES.remove(name);
+    }
+
+    /**
+     * @return снимок метрик всех зарегистрированных источников
+     */
+    public static Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        SOURCES.forEach((name, source) -> result.put(name, source.get()));
+        return result;
+    }
+}
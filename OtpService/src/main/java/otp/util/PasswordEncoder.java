@@ -1,57 +1,147 @@
 package otp.util;
 
+import otp.config.AppConfig;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Утиль для хеширования паролей и проверки совпадения raw-пароля с сохранённым хешем.
+ * <p>
+ * Новые хеши — PBKDF2-HMAC-SHA256 со случайной солью в формате
+ * {@code pbkdf2$<итерации>$<соль base64>$<ключ base64>}; число итераций задаёт
+ * password.pbkdf2.iterations. Старые хеши (hex SHA-256 без соли) по-прежнему
+ * проверяются, а {@link #needsRehash(String)} сообщает, что их пора заменить.
+ * Вычисление намеренно дорогое, поэтому вызывается из PasswordHasher, а не из потока запроса.
+ * </p>
  */
 public final class PasswordEncoder {
     private static final Logger logger = LoggerFactory.getLogger(PasswordEncoder.class);
 
+    private static final String PBKDF2_PREFIX = "pbkdf2$";
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final int ITERATIONS = AppConfig.getInt("password.pbkdf2.iterations", 210_000);
+
     // Закрытый конструктор, чтобы нельзя было создать экземпляр
     private PasswordEncoder() {}
 
     /**
-     * Хеширует переданный пароль алгоритмом SHA-256 и возвращает HEX-представление.
+     * Хеширует пароль PBKDF2 с числом итераций из настроек.
      *
      * @param rawPassword исходный пароль
-     * @return hex-строка хеша
+     * @return строка хеша в формате pbkdf2$...
      */
     public static String hash(String rawPassword) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = digest.digest(rawPassword.getBytes(StandardCharsets.UTF_8));
-            return bytesToHex(hashBytes);
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("Не удалось получить алгоритм SHA-256 для хеширования пароля", e);
-            throw new IllegalStateException("Алгоритм SHA-256 недоступен", e);
-        }
+        return hash(rawPassword, ITERATIONS);
+    }
+
+    /**
+     * Хеширует пароль PBKDF2 с явно заданным числом итераций.
+     *
+     * @param rawPassword исходный пароль
+     * @param iterations  число итераций PBKDF2
+     * @return строка хеша в формате pbkdf2$...
+     */
+    public static String hash(String rawPassword, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] key = pbkdf2(rawPassword, salt, iterations);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PBKDF2_PREFIX + iterations + '$' + b64.encodeToString(salt) + '$' + b64.encodeToString(key);
     }
 
     /**
      * Проверяет, что rawPassword после хеширования совпадает с уже сохранённым хешем.
+     * Поддерживаются формат pbkdf2$... и старый hex SHA-256.
      *
      * @param rawPassword  сырой пароль
-     * @param storedHash   сохранённый хеш (hex-строка)
+     * @param storedHash   сохранённый хеш
      * @return true, если совпадают
      */
     public static boolean matches(String rawPassword, String storedHash) {
         if (storedHash == null || rawPassword == null) {
             return false;
         }
-        return hash(rawPassword).equalsIgnoreCase(storedHash);
+        if (!storedHash.startsWith(PBKDF2_PREFIX)) {
+            byte[] expected = storedHash.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            byte[] actual = legacySha256(rawPassword).getBytes(StandardCharsets.US_ASCII);
+            return MessageDigest.isEqual(expected, actual);
+        }
+        String[] parts = storedHash.split("\\$");
+        if (parts.length != 4) {
+            logger.warn("Некорректный формат сохранённого хеша пароля");
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            Base64.Decoder b64 = Base64.getDecoder();
+            byte[] salt = b64.decode(parts[2]);
+            byte[] expected = b64.decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(rawPassword, salt, iterations, expected.length * 8));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Некорректный формат сохранённого хеша пароля: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Нужно ли перехешировать пароль при следующем успешном входе:
+     * хеш в старом формате SHA-256 или с меньшим числом итераций, чем в настройках.
+     *
+     * @param storedHash сохранённый хеш
+     * @return true, если хеш устарел
+     */
+    public static boolean needsRehash(String storedHash) {
+        if (storedHash == null || !storedHash.startsWith(PBKDF2_PREFIX)) {
+            return true;
+        }
+        int end = storedHash.indexOf('$', PBKDF2_PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(storedHash.substring(PBKDF2_PREFIX.length(), end)) < ITERATIONS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] pbkdf2(String rawPassword, byte[] salt, int iterations) {
+        return pbkdf2(rawPassword, salt, iterations, KEY_BITS);
+    }
+
+    private static byte[] pbkdf2(String rawPassword, byte[] salt, int iterations, int keyBits) {
+        PBEKeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, keyBits);
+        try {
+            // SecretKeyFactory не потокобезопасен, поэтому берём новый на каждый вызов
+            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            logger.error("Не удалось вычислить PBKDF2 для пароля", e);
+            throw new IllegalStateException("Алгоритм " + PBKDF2_ALGORITHM + " недоступен", e);
+        } finally {
+            spec.clearPassword();
+        }
     }
 
-    // Помощник: перевод массива байт в hex
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    // Старый формат: hex SHA-256 без соли, используется только для проверки
+    private static String legacySha256(String rawPassword) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(rawPassword.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Не удалось получить алгоритм SHA-256 для хеширования пароля", e);
+            throw new IllegalStateException("Алгоритм SHA-256 недоступен", e);
         }
-        return sb.toString();
     }
 }
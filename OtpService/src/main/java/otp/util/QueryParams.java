@@ -0,0 +1,59 @@
+package otp.util;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Разбор строки запроса (query string) URI в карту параметров.
+ * Для повторяющихся параметров берётся первое значение.
+ */
+public final class QueryParams {
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private QueryParams() {}
+
+    /**
+     * @param rawQuery необработанная строка запроса (URI.getRawQuery(), может быть null)
+     * @return декодированные параметры; пустая карта, если строки нет
+     */
+    public static Map<String, String> parse(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+
+    /**
+     * Читает необязательный числовой параметр.
+     *
+     * @return значение или defaultValue, если параметр не задан или пуст
+     * @throws IllegalArgumentException если значение не является числом
+     */
+    public static long getLong(Map<String, String> params, String name, long defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Параметр " + name + " должен быть числом");
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,194 @@
+package otp.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасный ограничитель частоты запросов по числовому ключу
+ * (id пользователя, IPv4-адрес и т.п.).
+ * <p>
+ * Каждый ключ — это «ведро токенов», реализованное по алгоритму GCRA:
+ * состояние ведра хранится в одном long (теоретическое время прибытия
+ * следующего запроса) и обновляется через CAS, без блокировок.
+ * Ключи распределены по нескольким полосам (stripes) с ограниченной ёмкостью;
+ * давно не использовавшиеся вёдра удаляются фоновой задачей. Запрос нового ключа
+ * заполненной полосы отклоняется, пока фоновая задача не освободит место: пропуск без
+ * учёта дал бы тому, кто заполнил таблицу ключей, неограниченное число попыток.
+ * </p>
+ */
+public class RateLimiter {
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rate-limiter-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final int STRIPES = 16;
+
+    private final String name;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final long idleNanos;
+    private final int maxKeysPerStripe;
+
+    private final List<ConcurrentHashMap<Long, Bucket>> stripes = new ArrayList<>(STRIPES);
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+
+    /**
+     * @param name          имя ограничителя (для метрик)
+     * @param permits       сколько запросов разрешено за период
+     * @param periodSeconds длина периода в секундах
+     * @param burst         сколько запросов можно выполнить подряд без ожидания
+     * @param maxKeys       максимальное число отслеживаемых ключей
+     * @param idleSeconds   через сколько секунд простоя ведро удаляется
+     */
+    public RateLimiter(String name, int permits, int periodSeconds, int burst, int maxKeys, int idleSeconds) {
+        if (permits <= 0 || periodSeconds <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Параметры ограничителя " + name + " должны быть положительными");
+        }
+        this.name = name;
+        this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(periodSeconds) / permits;
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.maxKeysPerStripe = Math.max(1, maxKeys / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new ConcurrentHashMap<>());
+        }
+        long sweepSeconds = Math.max(1, idleSeconds / 2);
+        SWEEPER.scheduleWithFixedDelay(this::evictIdle, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Пытается забрать один токен из ведра ключа.
+     *
+     * @param key ключ (id пользователя, адрес клиента)
+     * @return 0, если запрос разрешён; иначе — через сколько наносекунд появится токен
+     */
+    public long tryAcquire(long key) {
+        long now = System.nanoTime();
+        Bucket bucket = bucketFor(key, now);
+        if (bucket == null) {
+            overflowed.increment();
+            limited.increment();
+            return emissionIntervalNanos;
+        }
+        while (true) {
+            long tat = bucket.tat;
+            long newTat = Math.max(tat, now) + emissionIntervalNanos;
+            long overshoot = newTat - now - emissionIntervalNanos - burstToleranceNanos;
+            if (overshoot > 0) {
+                limited.increment();
+                return overshoot;
+            }
+            if (TAT.compareAndSet(bucket, tat, newTat)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Проверяет лимит ключа, не забирая токен.
+     *
+     * @param key ключ (id пользователя, адрес клиента)
+     * @return 0, если запрос сейчас был бы разрешён; иначе — через сколько наносекунд появится токен
+     */
+    public long waitNanos(long key) {
+        Bucket bucket = stripes.get(stripeOf(key)).get(key);
+        if (bucket == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long newTat = Math.max(bucket.tat, now) + emissionIntervalNanos;
+        return Math.max(0, newTat - now - emissionIntervalNanos - burstToleranceNanos);
+    }
+
+    /**
+     * @return ведро ключа или null, если ключа нет, а полоса заполнена
+     */
+    private Bucket bucketFor(long key, long now) {
+        ConcurrentHashMap<Long, Bucket> map = stripes.get(stripeOf(key));
+        Bucket bucket = map.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (map.size() >= maxKeysPerStripe) {
+            return null;
+        }
+        return map.computeIfAbsent(key, k -> new Bucket(now));
+    }
+
+    private static int stripeOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 60) & (STRIPES - 1);
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (ConcurrentHashMap<Long, Bucket> map : stripes) {
+            evictIdle(map, now);
+        }
+    }
+
+    /**
+     * Ведро, которое полностью восстановилось и не трогалось idleNanos,
+     * ничем не отличается от отсутствующего — его можно удалить.
+     */
+    private void evictIdle(ConcurrentHashMap<Long, Bucket> map, long now) {
+        Iterator<Bucket> it = map.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().tat > idleNanos) {
+                it.remove();
+                evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * Снимок метрик для MetricsRegistry.
+     */
+    public Map<String, Object> metrics() {
+        int keys = 0;
+        for (ConcurrentHashMap<Long, Bucket> map : stripes) {
+            keys += map.size();
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("allowed", allowed.sum());
+        m.put("limited", limited.sum());
+        m.put("keys", keys);
+        m.put("evicted", evicted.sum());
+        m.put("overflowed", overflowed.sum());
+        return m;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private static final AtomicLongFieldUpdater<Bucket> TAT =
+            AtomicLongFieldUpdater.newUpdater(Bucket.class, "tat");
+
+    /**
+     * Состояние ведра: теоретическое время прибытия (TAT) следующего запроса в System.nanoTime().
+     */
+    private static final class Bucket {
+        volatile long tat;
+
+        Bucket(long tat) {
+            this.tat = tat;
+        }
+    }
+}
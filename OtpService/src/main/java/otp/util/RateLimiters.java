@@ -0,0 +1,65 @@
+package otp.util;
+
+import otp.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общие для процесса ограничители частоты по маршрутам.
+ * <p>
+ * Ограничитель маршрута и измерения создаётся один раз по настройкам
+ * ratelimit.&lt;route&gt;.&lt;dimension&gt;.* и используется всеми транспортами:
+ * HTTP-фильтр и бинарный эндпоинт расходуют одну и ту же квоту пользователя.
+ * </p>
+ */
+public final class RateLimiters {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiters.class);
+
+    private static final Map<String, Optional<RateLimiter>> LIMITERS = new ConcurrentHashMap<>();
+
+    // Закрытый конструктор, чтобы нельзя было создать экземпляр
+    private RateLimiters() {}
+
+    /**
+     * @param route     имя маршрута в настройках, например "otp.generate"
+     * @param dimension измерение: "user" или "ip"
+     * @return общий ограничитель или null, если лимит не настроен (permits=0)
+     */
+    public static RateLimiter get(String route, String dimension) {
+        String name = "ratelimit." + route + "." + dimension;
+        return LIMITERS.computeIfAbsent(name, RateLimiters::create).orElse(null);
+    }
+
+    /**
+     * Ключ строки (например, логина) для ограничителя: 64-битный FNV-1a от UTF-8 байтов.
+     */
+    public static long stringKey(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Optional<RateLimiter> create(String name) {
+        String prefix = name + ".";
+        int permits = AppConfig.getInt(prefix + "permits", 0);
+        if (permits <= 0) {
+            return Optional.empty();
+        }
+        int periodSeconds = AppConfig.getInt(prefix + "period.seconds", 60);
+        int burst = AppConfig.getInt(prefix + "burst", permits);
+        int maxKeys = AppConfig.getInt("ratelimit.max.keys", 100_000);
+        int idleSeconds = AppConfig.getInt("ratelimit.idle.seconds", 600);
+
+        RateLimiter limiter = new RateLimiter(name, permits, periodSeconds, burst, maxKeys, idleSeconds);
+        MetricsRegistry.register(name, limiter::metrics);
+        logger.info("Лимит {}: {} запросов за {} с, burst={}", name, permits, periodSeconds, burst);
+        return Optional.of(limiter);
+    }
+}
@@ -0,0 +1,83 @@
+package otp.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Защита от повторного использования: помнит 63-битные отпечатки уже принятых значений
+ * до момента, когда значение истекло бы само.
+ * <p>
+ * Отпечатки хранятся в {@link LongHashSet} по корзинам момента истечения (bucketMillis),
+ * поэтому память — около 16 байт на отпечаток, а истёкшие корзины выбрасываются целиком
+ * без обхода элементов.
+ * </p>
+ */
+public final class ReplayGuard {
+    private final long bucketMillis;
+    /** Номер корзины (момент истечения / bucketMillis, с округлением вверх) → отпечатки */
+    private final TreeMap<Long, LongHashSet> buckets = new TreeMap<>();
+    private int size;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+
+    /**
+     * @param bucketMillis ширина корзины по времени истечения
+     */
+    public ReplayGuard(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Ширина корзины должна быть положительной");
+        }
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Отмечает значение использованным.
+     *
+     * @param fingerprint     отпечаток значения (знаковый бит отбрасывается)
+     * @param expiresAtMillis момент, после которого значение не принимается и без защиты
+     * @return true, если значение использовано впервые; false — повтор
+     */
+    public synchronized boolean markUsed(long fingerprint, long expiresAtMillis) {
+        long now = System.currentTimeMillis();
+        purge(now);
+        long fp = fingerprint & Long.MAX_VALUE;
+        for (LongHashSet set : buckets.values()) {
+            if (set.contains(fp)) {
+                replays.increment();
+                return false;
+            }
+        }
+        if (expiresAtMillis > now) {
+            long bucket = (expiresAtMillis + bucketMillis - 1) / bucketMillis;
+            buckets.computeIfAbsent(bucket, b -> new LongHashSet(64)).add(fp);
+            size++;
+        }
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * @return текущие значения метрик защиты
+     */
+    public synchronized Map<String, Object> metrics() {
+        purge(System.currentTimeMillis());
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("size", size);
+        metrics.put("buckets", buckets.size());
+        metrics.put("accepted", accepted.sum());
+        metrics.put("replays", replays.sum());
+        return metrics;
+    }
+
+    private void purge(long now) {
+        // Корзина b хранит сроки из ((b-1)*bucketMillis, b*bucketMillis]: истекла, когда b*bucketMillis <= now
+        Map<Long, LongHashSet> expired = buckets.headMap(now / bucketMillis, true);
+        for (LongHashSet set : expired.values()) {
+            size -= set.size();
+        }
+        expired.clear();
+    }
+}
@@ -0,0 +1,236 @@
+package otp.util;
+
+import otp.config.AppConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Список отозванных JWT-токенов в памяти.
+ * <p>
+ * Отзываются отдельные токены (по jti) и все токены пользователя, выданные до
+ * момента отзыва (например, при удалении пользователя). Точные данные хранятся
+ * в двух картах, а перед ними стоит фильтр Блума: для неотозванного токена
+ * проверка почти всегда заканчивается на фильтре — без блокировок, выделения
+ * памяти и обращения к БД. Карты проверяются только при срабатывании фильтра.
+ * </p>
+ * <p>
+ * Из фильтра нельзя удалить элемент, поэтому он периодически перестраивается
+ * по точным данным ({@link #replaceAll}), а записи, чьи токены уже истекли, при этом выбывают.
+ * </p>
+ */
+public final class RevocationList {
+    private static final RevocationList SHARED = new RevocationList(
+            AppConfig.getInt("auth.revocation.bloom.bits", 1 << 20),
+            AppConfig.getInt("auth.revocation.bloom.hashes", 4));
+
+    private final int bits;
+    private final int hashes;
+
+    /** Фильтр и точные данные; при перестроении заменяются целиком */
+    private volatile State state;
+    private final Object writeLock = new Object();
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder filterPositives = new LongAdder();
+    private final LongAdder revokedHits = new LongAdder();
+
+    /**
+     * @param bits   размер фильтра Блума в битах (округляется вверх до степени двойки)
+     * @param hashes число хеш-функций фильтра
+     */
+    public RevocationList(int bits, int hashes) {
+        if (bits <= 0 || hashes <= 0) {
+            throw new IllegalArgumentException("Параметры фильтра отзыва должны быть положительными");
+        }
+        this.bits = Integer.highestOneBit(Math.max(64, bits - 1)) << 1;
+        this.hashes = hashes;
+        this.state = new State(this.bits);
+    }
+
+    /**
+     * @return общий список отзыва процесса
+     */
+    public static RevocationList shared() {
+        return SHARED;
+    }
+
+    /**
+     * Проверяет, отозван ли токен.
+     *
+     * @param tokenId        jti токена или null
+     * @param userId         id пользователя из sub
+     * @param issuedAtMillis момент выдачи токена (iat)
+     * @return true, если токен отозван сам или вместе со всеми токенами пользователя
+     */
+    public boolean isRevoked(String tokenId, long userId, long issuedAtMillis) {
+        checks.increment();
+        State s = state;
+        if (tokenId != null && mightContain(s.filter, tokenHash(tokenId))) {
+            filterPositives.increment();
+            Long expiresAt = s.tokens.get(tokenId);
+            if (expiresAt != null) {
+                revokedHits.increment();
+                return true;
+            }
+        }
+        if (mightContain(s.filter, userHash(userId))) {
+            filterPositives.increment();
+            long[] revocation = s.users.get(userId);
+            if (revocation != null && issuedAtMillis <= revocation[0]) {
+                revokedHits.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Отзывает один токен.
+     *
+     * @param tokenId         jti токена
+     * @param expiresAtMillis момент истечения токена: после него запись не нужна
+     */
+    public void revokeToken(String tokenId, long expiresAtMillis) {
+        synchronized (writeLock) {
+            state.addToken(tokenId, expiresAtMillis);
+        }
+    }
+
+    /**
+     * Отзывает все токены пользователя, выданные не позже revokedAtMillis.
+     *
+     * @param userId          id пользователя
+     * @param revokedAtMillis момент отзыва
+     * @param expiresAtMillis момент, когда истечёт последний из отозванных токенов
+     */
+    public void revokeUser(long userId, long revokedAtMillis, long expiresAtMillis) {
+        synchronized (writeLock) {
+            state.addUser(userId, revokedAtMillis, expiresAtMillis);
+        }
+    }
+
+    /**
+     * Перестраивает фильтр по списку из БД и текущим записям; истёкшие записи отбрасываются.
+     * Текущие записи сохраняются, чтобы не потерять отзыв, сделанный во время чтения из БД.
+     *
+     * @param revokedTokens отозванные токены: jti → момент истечения
+     * @param revokedUsers  отозванные пользователи: id → {момент отзыва, момент истечения}
+     */
+    public void replaceAll(Map<String, Long> revokedTokens, Map<Long, long[]> revokedUsers) {
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            State current = state;
+            State rebuilt = new State(bits);
+            Map<String, Long> allTokens = new HashMap<>(current.tokens);
+            allTokens.putAll(revokedTokens);
+            allTokens.forEach((jti, expiresAt) -> {
+                if (expiresAt > now) {
+                    rebuilt.addToken(jti, expiresAt);
+                }
+            });
+            Map<Long, long[]> allUsers = new HashMap<>(current.users);
+            allUsers.putAll(revokedUsers);
+            allUsers.forEach((userId, revocation) -> {
+                if (revocation[1] > now) {
+                    rebuilt.addUser(userId, revocation[0], revocation[1]);
+                }
+            });
+            state = rebuilt;
+        }
+    }
+
+    /**
+     * @return текущие значения метрик списка отзыва
+     */
+    public Map<String, Object> metrics() {
+        State s = state;
+        AtomicLongArray f = s.filter;
+        long setBits = 0;
+        for (int i = 0; i < f.length(); i++) {
+            setBits += Long.bitCount(f.get(i));
+        }
+        long c = checks.sum();
+        long p = filterPositives.sum();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("revokedTokens", s.tokens.size());
+        metrics.put("revokedUsers", s.users.size());
+        metrics.put("checks", c);
+        metrics.put("filterPositives", p);
+        metrics.put("revokedHits", revokedHits.sum());
+        metrics.put("falsePositives", p - revokedHits.sum());
+        metrics.put("filterBits", bits);
+        metrics.put("filterFill", (double) setBits / bits);
+        return metrics;
+    }
+
+    private boolean mightContain(AtomicLongArray f, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = bits - 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((f.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(AtomicLongArray f, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = bits - 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & mask;
+            long m = 1L << bit;
+            f.getAndUpdate(bit >>> 6, w -> w | m);
+        }
+    }
+
+    /**
+     * Фильтр Блума и точные данные одного поколения. Запись идёт под writeLock:
+     * сначала в карту, затем в фильтр, поэтому фильтр не пропустит уже видимую запись.
+     */
+    private final class State {
+        final AtomicLongArray filter;
+        /** Отозванные токены: jti → момент истечения токена, мс */
+        final ConcurrentHashMap<String, Long> tokens = new ConcurrentHashMap<>();
+        /** Отозванные пользователи: id → {момент отзыва, момент, после которого запись не нужна} */
+        final ConcurrentHashMap<Long, long[]> users = new ConcurrentHashMap<>();
+
+        State(int bits) {
+            this.filter = new AtomicLongArray(bits / 64);
+        }
+
+        void addToken(String tokenId, long expiresAtMillis) {
+            tokens.merge(tokenId, expiresAtMillis, Math::max);
+            add(filter, tokenHash(tokenId));
+        }
+
+        void addUser(long userId, long revokedAtMillis, long expiresAtMillis) {
+            users.merge(userId, new long[]{revokedAtMillis, expiresAtMillis},
+                    (a, b) -> new long[]{Math.max(a[0], b[0]), Math.max(a[1], b[1])});
+            add(filter, userHash(userId));
+        }
+    }
+
+    // String.hashCode() кэшируется в самой строке, так что повторное вычисление бесплатно
+    private static long tokenHash(String tokenId) {
+        return mix(tokenId.hashCode() * 0x9E3779B97F4A7C15L + tokenId.length());
+    }
+
+    private static long userHash(long userId) {
+        return mix(userId ^ 0xC2B2AE3D27D4EB4FL);
+    }
+
+    // Финализатор SplitMix64: хорошо перемешивает биты для двойного хеширования
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,55 @@
+package otp.util;
+
+import otp.model.User;
+
+/**
+ * Сведения из проверенного JWT-токена: пользователь и служебные claims,
+ * нужные для кэширования и отзыва (jti, iat, exp).
+ */
+public final class VerifiedToken {
+    private final User user;
+    private final String tokenId;
+    private final long issuedAtMillis;
+    private final long expiresAtMillis;
+
+    /**
+     * @param user            пользователь из claims (id, логин, роль)
+     * @param tokenId         идентификатор токена (jti) или null для токенов без него
+     * @param issuedAtMillis  момент выдачи (iat) или 0, если не указан
+     * @param expiresAtMillis момент истечения (exp)
+     */
+    public VerifiedToken(User user, String tokenId, long issuedAtMillis, long expiresAtMillis) {
+        this.user = user;
+        this.tokenId = tokenId;
+        this.issuedAtMillis = issuedAtMillis;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * @return пользователь из claims токена (общий объект, изменять его нельзя)
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * @return идентификатор токена (jti) или null
+     */
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    /**
+     * @return момент выдачи токена в миллисекундах
+     */
+    public long getIssuedAtMillis() {
+        return issuedAtMillis;
+    }
+
+    /**
+     * @return момент истечения токена в миллисекундах
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+}
@@ -0,0 +1,174 @@
+package otp.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный потокобезопасный кэш уже проверенных JWT-токенов.
+ * <p>
+ * Ключ — подпись токена (последний сегмент): это уже HMAC-дайджест заголовка и
+ * полезной нагрузки, так что отдельно хешировать токен не нужно. При попадании
+ * токен целиком сравнивается с сохранённым за постоянное время, поэтому
+ * чужой токен с той же подписью не пройдёт. Запись живёт до exp токена.
+ * При заполнении кэша новые токены не добавляются (проверяются каждый раз),
+ * пока фоновая задача не удалит истёкшие записи.
+ * </p>
+ */
+public class VerifiedTokenCache {
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "token-cache-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+
+    /**
+     * @param maxSize      максимальное число токенов в кэше
+     * @param sweepSeconds период удаления истёкших записей
+     */
+    public VerifiedTokenCache(int maxSize, int sweepSeconds) {
+        if (maxSize <= 0 || sweepSeconds <= 0) {
+            throw new IllegalArgumentException("Параметры кэша токенов должны быть положительными");
+        }
+        this.maxSize = maxSize;
+        SWEEPER.scheduleWithFixedDelay(this::evictExpired, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Возвращает сведения о ранее проверенном токене.
+     *
+     * @param token JWT-токен целиком
+     * @return проверенный токен или null, если его нет в кэше или он истёк
+     */
+    public VerifiedToken get(String token) {
+        String key = signature(token);
+        Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.verified.getExpiresAtMillis()) {
+            if (entries.remove(key, entry)) {
+                expired.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        if (!constantTimeEquals(entry.token, token)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.verified;
+    }
+
+    /**
+     * Запоминает успешно проверенный токен до момента его истечения (exp).
+     *
+     * @param token    JWT-токен целиком
+     * @param verified сведения из проверенного токена
+     */
+    public void put(String token, VerifiedToken verified) {
+        String key = signature(token);
+        if (key == null || verified.getExpiresAtMillis() <= System.currentTimeMillis()) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            rejected.increment();
+            return;
+        }
+        entries.put(key, new Entry(token, verified));
+    }
+
+    /**
+     * Удаляет из кэша все токены пользователя (например, при удалении или смене роли).
+     *
+     * @param userId идентификатор пользователя
+     */
+    public void invalidateUser(long userId) {
+        entries.values().removeIf(e -> {
+            boolean match = e.verified.getUser().getId() == userId;
+            if (match) {
+                invalidated.increment();
+            }
+            return match;
+        });
+    }
+
+    /**
+     * Очищает кэш целиком (например, при смене секрета подписи).
+     */
+    public void invalidateAll() {
+        invalidated.add(entries.size());
+        entries.clear();
+    }
+
+    /**
+     * @return текущие значения метрик кэша
+     */
+    public Map<String, Object> metrics() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("size", entries.size());
+        metrics.put("maxSize", maxSize);
+        metrics.put("hits", h);
+        metrics.put("misses", m);
+        metrics.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        metrics.put("expired", expired.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("invalidated", invalidated.sum());
+        return metrics;
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (now >= it.next().verified.getExpiresAtMillis()) {
+                it.remove();
+                expired.increment();
+            }
+        }
+    }
+
+    private static String signature(String token) {
+        int dot = token.lastIndexOf('.');
+        return dot > 0 && dot < token.length() - 1 ? token.substring(dot + 1) : null;
+    }
+
+    private static boolean constantTimeEquals(String a, String b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < a.length(); i++) {
+            diff |= a.charAt(i) ^ b.charAt(i);
+        }
+        return diff == 0;
+    }
+
+    private static final class Entry {
+        final String token;
+        final VerifiedToken verified;
+
+        Entry(String token, VerifiedToken verified) {
+            this.token = token;
+            this.verified = verified;
+        }
+    }
+}
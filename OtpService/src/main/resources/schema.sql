@@ -8,6 +8,9 @@ CREATE TABLE IF NOT EXISTS users (
     role VARCHAR(10) NOT NULL CHECK (role IN ('ADMIN','USER'))
 );
 
+-- Не больше одного администратора: уникальный индекс только по строкам с ролью ADMIN
+CREATE UNIQUE INDEX IF NOT EXISTS uq_users_single_admin ON users(role) WHERE role = 'ADMIN';
+
 -- Таблица конфигурации OTP (должна содержать ровно одну запись)
 CREATE TABLE IF NOT EXISTS otp_config (
     id BIGSERIAL PRIMARY KEY,
@@ -22,8 +25,43 @@ CREATE TABLE IF NOT EXISTS otp_codes (
     operation_id VARCHAR(100),
     code VARCHAR(20) NOT NULL,
     status VARCHAR(10) NOT NULL CHECK (status IN ('ACTIVE','USED','EXPIRED')),
-    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW()
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW(),
+    expires_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
 );
 
+-- Миграция существующих баз: срок истечения считается по текущему TTL
+ALTER TABLE otp_codes ADD COLUMN IF NOT EXISTS expires_at TIMESTAMP WITHOUT TIME ZONE;
+UPDATE otp_codes
+   SET expires_at = created_at + make_interval(secs => (SELECT ttl_seconds FROM otp_config LIMIT 1))
+ WHERE expires_at IS NULL;
+
 -- Индекс для быстрого поиска OTP-кода
 CREATE INDEX IF NOT EXISTS idx_otp_codes_code ON otp_codes(code);
+
+-- Индекс активных кодов по значению больше не используется: убираем его из существующих баз
+DROP INDEX IF EXISTS idx_otp_codes_active_code;
+
+-- Индекс для погашения кода пользователя по операции (только активные коды)
+CREATE INDEX IF NOT EXISTS idx_otp_codes_active_user_operation
+    ON otp_codes(user_id, operation_id, code) WHERE status = 'ACTIVE';
+
+-- Индекс для страховочного прохода истечения: только активные коды по сроку
+CREATE INDEX IF NOT EXISTS idx_otp_codes_active_expires_at
+    ON otp_codes(expires_at) WHERE status = 'ACTIVE';
+
+-- Индекс для выгрузки кодов за период
+CREATE INDEX IF NOT EXISTS idx_otp_codes_created_at ON otp_codes(created_at);
+
+-- Отозванные JWT-токены: jti задан — отозван один токен,
+-- jti = NULL — все токены пользователя, выданные не позже revoked_at.
+-- Строки нужны только до expires_at, после чего удаляются.
+CREATE TABLE IF NOT EXISTS revoked_tokens (
+    id BIGSERIAL PRIMARY KEY,
+    jti VARCHAR(64) UNIQUE,
+    user_id BIGINT NOT NULL,
+    revoked_at TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW(),
+    expires_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+-- Индекс для загрузки действующих отзывов и очистки истёкших
+CREATE INDEX IF NOT EXISTS idx_revoked_tokens_expires_at ON revoked_tokens(expires_at);